@@ -0,0 +1,274 @@
+package umm3601;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.mongodb.MongoTimeoutException;
+
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Limits how many database operations are in flight at once, adjusting
+ * the limit on its own to follow how the database is actually doing.
+ *
+ * Any fixed limit is wrong some of the time: too low and we leave
+ * throughput on the table, too high and we just pile more work onto a
+ * database that's already struggling, making every operation slower.
+ * This uses the "gradient" approach (as in Netflix's concurrency-limits
+ * library) to find the knee of the latency curve instead:
+ *
+ *   - Each operation's round trip time is folded into a short-term
+ *     average (the last few operations) and a long-term average (the last
+ *     several hundred).
+ *   - If the short-term average is well above the long-term one, work is
+ *     queueing up in the database, so the limit shrinks in proportion.
+ *     Otherwise the limit grows a little (by the square root of itself),
+ *     to keep probing for more throughput.
+ *   - A timed out operation shrinks the limit by 10% right away.
+ *
+ * Operations beyond the limit wait (up to `maxWait`, with at most
+ * `maxQueue` of them waiting) for one in flight to finish; past that they
+ * fail with a 503 Service Unavailable rather than wait indefinitely.
+ *
+ * `unlimited()` gives a limiter that just runs every operation.
+ */
+public final class AdaptiveLimiter {
+
+  // How much latency above the long-term average is tolerated before shrinking the limit
+  private static final double TOLERANCE = 1.5;
+  // How much weight each new round trip time gets in the short- and long-term averages
+  private static final double SHORT_WEIGHT = 0.1;
+  private static final double LONG_WEIGHT = 1.0 / 600;
+  // How quickly the limit moves toward where the gradient says it should be
+  private static final double SMOOTHING = 0.2;
+  // The most the limit shrinks (as a fraction) from one operation
+  private static final double MIN_GRADIENT = 0.5;
+  // How much the limit shrinks when an operation times out
+  private static final double TIMEOUT_BACKOFF = 0.9;
+
+  private static final AdaptiveLimiter UNLIMITED = new AdaptiveLimiter(0, 0, 0, 0, 0);
+
+  private final boolean enabled;
+  private final int minLimit;
+  private final int maxLimit;
+  private final int maxQueue;
+  private final long maxWaitNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition hasRoom = lock.newCondition();
+  private final AtomicLong rejected = new AtomicLong();
+
+  // All guarded by `lock`
+  private double limit;
+  private int inFlight;
+  private int waiting;
+  private double shortRttNanos;
+  private double longRttNanos;
+
+  /**
+   * @param initialLimit how many operations to allow in flight at first
+   * @param minLimit the fewest operations ever allowed in flight
+   * @param maxLimit the most operations ever allowed in flight
+   * @param maxQueue how many operations can wait for a turn
+   * @param maxWaitMillis the longest an operation waits for a turn before failing
+   */
+  public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, long maxWaitMillis) {
+    this.enabled = maxLimit > 0;
+    this.limit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.maxQueue = maxQueue;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+  }
+
+  /**
+   * @return a limiter that runs every operation right away
+   */
+  public static AdaptiveLimiter unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * Run a database operation once there's room for it.
+   *
+   * The operation should do all of its work with the database (e.g., end
+   * with `into()` or `first()`, rather than return a lazy iterable), so its
+   * whole round trip is measured.
+   *
+   * @param <T> the type of the operation's result
+   * @param operation the operation to run
+   * @return the operation's result
+   * @throws ServiceUnavailableResponse if there was no room for the operation in time
+   */
+  public <T> T call(Supplier<T> operation) {
+    if (!enabled) {
+      return operation.get();
+    }
+    acquire();
+    long start = System.nanoTime();
+    long rttNanos = -1;
+    boolean timedOut = false;
+    try {
+      T result = operation.get();
+      rttNanos = System.nanoTime() - start;
+      return result;
+    } catch (MongoExecutionTimeoutException | MongoTimeoutException | MongoSocketReadTimeoutException e) {
+      timedOut = true;
+      throw e;
+    } finally {
+      release(rttNanos, timedOut);
+    }
+  }
+
+  /**
+   * Run a database operation with no result once there's room for it.
+   *
+   * @param operation the operation to run
+   * @throws ServiceUnavailableResponse if there was no room for the operation in time
+   */
+  public void run(Runnable operation) {
+    call(() -> {
+      operation.run();
+      return null;
+    });
+  }
+
+  private void acquire() {
+    lock.lock();
+    try {
+      if (inFlight >= (int) limit) {
+        if (waiting >= maxQueue) {
+          throw reject();
+        }
+        waiting++;
+        try {
+          long remaining = maxWaitNanos;
+          while (inFlight >= (int) limit) {
+            if (remaining <= 0) {
+              throw reject();
+            }
+            remaining = hasRoom.awaitNanos(remaining);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw reject();
+        } finally {
+          waiting--;
+        }
+      }
+      inFlight++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private ServiceUnavailableResponse reject() {
+    rejected.incrementAndGet();
+    return new ServiceUnavailableResponse("The database is too busy right now; try again later");
+  }
+
+  // `rttNanos` is -1 if the operation failed (for some reason other than timing out)
+  private void release(long rttNanos, boolean timedOut) {
+    lock.lock();
+    try {
+      // Only operations that used at least half of the limit say anything about a bigger one
+      boolean busy = inFlight >= limit / 2;
+      inFlight--;
+      if (timedOut) {
+        limit = Math.max(minLimit, limit * TIMEOUT_BACKOFF);
+      } else if (rttNanos >= 0) {
+        sample(rttNanos, busy);
+      }
+      hasRoom.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void sample(long rttNanos, boolean busy) {
+    if (longRttNanos == 0) {
+      shortRttNanos = rttNanos;
+      longRttNanos = rttNanos;
+      return;
+    }
+    shortRttNanos += (rttNanos - shortRttNanos) * SHORT_WEIGHT;
+    longRttNanos += (rttNanos - longRttNanos) * LONG_WEIGHT;
+    // If things got much faster (e.g., a slow patch ended), don't wait for
+    // hundreds of operations before the long-term average catches up
+    if (longRttNanos > 2 * shortRttNanos) {
+      longRttNanos = (longRttNanos + shortRttNanos) / 2;
+    }
+    double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longRttNanos / shortRttNanos));
+    if (gradient == 1.0 && !busy) {
+      // All's well, but we weren't using the limit we have, so there's no sign a bigger one would help
+      return;
+    }
+    double target = limit * gradient + Math.sqrt(limit);
+    limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+  }
+
+  /**
+   * @return how many operations are allowed in flight right now
+   */
+  public int limit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return how many operations are in flight right now
+   */
+  public int inFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return how many operations are waiting for a turn right now
+   */
+  public int waiting() {
+    lock.lock();
+    try {
+      return waiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return how many operations have been turned away so far
+   */
+  public long rejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Report this limiter's current limit, in flight and waiting operations,
+   * and rejections as metrics named `<prefix>.limit`, etc.
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    if (!enabled) {
+      return;
+    }
+    metrics.register(prefix + ".limit", this::limit);
+    metrics.register(prefix + ".inFlight", this::inFlight);
+    metrics.register(prefix + ".waiting", this::waiting);
+    metrics.register(prefix + ".rejected", this::rejected);
+  }
+}
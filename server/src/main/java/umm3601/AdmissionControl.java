@@ -0,0 +1,185 @@
+package umm3601;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.Header;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Limits how many requests of each priority class the server works on at
+ * once, and sheds the excess with a quick 503 instead of letting it pile up.
+ *
+ * Every route is put in a `Priority` class when it's added (in the
+ * controllers' `addRoutes()`) by wrapping its handler with `limit()`. Each
+ * class gets its own limit on how many of its requests can run at once,
+ * and on how many more can wait for a turn (for up to `maxWait`).
+ * Anything past that is turned away right away with a 503 Service
+ * Unavailable and a `Retry-After` header. Because the classes don't share
+ * their limits, a storm of slow aggregations (`LOW`) can only tie up its
+ * own few slots, and cheap by-id lookups (`HIGH`) keep flowing.
+ *
+ * `unlimited()` gives an `AdmissionControl` that lets everything through
+ * (and doesn't wrap handlers at all).
+ */
+public final class AdmissionControl {
+
+  /**
+   * The priority classes routes are sorted into.
+   */
+  public enum Priority {
+    /**
+     * Cheap, latency sensitive requests, like looking up, adding, or deleting one thing by its ID.
+     */
+    HIGH,
+    /**
+     * Ordinary (filtered, sorted) list queries.
+     */
+    NORMAL,
+    /**
+     * Expensive requests, like aggregations over a whole collection, that can wait or be shed first.
+     */
+    LOW
+  }
+
+  /**
+   * The limits for one priority class.
+   *
+   * @param concurrency how many requests of the class can run at once
+   * @param queue how many more requests can wait for a turn
+   */
+  public record Limit(int concurrency, int queue) {
+  }
+
+  private static final AdmissionControl UNLIMITED = new AdmissionControl(Map.of(), 0, 0);
+
+  private final Map<Priority, PriorityClass> classes = new EnumMap<>(Priority.class);
+  private final long maxWaitMillis;
+  private final String retryAfterSeconds;
+
+  /**
+   * @param limits the limits for each priority class; classes that aren't
+   *   in here aren't limited at all
+   * @param maxWaitMillis the longest a request waits for a turn before it's shed
+   * @param retryAfterSeconds what to tell shed clients (in `Retry-After`) to wait before retrying
+   */
+  public AdmissionControl(Map<Priority, Limit> limits, long maxWaitMillis, long retryAfterSeconds) {
+    limits.forEach((priority, limit) -> classes.put(priority, new PriorityClass(limit)));
+    this.maxWaitMillis = maxWaitMillis;
+    this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+  }
+
+  /**
+   * @return an `AdmissionControl` that doesn't limit anything
+   */
+  public static AdmissionControl unlimited() {
+    return UNLIMITED;
+  }
+
+  /**
+   * Wrap a route's handler so it only runs when its priority class has room.
+   *
+   * @param priority the route's priority class
+   * @param handler the route's handler
+   * @return the limited handler (or just `handler`, if the class isn't limited)
+   */
+  public Handler limit(Priority priority, Handler handler) {
+    PriorityClass limited = classes.get(priority);
+    if (limited == null) {
+      return handler;
+    }
+    return ctx -> {
+      limited.admit(ctx);
+      try {
+        handler.handle(ctx);
+      } finally {
+        limited.permits.release();
+        limited.running.decrementAndGet();
+      }
+    };
+  }
+
+  /**
+   * @param priority a priority class
+   * @return how many of the class's requests are running right now
+   */
+  public int running(Priority priority) {
+    PriorityClass limited = classes.get(priority);
+    return limited == null ? 0 : limited.running.get();
+  }
+
+  /**
+   * @param priority a priority class
+   * @return how many of the class's requests have been shed so far
+   */
+  public long shed(Priority priority) {
+    PriorityClass limited = classes.get(priority);
+    return limited == null ? 0 : limited.shed.get();
+  }
+
+  /**
+   * Report how many of each limited class's requests are running and
+   * waiting, and how many have been shed, as metrics named
+   * `<prefix>.<class>.running`, etc.
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    classes.forEach((priority, limited) -> {
+      String name = prefix + "." + priority.name().toLowerCase(Locale.ROOT);
+      metrics.register(name + ".running", limited.running::get);
+      metrics.register(name + ".waiting", limited.waiting::get);
+      metrics.register(name + ".shed", limited.shed::get);
+    });
+  }
+
+  /**
+   * The permits and counters for one limited priority class.
+   */
+  private final class PriorityClass {
+    private final Semaphore permits;
+    private final int queue;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong shed = new AtomicLong();
+
+    PriorityClass(Limit limit) {
+      this.permits = new Semaphore(limit.concurrency(), true);
+      this.queue = limit.queue();
+    }
+
+    // Take a permit (waiting for one if there's room in the queue), or throw a 503
+    void admit(Context ctx) throws InterruptedException {
+      if (!permits.tryAcquire()) {
+        if (waiting.incrementAndGet() > queue) {
+          waiting.decrementAndGet();
+          throw reject(ctx);
+        }
+        boolean acquired;
+        try {
+          acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } finally {
+          waiting.decrementAndGet();
+        }
+        if (!acquired) {
+          throw reject(ctx);
+        }
+      }
+      running.incrementAndGet();
+    }
+
+    private ServiceUnavailableResponse reject(Context ctx) {
+      shed.incrementAndGet();
+      ctx.header(Header.RETRY_AFTER, retryAfterSeconds);
+      return new ServiceUnavailableResponse("The server is too busy for this request right now; try again later");
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * Collects concurrent lookups by key into batches, so that (say) fifty
+ * requests for fifty different todos become one
+ * `find({_id: {$in: [...]}})` instead of fifty `find(eq("_id", ...))`s.
+ *
+ * The first lookup to arrive opens a batch and waits `window` for others
+ * to join it; then it runs the whole batch with `batchFind` and hands each
+ * waiting lookup its own result. A batch that fills up (`maxBatchSize`
+ * keys) is run right away by whoever filled it. Lookups of the same key
+ * in one batch share its result.
+ *
+ * A window of zero (or a batch size of one) turns batching off: each
+ * lookup just runs `batchFind` on its own key.
+ *
+ * @param <K> the type of the keys (e.g., `ObjectId`)
+ * @param <V> the type of the values found
+ */
+public final class BatchLoader<K, V> {
+
+  private final BiFunction<List<K>, Duration, Map<K, V>> batchFind;
+  private final long windowNanos;
+  private final int maxBatchSize;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  // The batch that's still open for lookups to join (or `null`), guarded by `lock`
+  private Map<K, CompletableFuture<V>> open;
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+
+  /**
+   * @param batchFind finds the values for a list of keys (within the given
+   *   time), returning a map with an entry for each key it found
+   * @param window how long a batch waits for more lookups to join it
+   * @param maxBatchSize the most keys to look up in one batch
+   */
+  public BatchLoader(BiFunction<List<K>, Duration, Map<K, V>> batchFind, Duration window, int maxBatchSize) {
+    this.batchFind = batchFind;
+    this.windowNanos = window.toNanos();
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * @return `true` if lookups are actually batched
+   */
+  public boolean isBatching() {
+    return windowNanos > 0 && maxBatchSize > 1;
+  }
+
+  /**
+   * Look up the value for `key`, as part of a batch.
+   *
+   * @param key the key to look up
+   * @param maxTime how long the lookup (including waiting for its batch) can take
+   * @return the value for `key`, or `null` if there isn't one
+   * @throws io.javalin.http.GatewayTimeoutResponse if the batch doesn't finish within `maxTime`
+   */
+  public V load(K key, Duration maxTime) {
+    lookups.incrementAndGet();
+    if (!isBatching()) {
+      batches.incrementAndGet();
+      return batchFind.apply(List.of(key), maxTime).get(key);
+    }
+
+    Map<K, CompletableFuture<V>> batch;
+    CompletableFuture<V> result;
+    boolean opened;
+    boolean full;
+    lock.lock();
+    try {
+      opened = open == null;
+      if (opened) {
+        open = new LinkedHashMap<>();
+      }
+      batch = open;
+      result = batch.computeIfAbsent(key, k -> new CompletableFuture<>());
+      full = batch.size() >= maxBatchSize;
+      if (full) {
+        open = null;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (full) {
+      run(batch, maxTime);
+    } else if (opened) {
+      LockSupport.parkNanos(windowNanos);
+      if (close(batch)) {
+        run(batch, maxTime);
+      }
+    }
+    return Deadline.await(result, maxTime);
+  }
+
+  // Stop `batch` taking more lookups; `true` if it was still open (so it's
+  // up to the caller to run it), `false` if it had already filled up
+  private boolean close(Map<K, CompletableFuture<V>> batch) {
+    lock.lock();
+    try {
+      if (open != batch) {
+        return false;
+      }
+      open = null;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void run(Map<K, CompletableFuture<V>> batch, Duration maxTime) {
+    batches.incrementAndGet();
+    try {
+      Map<K, V> found = batchFind.apply(new ArrayList<>(batch.keySet()), maxTime);
+      batch.forEach((key, result) -> result.complete(found.get(key)));
+    } catch (RuntimeException | Error e) {
+      batch.values().forEach(result -> result.completeExceptionally(e));
+    }
+  }
+
+  /**
+   * @return how many lookups there have been
+   */
+  public long lookups() {
+    return lookups.get();
+  }
+
+  /**
+   * @return how many batches (i.e., database queries) those lookups took
+   */
+  public long batches() {
+    return batches.get();
+  }
+
+  /**
+   * Report the number of lookups and batches, as metrics named
+   * `<prefix>.lookups` and `<prefix>.batches`.
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    metrics.register(prefix + ".lookups", lookups::get);
+    metrics.register(prefix + ".batches", batches::get);
+  }
+}
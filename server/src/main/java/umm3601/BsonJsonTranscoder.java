@@ -0,0 +1,79 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.bson.BsonBinaryReader;
+import org.bson.RawBsonDocument;
+import org.bson.io.ByteBufferBsonInput;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriter;
+import org.bson.json.JsonWriterSettings;
+
+/**
+ * Turns raw BSON documents, straight from the MongoDB driver, into the
+ * bytes of a JSON array without ever building a Java object for each
+ * document.
+ *
+ * The usual read path decodes every BSON document into a POJO (like
+ * `Todo`) via MongoJack, just so Javalin can turn it back into JSON.
+ * For list endpoints that don't change the data along the way, we can
+ * instead read `RawBsonDocument`s (which are just wrappers around the
+ * bytes the server sent) and stream each one through the driver's
+ * `JsonWriter` into a single output buffer.
+ *
+ * The output matches what Jackson produces for our POJOs: `ObjectId`s
+ * are written as plain hex strings (not `{"$oid": ...}`), and numbers
+ * are written as plain JSON numbers.
+ */
+public final class BsonJsonTranscoder {
+
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+
+  private static final JsonWriterSettings SETTINGS = JsonWriterSettings.builder()
+    .outputMode(JsonMode.RELAXED)
+    .objectIdConverter((value, writer) -> writer.writeString(value.toHexString()))
+    .build();
+
+  private BsonJsonTranscoder() {
+  }
+
+  /**
+   * Transcode a sequence of raw BSON documents into a UTF-8 encoded JSON array.
+   *
+   * The documents are consumed (and written) one at a time, so this works
+   * directly on a driver cursor like `collection.find(...)`.
+   *
+   * @param documents the raw documents to transcode
+   * @return the bytes of a JSON array containing every document
+   */
+  public static byte[] toJsonArray(Iterable<RawBsonDocument> documents) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+    try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+      out.write('[');
+      boolean first = true;
+      for (RawBsonDocument document : documents) {
+        if (!first) {
+          out.write(',');
+        }
+        first = false;
+        writeDocument(document, out);
+      }
+      out.write(']');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeDocument(RawBsonDocument document, Writer out) {
+    // `pipe` walks the BSON bytes and writes the corresponding JSON as it goes.
+    try (BsonBinaryReader reader = new BsonBinaryReader(new ByteBufferBsonInput(document.getByteBuffer()))) {
+      new JsonWriter(out, SETTINGS).pipe(reader);
+    }
+  }
+}
@@ -0,0 +1,320 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.javalin.Javalin;
+import io.javalin.http.sse.SseClient;
+
+/**
+ * Pushes inserts, updates, and deletes of todos and users to clients as
+ * server-sent events, so dashboards can follow changes as they happen
+ * instead of polling for them.
+ *
+ * A client subscribes with `GET /api/changes`, optionally narrowed by
+ * query parameters: `collection` (`todos` or `users`), `owner`,
+ * `category`, and `company`. A change is only sent to a client if it has
+ * every attribute the client asked for, with the same value (so, e.g.,
+ * `?company=OHMNET` only gets users). Each event is named for the kind of
+ * change (`insert`, `update`, or `delete`) and holds a `Change` as JSON.
+ *
+ * `publish()` never waits on clients. It hands the change to one
+ * dedicated (virtual) fan-out thread, which keeps changes in the order
+ * they were published and puts each one on the queue of every matching
+ * client. At most `backlog` changes wait for the fan-out thread; if it
+ * falls that far behind, new changes are counted as overflowed and not
+ * sent to anyone, rather than `publish()` blocking. Each client has its
+ * own virtual thread sending from its queue; a queue holds at most
+ * `queueSize` changes, and when a client falls that far behind its oldest
+ * changes are dropped, rather than holding on to ever more memory (or
+ * slowing anyone else down).
+ */
+public final class ChangeFeed implements Controller {
+
+  /**
+   * How many changes each client's queue holds, unless told otherwise.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+
+  /**
+   * How many changes can wait for the fan-out thread, unless told otherwise.
+   */
+  public static final int DEFAULT_BACKLOG = 4096;
+
+  /**
+   * The query parameters a client can narrow its subscription with.
+   */
+  public static final List<String> FILTER_KEYS = List.of("collection", "owner", "category", "company");
+
+  private static final String API_CHANGES = "/api/changes";
+  // How often an idle client is sent a comment, which also finds clients that have gone away
+  private static final Duration KEEP_ALIVE = Duration.ofSeconds(15);
+
+  private final int queueSize;
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private final ExecutorService fanOut;
+
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong delivered = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong overflowed = new AtomicLong();
+
+  /**
+   * One change, as sent to clients.
+   *
+   * @param collection the collection that changed (`todos` or `users`)
+   * @param type what happened to the document (`insert`, `update`, or `delete`)
+   * @param id the document's ID
+   * @param document the document as it now is (or, for a delete, just its
+   *   `_id` and the attributes subscriptions are narrowed by; see `deleted()`)
+   */
+  public record Change(String collection, String type, String id, Object document) {
+  }
+
+  // A change, and the attributes subscriptions are matched against
+  private record Published(Change change, Map<String, String> attributes) {
+  }
+
+  /**
+   * One client's subscription: what it asked for, and the changes waiting
+   * to be sent to it.
+   */
+  final class Subscription {
+    private final Map<String, String> filters;
+    private final BlockingQueue<Change> queue = new ArrayBlockingQueue<>(queueSize);
+
+    private Subscription(Map<String, String> filters) {
+      this.filters = filters;
+    }
+
+    private boolean matches(Map<String, String> attributes) {
+      for (Map.Entry<String, String> filter : filters.entrySet()) {
+        if (!filter.getValue().equals(attributes.get(filter.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Queue `change`, dropping the oldest changes to make room if need be
+    private void offer(Change change) {
+      while (!queue.offer(change)) {
+        if (queue.poll() != null) {
+          dropped.incrementAndGet();
+        }
+      }
+    }
+
+    /**
+     * @param maxWait the longest to wait for a change
+     * @return the next change for this client, or `null` if there wasn't one within `maxWait`
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Change next(Duration maxWait) throws InterruptedException {
+      return queue.poll(maxWait.toNanos(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * @param queueSize how many changes each client's queue holds
+   */
+  public ChangeFeed(int queueSize) {
+    this(queueSize, DEFAULT_BACKLOG);
+  }
+
+  /**
+   * @param queueSize how many changes each client's queue holds
+   * @param backlog how many changes can wait for the fan-out thread
+   */
+  public ChangeFeed(int queueSize, int backlog) {
+    this.queueSize = queueSize;
+    // One thread, so changes go out in order, and a bounded queue in front
+    // of it whose overflow is counted, so `publish()` never blocks
+    fanOut = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(backlog),
+      Thread.ofVirtual().name("change-feed").factory(), (task, executor) -> overflowed.incrementAndGet());
+  }
+
+  /**
+   * @param keysAndValues attribute names and values, alternating; names
+   *   whose values are `null` are left out
+   * @return those attributes, for `publish()`
+   */
+  public static Map<String, String> attributes(String... keysAndValues) {
+    Map<String, String> attributes = new HashMap<>();
+    for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+      if (keysAndValues[i + 1] != null) {
+        attributes.put(keysAndValues[i], keysAndValues[i + 1]);
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * @param collection the collection the document was deleted from
+   * @param id the deleted document's ID
+   * @param attributes what subscriptions can be narrowed by (see `attributes()`)
+   * @return the delete of that document, whose `document` holds only its
+   *   `_id` and `attributes` (so fields that weren't read aren't mistaken
+   *   for real values)
+   */
+  public static Change deleted(String collection, String id, Map<String, String> attributes) {
+    Map<String, Object> document = new LinkedHashMap<>();
+    document.put("_id", id);
+    document.putAll(attributes);
+    return new Change(collection, "delete", id, document);
+  }
+
+  /**
+   * Send a change to every client subscribed to it. This returns right
+   * away; the change is sent in the background.
+   *
+   * @param change the change
+   * @param attributes what subscriptions can be narrowed by (besides the
+   *   collection), e.g., the todo's owner and category
+   */
+  public void publish(Change change, Map<String, String> attributes) {
+    published.incrementAndGet();
+    if (subscriptions.isEmpty()) {
+      return;
+    }
+    Map<String, String> all = new HashMap<>(attributes);
+    all.put("collection", change.collection());
+    Published event = new Published(change, all);
+    fanOut.execute(() -> {
+      for (Subscription subscription : subscriptions) {
+        if (subscription.matches(event.attributes())) {
+          subscription.offer(event.change());
+        }
+      }
+    });
+  }
+
+  /**
+   * @param filters the attributes (from `FILTER_KEYS`) a change must have to be sent
+   * @return a new subscription to the changes that match `filters`
+   */
+  Subscription subscribe(Map<String, String> filters) {
+    Subscription subscription = new Subscription(filters);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /**
+   * @param subscription a subscription that's no longer wanted
+   */
+  void unsubscribe(Subscription subscription) {
+    subscriptions.remove(subscription);
+  }
+
+  /**
+   * Subscribe a newly connected client (narrowed by its query parameters),
+   * and start sending it changes.
+   *
+   * @param client the client that just connected
+   */
+  public void stream(SseClient client) {
+    Map<String, String> filters = new HashMap<>();
+    for (String key : FILTER_KEYS) {
+      String value = client.ctx().queryParam(key);
+      if (value != null) {
+        filters.put(key, value);
+      }
+    }
+    Subscription subscription = subscribe(filters);
+    client.keepAlive();
+    client.onClose(() -> unsubscribe(subscription));
+    Thread.ofVirtual().name("change-feed-client").start(() -> send(client, subscription));
+  }
+
+  // A client's sending loop, which runs until the client goes away
+  private void send(SseClient client, Subscription subscription) {
+    try {
+      while (!client.terminated()) {
+        Change change = subscription.next(KEEP_ALIVE);
+        if (change == null) {
+          client.sendComment("keep-alive");
+        } else {
+          client.sendEvent(change.type(), change);
+          delivered.incrementAndGet();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      unsubscribe(subscription);
+    }
+  }
+
+  /**
+   * @return how many changes have been published
+   */
+  public long published() {
+    return published.get();
+  }
+
+  /**
+   * @return how many changes have been sent to clients
+   */
+  public long delivered() {
+    return delivered.get();
+  }
+
+  /**
+   * @return how many changes were dropped because a client fell too far behind
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * @return how many changes weren't sent to anyone because the fan-out thread fell too far behind
+   */
+  public long overflowed() {
+    return overflowed.get();
+  }
+
+  /**
+   * @return how many clients are subscribed
+   */
+  public int subscribers() {
+    return subscriptions.size();
+  }
+
+  /**
+   * Report the number of changes published, sent, dropped, and overflowed,
+   * and the number of subscribed clients, as metrics named
+   * `<prefix>.published`, `<prefix>.delivered`, `<prefix>.dropped`,
+   * `<prefix>.overflowed`, and `<prefix>.subscribers`.
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    metrics.register(prefix + ".published", published::get);
+    metrics.register(prefix + ".delivered", delivered::get);
+    metrics.register(prefix + ".dropped", dropped::get);
+    metrics.register(prefix + ".overflowed", overflowed::get);
+    metrics.register(prefix + ".subscribers", subscriptions::size);
+  }
+
+  /**
+   * Add the server-sent events endpoint, `GET /api/changes`.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.sse(API_CHANGES, this::stream);
+  }
+}
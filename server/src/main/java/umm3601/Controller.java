@@ -21,7 +21,8 @@ import io.javalin.Javalin;
  * Note that this interface definition is _complete_ and you shouldn't need to
  * add anything to it. You just need to make sure that any new controllers
  * you implement also implement this interface, providing their own `addRoutes()`
- * method.
+ * method. Controllers with slow, one-time setup to do (like making sure their
+ * collection's indexes exist) can also override `warmUp()`.
  */
 public interface Controller {
   /**
@@ -35,4 +36,20 @@ public interface Controller {
    * @param server The Javalin server to add routes to
    */
   void addRoutes(Javalin server);
+
+  /**
+   * Do any slow, one-time setup this controller needs before it can serve
+   * requests at full speed, like making sure its collection's indexes
+   * exist, or warming up its caches.
+   *
+   * This is called once, after the server has started listening, and the
+   * warm ups of all the controllers run at the same time. The server's
+   * `/ready` endpoint doesn't report it as ready until every controller's
+   * `warmUp()` has returned. If it throws, it'll be called again (after a
+   * short wait) until it succeeds, so it should be safe to repeat.
+   *
+   * By default there's nothing to do.
+   */
+  default void warmUp() {
+  }
 }
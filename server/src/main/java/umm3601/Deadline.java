@@ -0,0 +1,125 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.javalin.http.Context;
+import io.javalin.http.GatewayTimeoutResponse;
+
+/**
+ * The point in time by which a request has to be answered.
+ *
+ * Every route is wrapped (see `Deadlines.within()`) so that its request
+ * carries a deadline, and the controllers pass what's left of it on to
+ * MongoDB as each query's `maxTime`. That way a query whose client has
+ * already given up (a pathological regex, say, or an unindexed sort) is
+ * stopped by the database, instead of running to completion for nobody.
+ */
+public final class Deadline {
+
+  /**
+   * The request attribute holding the request's `Deadline`.
+   */
+  static final String ATTRIBUTE = "umm3601.deadline";
+
+  /**
+   * The budget for requests that somehow didn't get a deadline (e.g., when
+   * a controller method is called directly, as in the tests).
+   */
+  static final Duration FALLBACK = Duration.ofSeconds(10);
+
+  private final long expiresAt;
+
+  private Deadline(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  /**
+   * @param budget how long from now until the deadline
+   * @return a deadline `budget` from now
+   */
+  public static Deadline after(Duration budget) {
+    return new Deadline(System.nanoTime() + budget.toNanos());
+  }
+
+  /**
+   * @param ctx a Javalin HTTP context
+   * @return the request's deadline (or one `FALLBACK` from now, if it doesn't have one)
+   */
+  public static Deadline of(Context ctx) {
+    return of(ctx, FALLBACK);
+  }
+
+  /**
+   * @param ctx a Javalin HTTP context
+   * @param fallback the budget to use if the request doesn't have a deadline
+   * @return the request's deadline (or one `fallback` from now, if it doesn't have one)
+   */
+  public static Deadline of(Context ctx, Duration fallback) {
+    Deadline deadline = ctx.attribute(ATTRIBUTE);
+    return deadline != null ? deadline : after(fallback);
+  }
+
+  /**
+   * @return how much time is left (never negative)
+   */
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, expiresAt - System.nanoTime()));
+  }
+
+  /**
+   * @return how many (whole) milliseconds are left, to use as a query's `maxTime`
+   * @throws GatewayTimeoutResponse if there's no time left
+   */
+  public long maxTimeMillis() {
+    // A `maxTime` of 0 means "no limit" to MongoDB, so rather than ask for
+    // that, give up here.
+    long millis = remaining().toMillis();
+    if (millis <= 0) {
+      throw expired();
+    }
+    return millis;
+  }
+
+  /**
+   * Wait for work that some other thread is doing on this request's behalf
+   * (e.g., a shared load, or a batch it's part of).
+   *
+   * @param <T> the type of the result
+   * @param future the result of the work
+   * @param maxWait the longest to wait for it
+   * @return the result
+   * @throws GatewayTimeoutResponse if the work doesn't finish within `maxWait`
+   * @throws RuntimeException whatever the work failed with
+   */
+  static <T> T await(Future<T> future, Duration maxWait) {
+    try {
+      return future.get(maxWait.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException e) {
+      throw expired();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for work done for this request", e);
+    } catch (ExecutionException e) {
+      // Hand on the work's own exception (e.g., a 504, or a 503 from the
+      // database limiter), so the request fails just as the work did.
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * @return the exception for a request that's run out of time
+   */
+  static GatewayTimeoutResponse expired() {
+    return new GatewayTimeoutResponse("The request took longer than its deadline");
+  }
+}
@@ -0,0 +1,97 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.mongodb.MongoExecutionTimeoutException;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import umm3601.AdmissionControl.Priority;
+
+/**
+ * Gives each request a `Deadline`, and turns running out of time into a
+ * 504 Gateway Timeout.
+ *
+ * Each route has a default budget, either given directly or (usually)
+ * taken from its priority class, since the classes already sort routes
+ * by how expensive they are. A client can ask for a different budget with
+ * the `X-Request-Timeout-Ms` header (e.g., because it will give up sooner
+ * than that anyway), up to `maxBudget`.
+ *
+ * If MongoDB stops a query because it ran past its `maxTime` (which the
+ * controllers set from the deadline), the request fails with a 504 rather
+ * than a generic 500.
+ */
+public final class Deadlines {
+
+  /**
+   * The request header a client can use to set its own budget, in milliseconds.
+   */
+  public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+  private final Map<Priority, Duration> budgets;
+  private final Duration maxBudget;
+
+  /**
+   * @param budgets the default budget for each priority class's routes
+   * @param maxBudget the largest budget a client can ask for
+   */
+  public Deadlines(Map<Priority, Duration> budgets, Duration maxBudget) {
+    this.budgets = new EnumMap<>(budgets);
+    this.maxBudget = maxBudget;
+  }
+
+  /**
+   * @return deadlines with the default budgets: 2s for `HIGH` priority
+   *   routes, 5s for `NORMAL`, 15s for `LOW`, and at most 30s on request
+   */
+  public static Deadlines standard() {
+    return new Deadlines(Map.of(
+      Priority.HIGH, Duration.ofSeconds(2),
+      Priority.NORMAL, Duration.ofSeconds(5),
+      Priority.LOW, Duration.ofSeconds(15)),
+      Duration.ofSeconds(30));
+  }
+
+  /**
+   * Wrap a route's handler so its requests get a deadline, using the
+   * default budget for the route's priority class.
+   *
+   * @param priority the route's priority class
+   * @param handler the route's handler
+   * @return the wrapped handler
+   */
+  public Handler within(Priority priority, Handler handler) {
+    return within(budgets.getOrDefault(priority, Deadline.FALLBACK), handler);
+  }
+
+  /**
+   * Wrap a route's handler so its requests get a deadline.
+   *
+   * @param budget the route's default budget
+   * @param handler the route's handler
+   * @return the wrapped handler
+   */
+  public Handler within(Duration budget, Handler handler) {
+    return ctx -> {
+      ctx.attribute(Deadline.ATTRIBUTE, Deadline.after(budgetFor(ctx, budget)));
+      try {
+        handler.handle(ctx);
+      } catch (MongoExecutionTimeoutException e) {
+        throw Deadline.expired();
+      }
+    };
+  }
+
+  private Duration budgetFor(Context ctx, Duration budget) {
+    if (ctx.header(TIMEOUT_HEADER) == null) {
+      return budget;
+    }
+    long millis = ctx.headerAsClass(TIMEOUT_HEADER, Long.class)
+      .check(it -> it > 0, TIMEOUT_HEADER + " must be a positive number of milliseconds")
+      .get();
+    return Duration.ofMillis(Math.min(millis, maxBudget.toMillis()));
+  }
+}
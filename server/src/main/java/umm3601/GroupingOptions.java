@@ -0,0 +1,136 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import io.javalin.http.Context;
+
+/**
+ * The member options shared by all of the "grouped by" endpoints
+ * (`/api/usersByCompany`, `/api/TodoByOwner`, `/api/TodoByStatus`,
+ * `/api/TodoByCategory`, and `/api/todos/summary`).
+ *
+ * By default every group lists every one of its members, which for big
+ * groups means a huge response (and a huge document inside MongoDB, which
+ * caps them at 16MB). These query parameters let a client ask for less:
+ *
+ *   - `countsOnly=true` returns just each group and its count, without
+ *     collecting any members at all
+ *   - `membersLimit=N` returns at most `N` members per group
+ *   - `membersSkip=K` skips the first `K` members of each group, so
+ *     together with `membersLimit` a client can page through members
+ *
+ * Members are ordered by `_id` whenever they are limited or skipped, so
+ * pages are stable from one request to the next. A UI can then show the
+ * counts right away (`countsOnly=true`), and lazily page in the members
+ * of a single group when it's opened (using the endpoint's `group`
+ * parameter, along with `membersSkip` and `membersLimit`).
+ */
+public final class GroupingOptions {
+
+  public static final String COUNTS_ONLY_KEY = "countsOnly";
+  public static final String MEMBERS_LIMIT_KEY = "membersLimit";
+  public static final String MEMBERS_SKIP_KEY = "membersSkip";
+
+  private final boolean countsOnly;
+  private final int membersSkip;
+  // `null` means "no limit"
+  private final Integer membersLimit;
+
+  GroupingOptions(boolean countsOnly, int membersSkip, Integer membersLimit) {
+    this.countsOnly = countsOnly;
+    this.membersSkip = membersSkip;
+    this.membersLimit = membersLimit;
+  }
+
+  /**
+   * Read the grouping options from a request's query parameters.
+   *
+   * @param ctx a Javalin HTTP context with the query parameters
+   * @return the requested grouping options
+   */
+  public static GroupingOptions from(Context ctx) {
+    boolean countsOnly = Boolean.parseBoolean(ctx.queryParam(COUNTS_ONLY_KEY));
+
+    int membersSkip = 0;
+    if (ctx.queryParamMap().containsKey(MEMBERS_SKIP_KEY)) {
+      membersSkip = ctx.queryParamAsClass(MEMBERS_SKIP_KEY, Integer.class)
+        .check(it -> it >= 0, "The number of members to skip can't be negative; you provided "
+          + ctx.queryParam(MEMBERS_SKIP_KEY))
+        .get();
+    }
+
+    Integer membersLimit = null;
+    if (ctx.queryParamMap().containsKey(MEMBERS_LIMIT_KEY)) {
+      membersLimit = ctx.queryParamAsClass(MEMBERS_LIMIT_KEY, Integer.class)
+        .check(it -> it >= 0, "The member limit can't be negative; you provided "
+          + ctx.queryParam(MEMBERS_LIMIT_KEY))
+        .get();
+    }
+
+    return new GroupingOptions(countsOnly, membersSkip, membersLimit);
+  }
+
+  /**
+   * @return `true` if no members should be collected at all
+   */
+  public boolean countsOnly() {
+    return countsOnly || (membersLimit != null && membersLimit == 0);
+  }
+
+  /**
+   * Build the `$group` stage (and any following stages needed to page the
+   * members) for grouping documents by `groupKey`.
+   *
+   * Every group has an `_id` (the value of `groupKey`) and a `count`. Unless
+   * only counts were asked for, each group also has a `membersField` array
+   * holding `memberExpression` for each (requested) member of the group.
+   *
+   * @param groupKey the expression to group by, e.g., `"$company"`
+   * @param membersField the name of the field to collect members into
+   * @param memberExpression what to collect for each member,
+   *   e.g., `{_id: "$_id", name: "$name"}`
+   * @return the aggregation stages to add to the pipeline
+   */
+  public List<Bson> groupStages(String groupKey, String membersField, Document memberExpression) {
+    List<Bson> stages = new ArrayList<>();
+    Document group = new Document("_id", groupKey).append("count", new Document("$sum", 1));
+
+    if (countsOnly()) {
+      // Nothing to collect, so groups stay tiny no matter how big they get.
+      stages.add(new Document("$group", group));
+      return stages;
+    }
+
+    if (membersLimit != null) {
+      // `$topN` only ever holds the members we'll actually return (plus any
+      // we're skipping), instead of pushing every member and trimming later.
+      group.append(membersField, new Document("$topN", new Document("n", (long) membersSkip + membersLimit)
+        .append("sortBy", new Document("_id", 1))
+        .append("output", memberExpression)));
+    } else if (membersSkip > 0) {
+      // Skipping without a limit needs every member in a stable order anyway.
+      group.append(membersField, new Document("$topN", new Document("n", Integer.MAX_VALUE)
+        .append("sortBy", new Document("_id", 1))
+        .append("output", memberExpression)));
+    } else {
+      group.append(membersField, new Document("$push", memberExpression));
+    }
+    stages.add(new Document("$group", group));
+
+    if (membersSkip > 0) {
+      String members = "$" + membersField;
+      // `$slice` needs a positive count, so "the rest of them" is the size of the
+      // array (or 1 if it's empty, in which case the slice is empty anyway).
+      Object count = membersLimit != null
+        ? membersLimit
+        : new Document("$max", List.of(1, new Document("$size", members)));
+      stages.add(new Document("$set", new Document(membersField,
+        new Document("$slice", List.of(members, membersSkip, count)))));
+    }
+    return stages;
+  }
+}
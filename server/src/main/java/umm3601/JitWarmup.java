@@ -0,0 +1,197 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Warms up the JIT (just-in-time) compiler by replaying a mix of recorded
+ * read-only requests against the server, before it reports ready.
+ *
+ * A freshly started JVM interprets everything, and only compiles the code
+ * that turns out to be hot (like `constructFilter()`, the Jackson
+ * serializers, and the MongoDB driver's codecs) after it's been run many
+ * thousands of times. Without this, real users pay for all of that in
+ * slow responses right after every deploy.
+ *
+ * The mix is replayed in rounds, and after each round we look at each
+ * route's median latency. Once every route's median has stayed within
+ * 10% of the round before for a few rounds in a row, the compiler has
+ * (mostly) caught up and we stop; we also stop after `maxTime` no matter
+ * what. Only `GET`s (and `HEAD`s) are replayed, so this never changes
+ * anything in the database, and they're all sent with
+ * `Cache-Control: no-cache` so they really run the queries rather than
+ * being answered from the response cache.
+ *
+ * The bundled mix (`warmup-mix.ndjson`) is a spread of requests against
+ * the seed data; a fresher one can be exported from traffic captured in
+ * production and pointed to with `WARMUP_MIX_FILE`.
+ */
+public final class JitWarmup implements Runnable {
+
+  /**
+   * The mix used when no other one is given, from the classpath.
+   */
+  static final String DEFAULT_MIX = "/warmup-mix.ndjson";
+
+  // How far (as a fraction) a route's median latency can move between
+  // rounds and still count as "stable"
+  static final double TOLERANCE = 0.10;
+
+  // How many stable rounds in a row it takes to be done
+  static final int STABLE_ROUNDS = 3;
+
+  // How many times each round goes through the whole mix, so each route
+  // has a few latencies to take the median of
+  private static final Logger LOG = LoggerFactory.getLogger(JitWarmup.class);
+  private static final int PASSES_PER_ROUND = 5;
+
+  private final List<RequestSample> mix;
+  private final URI base;
+  private final Duration maxTime;
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  /**
+   * @param mix the requests to replay; anything that isn't read-only is left out
+   * @param base where the server is listening, e.g., `http://localhost:4567`
+   * @param maxTime the longest to keep warming up, even if latencies haven't settled
+   */
+  public JitWarmup(List<RequestSample> mix, URI base, Duration maxTime) {
+    this.mix = mix.stream().filter(RequestSample::isReadOnly).toList();
+    this.base = base;
+    this.maxTime = maxTime;
+  }
+
+  /**
+   * @return the (read-only) requests that will be replayed
+   */
+  List<RequestSample> mix() {
+    return mix;
+  }
+
+  /**
+   * Warm up, logging how it went.
+   */
+  @Override
+  public void run() {
+    long start = System.nanoTime();
+    int rounds = warmUp();
+    LOG.info("JIT warm up: {} rounds of {} requests in {}ms",
+      rounds, mix.size(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+  }
+
+  /**
+   * Replay the mix until every route's latency settles down, or we run out of time.
+   *
+   * @return how many rounds were replayed
+   */
+  int warmUp() {
+    if (mix.isEmpty()) {
+      return 0;
+    }
+    long deadline = System.nanoTime() + maxTime.toNanos();
+    Map<String, Long> previous = Map.of();
+    int stableRounds = 0;
+    int rounds = 0;
+    try {
+      while (stableRounds < STABLE_ROUNDS && System.nanoTime() - deadline < 0) {
+        Map<String, Long> current = round();
+        rounds++;
+        stableRounds = stable(previous, current, TOLERANCE) ? stableRounds + 1 : 0;
+        previous = current;
+      }
+    } catch (IOException e) {
+      // Most likely the server isn't listening; warming up is only an
+      // optimization, so give up rather than hold up readiness.
+      LOG.warn("JIT warm up stopped after {} rounds: {}", rounds, e.toString());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return rounds;
+  }
+
+  // Replay the mix `PASSES_PER_ROUND` times, returning each route's median latency (in nanoseconds)
+  private Map<String, Long> round() throws IOException, InterruptedException {
+    Map<String, List<Long>> latencies = new HashMap<>();
+    for (int pass = 0; pass < PASSES_PER_ROUND; pass++) {
+      for (RequestSample sample : mix) {
+        HttpRequest request = HttpRequest.newBuilder(base.resolve(sample.uri()))
+          .method(sample.method(), HttpRequest.BodyPublishers.noBody())
+          .header("Cache-Control", "no-cache")
+          .header("Accept-Encoding", "gzip")
+          .build();
+        long start = System.nanoTime();
+        // Errors (like a 404 for a deleted id) still exercise most of the same code, so they count too
+        client.send(request, HttpResponse.BodyHandlers.discarding());
+        latencies.computeIfAbsent(sample.routeOrPath(), route -> new ArrayList<>())
+          .add(System.nanoTime() - start);
+      }
+    }
+    Map<String, Long> medians = new HashMap<>();
+    latencies.forEach((route, times) -> {
+      times.sort(null);
+      medians.put(route, times.get(times.size() / 2));
+    });
+    return medians;
+  }
+
+  /**
+   * Whether every route's latency in `current` is within `tolerance` of
+   * what it was in `previous`.
+   *
+   * @param previous each route's latency in the round before
+   * @param current each route's latency in this round
+   * @param tolerance how far (as a fraction of the previous latency) each
+   *   route's latency may move
+   * @return `true` if no route moved more than `tolerance`
+   */
+  static boolean stable(Map<String, Long> previous, Map<String, Long> current, double tolerance) {
+    if (current.isEmpty() || !previous.keySet().equals(current.keySet())) {
+      return false;
+    }
+    for (Map.Entry<String, Long> entry : current.entrySet()) {
+      long before = previous.get(entry.getKey());
+      if (Math.abs(entry.getValue() - before) > tolerance * before) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Load a warm up mix (as NDJSON `RequestSample`s).
+   *
+   * @param file the file to load it from, or `null` (or empty) for the bundled mix
+   * @param mapper the mapper to parse it with
+   * @return the samples in the mix
+   * @throws IOException if the mix can't be read
+   */
+  public static List<RequestSample> loadMix(String file, ObjectMapper mapper) throws IOException {
+    if (file == null || file.isEmpty()) {
+      try (InputStream in = JitWarmup.class.getResourceAsStream(DEFAULT_MIX)) {
+        if (in == null) {
+          throw new IOException("The bundled warm up mix " + DEFAULT_MIX + " is missing");
+        }
+        return RequestSample.readAll(in, mapper);
+      }
+    }
+    try (InputStream in = Files.newInputStream(Path.of(file))) {
+      return RequestSample.readAll(in, mapper);
+    }
+  }
+}
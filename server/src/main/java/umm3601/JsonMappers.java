@@ -0,0 +1,69 @@
+package umm3601;
+
+import org.mongojack.ObjectMapperConfigurer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+/**
+ * Builds the one tuned Jackson `ObjectMapper` used across the server.
+ *
+ * Without this, Javalin (turning responses into JSON) and MongoJack
+ * (turning documents into `Todo`s and `User`s) each set up their own
+ * mapper, and both of them fall back on reflection to read and write the
+ * public fields of our data classes. The mapper built here:
+ *
+ *   - uses the Blackbird module, which replaces those reflective field
+ *     accesses with generated accessors (via `LambdaMetafactory`),
+ *   - recycles its internal read/write buffers through a shared,
+ *     lock-free pool (which, unlike the default thread-local pool,
+ *     also works well with virtual threads), and
+ *   - turns off a few features we never use but would otherwise pay for.
+ */
+public final class JsonMappers {
+
+  private JsonMappers() {
+  }
+
+  /**
+   * Build a new tuned mapper. This is the mapper Javalin uses for
+   * `ctx.json()` and the response cache uses to encode responses.
+   *
+   * @return a tuned `ObjectMapper`
+   */
+  public static ObjectMapper create() {
+    JsonFactory factory = JsonFactory.builder()
+      .recyclerPool(JsonRecyclerPools.sharedLockFreePool())
+      // Interning every field name we read costs more than it saves
+      // for the handful of small, fixed field names we deal with.
+      .disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+      .build();
+
+    return JsonMapper.builder(factory)
+      .addModule(new BlackbirdModule())
+      .disable(MapperFeature.USE_GETTERS_AS_SETTERS)
+      .disable(SerializationFeature.FAIL_ON_EMPTY_BEANS)
+      .build();
+  }
+
+  /**
+   * Derive the mapper MongoJack should use from the shared one.
+   *
+   * MongoJack needs to register its own BSON handling (for things like
+   * `@ObjectId` fields) on the mapper it uses, so it gets a copy of the
+   * shared mapper, with all of the same tuning, rather than the shared
+   * mapper itself. That keeps MongoJack's BSON-specific handlers out of the
+   * JSON we send over HTTP.
+   *
+   * @param shared the shared, tuned mapper
+   * @return a copy of `shared` configured for MongoJack
+   */
+  public static ObjectMapper forMongoJack(ObjectMapper shared) {
+    return ObjectMapperConfigurer.configureObjectMapper(shared.copy());
+  }
+}
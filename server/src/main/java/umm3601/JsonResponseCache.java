@@ -0,0 +1,365 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * A cache of ready-to-send JSON responses.
+ *
+ * Rather than caching the `Todo`/`User`/grouping objects and paying for
+ * Jackson to walk the object graph on every request, this stores the
+ * response as the UTF-8 bytes of its JSON encoding (and, for larger
+ * responses, a precompressed gzip copy of those bytes). A cache hit is
+ * then just handing a `byte[]` to Jetty via `ctx.result(byte[])`.
+ *
+ * Entries are grouped into namespaces (one per MongoDB collection, e.g.,
+ * "todos" or "users") so that a write to a collection can throw away
+ * every cached response that was built from that collection.
+ *
+ * A cache with a time-to-live of zero is "disabled": it never stores
+ * anything and simply hands the loaded value to `ctx.json()`, which
+ * is exactly what the controllers did before there was a cache.
+ *
+ * Either way, a cache can also coalesce concurrent identical requests
+ * (same key, see `key()`) through a `SingleFlight`, so they share one
+ * load instead of each running the same query. That matters most right
+ * when the cache can't help: just after entries expire or are
+ * invalidated, or when caching is off.
+ */
+public class JsonResponseCache {
+
+  // Responses smaller than this aren't worth compressing; the gzip
+  // header and trailer eat most of the savings. This is deliberately
+  // below Javalin's own compression threshold (1500 bytes) so that
+  // anything Javalin would have compressed has a precompressed copy.
+  static final int MIN_GZIP_SIZE = 1024;
+
+  private static final String GZIP = "gzip";
+
+  private final ObjectMapper mapper;
+  private final long ttlNanos;
+  private final int maxEntries;
+  private final boolean precompress;
+  private final SingleFlight loads;
+
+  private final Map<String, CachedJson> entries = new ConcurrentHashMap<>();
+
+  // Each namespace has a generation number that is bumped on every
+  // invalidation. A response that was loaded while a write happened
+  // (i.e., the generation changed underneath it) is served, but not
+  // stored, since it may already be stale.
+  private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+  /**
+   * A cached response: the JSON bytes, and (possibly) a gzipped copy.
+   *
+   * @param json the UTF-8 encoded JSON of the response
+   * @param gzip the gzip compressed `json`, or `null` if the response
+   *   was too small to be worth compressing
+   * @param expiresAt the `System.nanoTime()` after which this entry is stale
+   */
+  record CachedJson(byte[] json, byte[] gzip, long expiresAt) {
+  }
+
+  /**
+   * Construct a response cache.
+   *
+   * @param mapper the Jackson mapper used to encode responses
+   * @param ttlSeconds how long (in seconds) a response stays cached;
+   *   zero disables the cache entirely
+   * @param maxEntries the maximum number of responses to keep
+   * @param precompress whether to also store a gzip copy of large responses
+   */
+  public JsonResponseCache(ObjectMapper mapper, long ttlSeconds, int maxEntries, boolean precompress) {
+    this(mapper, ttlSeconds, maxEntries, precompress, false);
+  }
+
+  /**
+   * Construct a response cache that (optionally) coalesces concurrent
+   * identical requests.
+   *
+   * @param mapper the Jackson mapper used to encode responses
+   * @param ttlSeconds how long (in seconds) a response stays cached;
+   *   zero disables the cache entirely
+   * @param maxEntries the maximum number of responses to keep
+   * @param precompress whether to also store a gzip copy of large responses
+   * @param coalesce whether concurrent identical requests share one load
+   */
+  public JsonResponseCache(ObjectMapper mapper, long ttlSeconds, int maxEntries, boolean precompress,
+      boolean coalesce) {
+    this.mapper = mapper;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.maxEntries = maxEntries;
+    this.precompress = precompress;
+    this.loads = coalesce ? new SingleFlight() : null;
+  }
+
+  /**
+   * A cache that never caches, and just passes loaded values to `ctx.json()`.
+   *
+   * @return a disabled response cache
+   */
+  public static JsonResponseCache disabled() {
+    return new JsonResponseCache(new ObjectMapper(), 0, 0, false);
+  }
+
+  /**
+   * @return `true` if this cache actually stores responses
+   */
+  public boolean isEnabled() {
+    return ttlNanos > 0 && maxEntries > 0;
+  }
+
+  /**
+   * Send the response for this request, either from the cache or by
+   * calling `loader` and caching what it returns.
+   *
+   * The cache key is the namespace, the request path, and the query
+   * parameters (sorted, so `?a=1&b=2` and `?b=2&a=1` share an entry).
+   * Requests with `Cache-Control: no-cache` always get a fresh response.
+   *
+   * @param ctx the Javalin HTTP context for the request
+   * @param namespace the collection the response is built from
+   * @param loader computes the value to send on a cache miss
+   */
+  public void respond(Context ctx, String namespace, Supplier<?> loader) {
+    if (!isEnabled()) {
+      ctx.json(load(ctx, namespace, loader));
+      return;
+    }
+    serve(ctx, namespace, () -> encode(loader.get()));
+  }
+
+  /**
+   * Like `respond()`, but for responses that are already JSON bytes (e.g.,
+   * from `BsonJsonTranscoder`), so there's nothing for Jackson to do.
+   *
+   * @param ctx the Javalin HTTP context for the request
+   * @param namespace the collection the response is built from
+   * @param jsonLoader computes the JSON bytes to send on a cache miss
+   */
+  public void respondJson(Context ctx, String namespace, Supplier<byte[]> jsonLoader) {
+    if (!isEnabled()) {
+      send(ctx, new CachedJson(load(ctx, namespace, jsonLoader), null, 0));
+      return;
+    }
+    serve(ctx, namespace, () -> cacheable(jsonLoader.get()));
+  }
+
+  private void serve(Context ctx, String namespace, Supplier<CachedJson> loader) {
+    String key = key(namespace, ctx.path(), ctx.queryParamMap());
+    // A client that asks for `Cache-Control: no-cache` gets a freshly built
+    // response (which is then cached for everyone else).
+    CachedJson cached = wantsFreshResponse(ctx) ? null : entries.get(key);
+    if (cached == null || cached.expiresAt() - System.nanoTime() < 0) {
+      cached = load(ctx, namespace, () -> {
+        long generation = generation(namespace).get();
+        CachedJson loaded = loader.get();
+        if (generation(namespace).get() == generation) {
+          store(key, loaded);
+          // An `invalidate()` may have come between the check and the
+          // store, so check again (`invalidate()` bumps the generation
+          // before it clears entries, so one that comes later clears this)
+          if (generation(namespace).get() != generation) {
+            entries.remove(key, loaded);
+          }
+        }
+        return loaded;
+      });
+    }
+    send(ctx, cached);
+  }
+
+  // Run `loader`, or share the load of the same response that's already
+  // running. The namespace's generation is part of the key, so a request
+  // that arrives after a write never shares a load that started before it.
+  private <T> T load(Context ctx, String namespace, Supplier<T> loader) {
+    if (loads == null || wantsFreshResponse(ctx)) {
+      return loader.get();
+    }
+    String key = key(namespace, ctx.path(), ctx.queryParamMap()) + '#' + generation(namespace).get();
+    return loads.run(key, Deadline.of(ctx).remaining(), loader);
+  }
+
+  private static boolean wantsFreshResponse(Context ctx) {
+    String cacheControl = ctx.header(Header.CACHE_CONTROL);
+    return cacheControl != null && cacheControl.contains("no-cache");
+  }
+
+  /**
+   * Throw away every cached response built from the given namespace.
+   *
+   * Controllers call this after any write to their collection.
+   *
+   * @param namespace the namespace (collection) that changed
+   */
+  public void invalidate(String namespace) {
+    generation(namespace).incrementAndGet();
+    if (!isEnabled()) {
+      return;
+    }
+    String prefix = namespace + '|';
+    entries.keySet().removeIf(key -> key.startsWith(prefix));
+  }
+
+  /**
+   * Report how many loads were run, and how many requests shared one, as
+   * metrics named `<prefix>.led`, etc. (if this cache coalesces requests).
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    if (loads != null) {
+      loads.addMetrics(metrics, prefix);
+    }
+  }
+
+  /**
+   * @return the number of responses currently cached
+   */
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Build the cache key for a request.
+   *
+   * @param namespace the collection the response is built from
+   * @param path the request path
+   * @param queryParams the request's query parameters
+   * @return a key that is the same for equivalent requests
+   */
+  static String key(String namespace, String path, Map<String, List<String>> queryParams) {
+    StringBuilder key = new StringBuilder(namespace).append('|').append(path);
+    char separator = '?';
+    for (Map.Entry<String, List<String>> param : new TreeMap<>(queryParams).entrySet()) {
+      for (String value : param.getValue()) {
+        key.append(separator).append(param.getKey()).append('=').append(value);
+        separator = '&';
+      }
+    }
+    return key.toString();
+  }
+
+  private AtomicLong generation(String namespace) {
+    return generations.computeIfAbsent(namespace, ns -> new AtomicLong());
+  }
+
+  private CachedJson encode(Object value) {
+    try {
+      return cacheable(mapper.writeValueAsBytes(value));
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private CachedJson cacheable(byte[] json) {
+    byte[] gzip = precompress && json.length >= MIN_GZIP_SIZE ? gzip(json) : null;
+    return new CachedJson(json, gzip, System.nanoTime() + ttlNanos);
+  }
+
+  private void store(String key, CachedJson cached) {
+    if (entries.size() >= maxEntries) {
+      // Make room by dropping anything that has expired, and if that
+      // isn't enough, just start over. Responses are cheap to rebuild
+      // compared to the bookkeeping a true LRU would need on every hit.
+      long now = System.nanoTime();
+      entries.values().removeIf(entry -> entry.expiresAt() - now < 0);
+      if (entries.size() >= maxEntries) {
+        entries.clear();
+      }
+    }
+    entries.put(key, cached);
+  }
+
+  private static byte[] gzip(byte[] json) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 2);
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(json);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static void send(Context ctx, CachedJson cached) {
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    // Which bytes go out depends on the request's `Accept-Encoding`, on
+    // both paths, so shared caches must key on it too.
+    ctx.header(Header.VARY, Header.ACCEPT_ENCODING);
+    String acceptEncoding = ctx.header(Header.ACCEPT_ENCODING);
+    if (cached.gzip() != null && acceptsGzip(acceptEncoding)) {
+      // Javalin leaves responses alone that already have a content
+      // encoding, so these bytes go out exactly as stored.
+      ctx.header(Header.CONTENT_ENCODING, GZIP);
+      ctx.header(Header.CONTENT_LENGTH, Integer.toString(cached.gzip().length));
+      ctx.result(cached.gzip());
+    } else {
+      if (acceptEncoding == null || !acceptEncoding.contains(GZIP)) {
+        // Only safe to set when Javalin won't compress the body on the way
+        // out, and Javalin only looks for "gzip" anywhere in the header.
+        ctx.header(Header.CONTENT_LENGTH, Integer.toString(cached.json().length));
+      }
+      ctx.result(cached.json());
+    }
+  }
+
+  /**
+   * Whether an `Accept-Encoding` header allows a gzip response: `gzip` (or,
+   * failing that, `*`) must be listed with a quality above zero, so, e.g.,
+   * `gzip;q=0` turns it down.
+   *
+   * @param acceptEncoding the header's value (possibly `null`)
+   * @return `true` if a gzip response is acceptable
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    double gzip = -1;
+    double any = -1;
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.split(";");
+      String name = parts[0].trim();
+      if (name.equalsIgnoreCase(GZIP) || name.equalsIgnoreCase("x-gzip")) {
+        gzip = Math.max(gzip, quality(parts));
+      } else if (name.equals("*")) {
+        any = quality(parts);
+      }
+    }
+    return gzip >= 0 ? gzip > 0 : any > 0;
+  }
+
+  // The `q` parameter of one coding in `Accept-Encoding` (1 if it's missing,
+  // 0 if it can't be read)
+  private static double quality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      if (param.length() > 2 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q') && param.charAt(1) == '=') {
+        try {
+          return Double.parseDouble(param.substring(2).trim());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+}
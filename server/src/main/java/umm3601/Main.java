@@ -1,9 +1,22 @@
 package umm3601;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
 
+import umm3601.AdmissionControl.Priority;
+import umm3601.owners.OwnerPageController;
 import umm3601.todos.TodoController;
+import umm3601.user.AvatarService;
 import umm3601.user.UserController;
 
 public class Main {
@@ -19,16 +32,27 @@ public class Main {
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
+    // The server-wide services (like the response cache) shared by all the controllers.
+    Services services = Main.getServices();
+
     // The implementations of `Controller` used for the server. These will presumably
     // be one or more controllers, each of which implements the `Controller` interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+    final Controller[] controllers = Main.getControllers(database, services);
 
     // Construct the server
-    Server server = new Server(mongoClient, controllers);
+    Server server = new Server(mongoClient, controllers, services);
 
     // Start the server
     server.startServer();
+
+    // When building the AppCDS archive (see the `cdsArchive` Gradle task and the
+    // `Dockerfile`), put the server through its paces and then exit, so the JVM
+    // records every class a real request needs.
+    if (Boolean.parseBoolean(Main.getEnvOrDefault("CDS_TRAINING_RUN", "false"))) {
+      int failures = TrainingRun.exercise(Server.SERVER_PORT);
+      System.exit(failures == 0 ? 0 : 1);
+    }
   }
 
   /**
@@ -43,6 +67,219 @@ public class Main {
     return System.getenv().getOrDefault(envName, defaultValue);
   }
 
+  /**
+   * Build the server-wide services shared by all the controllers, configured
+   * from environment variables:
+   *
+   *   - `RESPONSE_CACHE_TTL_SECONDS` (default 0, i.e., no caching): how long
+   *     an encoded JSON response is kept
+   *   - `RESPONSE_CACHE_MAX_ENTRIES` (default 1000): how many responses to keep
+   *   - `RESPONSE_CACHE_GZIP` (default true): whether to also keep a gzipped
+   *     copy of large responses
+   *   - `COALESCE_READS` (default false): whether concurrent identical reads
+   *     share one database query (see `SingleFlight`)
+   *   - `RAW_BSON_PASSTHROUGH` (default false): whether list endpoints
+   *     transcode raw BSON straight to JSON rather than going through POJOs
+   *   - `MAX_BODY_BYTES` (default 1048576, i.e., 1MiB): the largest request
+   *     body to accept
+   *   - `AVATAR_MEMO_SIZE` (default 10000): how many recently seen emails'
+   *     avatars to remember
+   *   - `JIT_WARMUP` (default false): whether to replay a mix of read-only
+   *     requests (see `JitWarmup`) before reporting ready
+   *   - `WARMUP_MIX_FILE` (default: the bundled mix): an NDJSON file of
+   *     requests to replay, e.g., exported from captured production traffic
+   *   - `JIT_WARMUP_MAX_SECONDS` (default 60): the longest to spend on the
+   *     JIT warm up
+   *   - `TRAFFIC_CAPTURE_DIR` (default: none, i.e., no capture): where to
+   *     record a sample of requests (see `TrafficCapture`)
+   *   - `TRAFFIC_CAPTURE_RATE` (default 0.01): the fraction of requests to record
+   *   - `TRAFFIC_CAPTURE_SEGMENT_BYTES` (default 67108864, i.e., 64MiB): how
+   *     much to write to each capture file before starting a new one
+   *   - `TRAFFIC_CAPTURE_SEGMENTS` (default 10): how many capture files to keep
+   *   - `ADMISSION_CONTROL` (default false): whether to limit how many
+   *     requests of each priority class run at once (see `AdmissionControl`)
+   *   - `ADMISSION_<HIGH|NORMAL|LOW>_LIMIT` and `..._QUEUE` (defaults 64/128,
+   *     16/32, and 4/8): how many of each class's requests can run at once,
+   *     and how many more can wait
+   *   - `ADMISSION_MAX_WAIT_MILLIS` (default 100): the longest a request waits
+   *     for a turn before it's shed with a 503
+   *   - `ADMISSION_RETRY_AFTER_SECONDS` (default 1): the `Retry-After` sent with a 503
+   *   - `MONGO_ADAPTIVE_LIMIT` (default false): whether to adaptively limit
+   *     how many database operations are in flight (see `AdaptiveLimiter`)
+   *   - `MONGO_LIMIT_MIN`, `MONGO_LIMIT_MAX`, and `MONGO_LIMIT_INITIAL`
+   *     (defaults 4, 200, and 20): the bounds and starting point of that limit
+   *   - `MONGO_LIMIT_QUEUE` (default 200) and `MONGO_LIMIT_MAX_WAIT_MILLIS`
+   *     (default 500): how many operations can wait for a turn, and for how long
+   *   - `DEADLINE_<HIGH|NORMAL|LOW>_MILLIS` (defaults 2000, 5000, and 15000):
+   *     the default time budget for requests to each priority class's routes
+   *   - `DEADLINE_MAX_MILLIS` (default 30000): the largest budget a client
+   *     can ask for (see `Deadlines`)
+   *   - `BY_ID_BATCH_WINDOW_MICROS` (default 0, i.e., no batching): how long
+   *     a by-id lookup waits for others to share one `$in` query with (see
+   *     `BatchLoader`)
+   *   - `BY_ID_MAX_BATCH_SIZE` (default 100): the most lookups in one query
+   *   - `WRITE_BATCH_MILLIS` (default 0, i.e., no batching): how often new
+   *     todos are inserted together with one `insertMany` (see `WriteBatcher`)
+   *   - `WRITE_BATCH_MAX_SIZE` (default 500): the most todos in one `insertMany`
+   *   - `WAL_DIR` (default: none, i.e., no log): where to keep a local log
+   *     of new todos and users, which are then acknowledged with a 202 and
+   *     saved to the database in the background (see `WriteAheadLog`)
+   *   - `WAL_SEGMENT_BYTES` (default 67108864, i.e., 64MiB): how large each
+   *     log file is
+   *   - `WAL_DRAIN_BATCH_SIZE` (default 500): the most documents to save at once
+   *   - `TOMBSTONE_RETENTION_HOURS` (default 168, i.e., a week): how long
+   *     deleted (and otherwise changed) todos are remembered for
+   *     `/api/todos/changes`; a client that hasn't synced for longer has to
+   *     start over
+   *   - `CHANGE_FEED_QUEUE_SIZE` (default 256): how many changes can wait to
+   *     be pushed to each `/api/changes` client before its oldest are
+   *     dropped (see `ChangeFeed`)
+   *   - `CHANGE_FEED_BACKLOG` (default 4096): how many changes can wait to
+   *     be handed out to the clients' queues before new ones are dropped
+   *
+   * The admission control, database limits, read coalescing, by-id and
+   * write batching, write-ahead log, and change feed are reported by `/metrics`.
+   *
+   * @return the services to hand to the controllers
+   */
+  static Services getServices() {
+    // The one tuned Jackson mapper shared by Javalin, MongoJack, and the response cache.
+    ObjectMapper objectMapper = JsonMappers.create();
+
+    JsonResponseCache responseCache = new JsonResponseCache(
+      objectMapper,
+      Long.parseLong(Main.getEnvOrDefault("RESPONSE_CACHE_TTL_SECONDS", "0")),
+      Integer.parseInt(Main.getEnvOrDefault("RESPONSE_CACHE_MAX_ENTRIES", "1000")),
+      Boolean.parseBoolean(Main.getEnvOrDefault("RESPONSE_CACHE_GZIP", "true")),
+      Boolean.parseBoolean(Main.getEnvOrDefault("COALESCE_READS", "false")));
+
+    AdmissionControl admission = getAdmissionControl();
+    AdaptiveLimiter mongoLimiter = getMongoLimiter();
+    Metrics metrics = new Metrics();
+    admission.addMetrics(metrics, "admission");
+    mongoLimiter.addMetrics(metrics, "mongo");
+    responseCache.addMetrics(metrics, "reads");
+    WriteAheadLog writeAheadLog = getWriteAheadLog(objectMapper);
+    writeAheadLog.addMetrics(metrics, "wal");
+    ChangeFeed changeFeed = new ChangeFeed(
+      Integer.parseInt(Main.getEnvOrDefault("CHANGE_FEED_QUEUE_SIZE", String.valueOf(ChangeFeed.DEFAULT_QUEUE_SIZE))),
+      Integer.parseInt(Main.getEnvOrDefault("CHANGE_FEED_BACKLOG", String.valueOf(ChangeFeed.DEFAULT_BACKLOG))));
+    changeFeed.addMetrics(metrics, "changes");
+
+    return Services.builder()
+      .objectMapper(objectMapper)
+      .responseCache(responseCache)
+      .rawBsonPassthrough(Boolean.parseBoolean(Main.getEnvOrDefault("RAW_BSON_PASSTHROUGH", "false")))
+      .maxBodyBytes(Long.parseLong(
+        Main.getEnvOrDefault("MAX_BODY_BYTES", String.valueOf(RequestBodyReader.DEFAULT_MAX_BODY_BYTES))))
+      .avatars(new AvatarService(Integer.parseInt(
+        Main.getEnvOrDefault("AVATAR_MEMO_SIZE", String.valueOf(AvatarService.DEFAULT_MEMO_SIZE)))))
+      .warmupMix(getWarmupMix(objectMapper))
+      .jitWarmupMaxTime(Duration.ofSeconds(Long.parseLong(Main.getEnvOrDefault("JIT_WARMUP_MAX_SECONDS", "60"))))
+      .trafficCapture(getTrafficCapture(objectMapper))
+      .admission(admission)
+      .mongoLimiter(mongoLimiter)
+      .metrics(metrics)
+      .deadlines(getDeadlines())
+      .batchWindow(Duration.of(
+        Long.parseLong(Main.getEnvOrDefault("BY_ID_BATCH_WINDOW_MICROS", "0")), ChronoUnit.MICROS))
+      .maxBatchSize(Integer.parseInt(Main.getEnvOrDefault("BY_ID_MAX_BATCH_SIZE", "100")))
+      .writeBatchInterval(Duration.ofMillis(Long.parseLong(Main.getEnvOrDefault("WRITE_BATCH_MILLIS", "0"))))
+      .maxWriteBatchSize(Integer.parseInt(Main.getEnvOrDefault("WRITE_BATCH_MAX_SIZE", "500")))
+      .writeAheadLog(writeAheadLog)
+      .tombstoneRetention(Duration.ofHours(Long.parseLong(Main.getEnvOrDefault("TOMBSTONE_RETENTION_HOURS", "168"))))
+      .changeFeed(changeFeed)
+      .build();
+  }
+
+  // The local log of new todos and users, or a disabled one if it's turned off
+  private static WriteAheadLog getWriteAheadLog(ObjectMapper objectMapper) {
+    String directory = Main.getEnvOrDefault("WAL_DIR", "");
+    if (directory.isEmpty()) {
+      return WriteAheadLog.disabled();
+    }
+    try {
+      return new WriteAheadLog(objectMapper, Path.of(directory),
+        Integer.parseInt(Main.getEnvOrDefault("WAL_SEGMENT_BYTES", "67108864")),
+        Integer.parseInt(Main.getEnvOrDefault("WAL_DRAIN_BATCH_SIZE", "500")));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't open the write-ahead log in " + directory, e);
+    }
+  }
+
+  // The default time budget for each priority class's requests
+  private static Deadlines getDeadlines() {
+    Map<Priority, Duration> budgets = new EnumMap<>(Priority.class);
+    budgets.put(Priority.HIGH, getDeadlineBudget(Priority.HIGH, "2000"));
+    budgets.put(Priority.NORMAL, getDeadlineBudget(Priority.NORMAL, "5000"));
+    budgets.put(Priority.LOW, getDeadlineBudget(Priority.LOW, "15000"));
+    return new Deadlines(budgets,
+      Duration.ofMillis(Long.parseLong(Main.getEnvOrDefault("DEADLINE_MAX_MILLIS", "30000"))));
+  }
+
+  private static Duration getDeadlineBudget(Priority priority, String millis) {
+    return Duration.ofMillis(Long.parseLong(Main.getEnvOrDefault("DEADLINE_" + priority.name() + "_MILLIS", millis)));
+  }
+
+  // The adaptive limit on database operations in flight, or no limit if it's turned off
+  private static AdaptiveLimiter getMongoLimiter() {
+    if (!Boolean.parseBoolean(Main.getEnvOrDefault("MONGO_ADAPTIVE_LIMIT", "false"))) {
+      return AdaptiveLimiter.unlimited();
+    }
+    return new AdaptiveLimiter(
+      Integer.parseInt(Main.getEnvOrDefault("MONGO_LIMIT_INITIAL", "20")),
+      Integer.parseInt(Main.getEnvOrDefault("MONGO_LIMIT_MIN", "4")),
+      Integer.parseInt(Main.getEnvOrDefault("MONGO_LIMIT_MAX", "200")),
+      Integer.parseInt(Main.getEnvOrDefault("MONGO_LIMIT_QUEUE", "200")),
+      Long.parseLong(Main.getEnvOrDefault("MONGO_LIMIT_MAX_WAIT_MILLIS", "500")));
+  }
+
+  // The limits on concurrent requests for each priority class, or no limits if it's turned off
+  private static AdmissionControl getAdmissionControl() {
+    if (!Boolean.parseBoolean(Main.getEnvOrDefault("ADMISSION_CONTROL", "false"))) {
+      return AdmissionControl.unlimited();
+    }
+    Map<Priority, AdmissionControl.Limit> limits = new EnumMap<>(Priority.class);
+    limits.put(Priority.HIGH, getAdmissionLimit(Priority.HIGH, "64", "128"));
+    limits.put(Priority.NORMAL, getAdmissionLimit(Priority.NORMAL, "16", "32"));
+    limits.put(Priority.LOW, getAdmissionLimit(Priority.LOW, "4", "8"));
+    return new AdmissionControl(limits,
+      Long.parseLong(Main.getEnvOrDefault("ADMISSION_MAX_WAIT_MILLIS", "100")),
+      Long.parseLong(Main.getEnvOrDefault("ADMISSION_RETRY_AFTER_SECONDS", "1")));
+  }
+
+  private static AdmissionControl.Limit getAdmissionLimit(Priority priority, String limit, String queue) {
+    String prefix = "ADMISSION_" + priority.name() + "_";
+    return new AdmissionControl.Limit(
+      Integer.parseInt(Main.getEnvOrDefault(prefix + "LIMIT", limit)),
+      Integer.parseInt(Main.getEnvOrDefault(prefix + "QUEUE", queue)));
+  }
+
+  // The recorder of sampled requests, or a disabled one if there's nowhere to put them
+  private static TrafficCapture getTrafficCapture(ObjectMapper objectMapper) {
+    String directory = Main.getEnvOrDefault("TRAFFIC_CAPTURE_DIR", "");
+    if (directory.isEmpty()) {
+      return TrafficCapture.disabled();
+    }
+    return new TrafficCapture(objectMapper, Path.of(directory),
+      Double.parseDouble(Main.getEnvOrDefault("TRAFFIC_CAPTURE_RATE", "0.01")),
+      Long.parseLong(Main.getEnvOrDefault("TRAFFIC_CAPTURE_SEGMENT_BYTES", "67108864")),
+      Integer.parseInt(Main.getEnvOrDefault("TRAFFIC_CAPTURE_SEGMENTS", "10")));
+  }
+
+  // The requests to replay for the JIT warm up, or none if it's turned off
+  private static List<RequestSample> getWarmupMix(ObjectMapper objectMapper) {
+    if (!Boolean.parseBoolean(Main.getEnvOrDefault("JIT_WARMUP", "false"))) {
+      return List.of();
+    }
+    try {
+      return JitWarmup.loadMix(Main.getEnvOrDefault("WARMUP_MIX_FILE", ""), objectMapper);
+    } catch (IOException e) {
+      // Asked for a warm up we can't do; better to fail now than to quietly start cold
+      throw new UncheckedIOException("Couldn't load the JIT warm up mix", e);
+    }
+  }
+
   /**
    * Get the implementations of `Controller` used for the server.
    *
@@ -50,19 +287,31 @@ public class Main {
    * implements the `Controller` interface. You'll add your own controllers
    * in to the array returned by this method as you create them.
    *
+   * The owner page's deadline (how long all of its queries together may
+   * take) comes from the `OWNER_PAGE_DEADLINE_MILLIS` environment variable,
+   * and defaults to 2000ms.
+   *
    * @param database The MongoDB database object used by the controllers
    *               to access the database.
+   * @param services The server-wide services shared by the controllers
    * @return An array of implementations of `Controller` for the server.
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(MongoDatabase database, Services services) {
+    UserController userController = new UserController(database, services);
+    TodoController todoController = new TodoController(database, services);
+    Duration ownerPageDeadline =
+      Duration.ofMillis(Long.parseLong(Main.getEnvOrDefault("OWNER_PAGE_DEADLINE_MILLIS", "2000")));
+
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
       // You can also remove this UserController once you don't need it.
-      new UserController(database),
-      new TodoController(database)
+      userController,
+      todoController,
+      new OwnerPageController(userController, todoController, ownerPageDeadline, services.admission(),
+        services.deadlines())
     };
     return controllers;
   }
@@ -0,0 +1,63 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A registry of named gauges (numbers read on demand, like a limiter's
+ * current limit or how many requests have been shed), and the
+ * `GET /metrics` endpoint that reports all of them as one JSON object,
+ * e.g., `{"mongo.inFlight": 3, "mongo.limit": 24}`, for dashboards and
+ * monitoring to poll.
+ */
+public final class Metrics implements Controller {
+
+  static final String METRICS_PATH = "/metrics";
+
+  private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+  /**
+   * Add a gauge (replacing any other with the same name).
+   *
+   * @param name the metric's name
+   * @param gauge reads the metric's current value
+   */
+  public void register(String name, LongSupplier gauge) {
+    gauges.put(name, gauge);
+  }
+
+  /**
+   * @return the current value of every metric, sorted by name
+   */
+  public Map<String, Long> snapshot() {
+    Map<String, Long> values = new TreeMap<>();
+    gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+    return values;
+  }
+
+  /**
+   * Set the JSON body of the response to the current value of every metric.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getMetrics(Context ctx) {
+    ctx.json(snapshot());
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Setup the `/metrics` route.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(METRICS_PATH, this::getMetrics);
+  }
+}
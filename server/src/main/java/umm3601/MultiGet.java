@@ -0,0 +1,115 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Helpers for "multi-get" endpoints, which look up a whole list of
+ * documents by ID in one request (and one `$in` query) instead of one
+ * request per ID.
+ *
+ * Every ID is checked before anything is looked up, so a request with a
+ * bad ID fails (with a 400 naming all of the bad ones) without touching the
+ * database. The response has one `Entry` per requested ID, in the order
+ * they were asked for; IDs that don't match a document get an entry with
+ * `found` set to `false`, rather than just being left out.
+ */
+public final class MultiGet {
+
+  /**
+   * The most IDs one request can ask for.
+   */
+  public static final int MAX_IDS = 1000;
+
+  /**
+   * The query parameter (or body field) holding the IDs.
+   */
+  public static final String IDS_KEY = "ids";
+
+  /**
+   * The body of a multi-get `POST`, e.g., `{"ids": ["...", "..."]}`.
+   */
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class Request {
+    public List<String> ids;
+  }
+
+  /**
+   * The rules for a legal multi-get `POST` body.
+   */
+  public static final ValidationRules<Request> REQUEST_RULES = ValidationRules.<Request>builder()
+    .field(IDS_KEY, req -> req.ids, ids -> ids != null && !ids.isEmpty(),
+      "The request must have a non-empty list of ids")
+    .build();
+
+  /**
+   * The result for one requested ID.
+   *
+   * @param <T> the type of document looked up
+   * @param id the requested ID
+   * @param found whether there's a document with that ID
+   * @param value the document (or `null`, if it wasn't found)
+   */
+  public record Entry<T>(String id, boolean found, T value) {
+  }
+
+  private MultiGet() {
+  }
+
+  /**
+   * Parse the requested IDs, checking them all up front.
+   *
+   * @param ids the requested IDs, as strings
+   * @return the IDs, in the same order
+   * @throws BadRequestResponse if there are no IDs, too many, or any of them
+   *   aren't legal Mongo Object IDs
+   */
+  public static List<ObjectId> parseIds(List<String> ids) {
+    if (ids.isEmpty() || ids.size() > MAX_IDS) {
+      throw new BadRequestResponse("Ask for between 1 and " + MAX_IDS + " ids, not " + ids.size());
+    }
+    List<ObjectId> parsed = new ArrayList<>(ids.size());
+    List<String> illegal = new ArrayList<>();
+    for (String id : ids) {
+      if (id != null && ObjectId.isValid(id)) {
+        parsed.add(new ObjectId(id));
+      } else {
+        illegal.add(String.valueOf(id));
+      }
+    }
+    if (!illegal.isEmpty()) {
+      throw new BadRequestResponse("These ids aren't legal Mongo Object IDs: " + String.join(", ", illegal));
+    }
+    return parsed;
+  }
+
+  /**
+   * @param ids the IDs as given in a query parameter, e.g., `a,b,c`
+   * @return the parsed IDs (see `parseIds(List)`)
+   */
+  public static List<ObjectId> parseIds(String ids) {
+    return parseIds(List.of(ids.split(",", -1)));
+  }
+
+  /**
+   * Put the documents that were found back in the order they were asked for.
+   *
+   * @param <T> the type of document looked up
+   * @param ids the requested IDs (which may repeat)
+   * @param found the documents that were found, by ID
+   * @return an entry for each of `ids`, in order
+   */
+  public static <T> List<Entry<T>> inOrder(List<ObjectId> ids, Map<ObjectId, T> found) {
+    List<Entry<T>> entries = new ArrayList<>(ids.size());
+    for (ObjectId id : ids) {
+      T value = found.get(id);
+      entries.add(new Entry<>(id.toHexString(), value != null, value));
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,172 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tracks whether the server is warmed up and ready for traffic, and
+ * reports that through two endpoints meant for load balancers and
+ * container orchestrators:
+ *
+ *   - `GET /live` always responds 200 right away (as long as the server
+ *     is running at all), so it's safe to poll as often as you like.
+ *   - `GET /ready` responds 503 Service Unavailable until every
+ *     controller has finished warming up (see `Controller.warmUp()`),
+ *     and 200 from then on.
+ *
+ * The server starts listening (so `/live` works) before warming up, and
+ * the warm ups of all the controllers then run at the same time, each on
+ * its own virtual thread. A rolling deploy that waits for `/ready` never
+ * sends requests to an instance that's still building indexes or
+ * filling caches, or (optionally) still warming up the JIT compiler.
+ */
+public final class Readiness implements Controller {
+
+  static final String LIVE_PATH = "/live";
+  static final String READY_PATH = "/ready";
+
+  private static final Logger LOG = LoggerFactory.getLogger(Readiness.class);
+  private static final Duration FIRST_RETRY_DELAY = Duration.ofSeconds(1);
+  private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(30);
+
+  private final Duration firstRetryDelay;
+  private volatile boolean ready;
+
+  /**
+   * Construct a `Readiness` that isn't ready yet.
+   */
+  public Readiness() {
+    this(FIRST_RETRY_DELAY);
+  }
+
+  /**
+   * @param firstRetryDelay how long to wait before retrying a failed warm up
+   *   the first time (it doubles with each retry after that)
+   */
+  Readiness(Duration firstRetryDelay) {
+    this.firstRetryDelay = firstRetryDelay;
+  }
+
+  /**
+   * @return `true` once everything has warmed up
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Start warming up all of the `controllers` at once, in the background.
+   * Once they've all finished, the server is ready.
+   *
+   * @param controllers the controllers to warm up
+   * @return a `Future` that completes once the server is ready
+   */
+  public Future<?> warmUp(Controller[] controllers) {
+    return warmUp(controllers, List.of());
+  }
+
+  /**
+   * Start warming up all of the `controllers` at once, in the background.
+   * Once they've all finished, run each of the `afterwards` steps in turn
+   * (e.g., a `JitWarmup`, which needs the controllers' indexes to be
+   * there), and then the server is ready.
+   *
+   * Unlike the controllers' warm ups, the `afterwards` steps are only
+   * optimizations: if one of them fails, that's logged, and the server is
+   * ready anyway.
+   *
+   * @param controllers the controllers to warm up
+   * @param afterwards the steps to run once all of the controllers are warmed up
+   * @return a `Future` that completes once the server is ready
+   */
+  public Future<?> warmUp(Controller[] controllers, List<Runnable> afterwards) {
+    ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    List<Future<?>> warmUps = new ArrayList<>();
+    for (Controller controller : controllers) {
+      warmUps.add(executor.submit(() -> {
+        warmUpUntilDone(controller);
+        return null;
+      }));
+    }
+    Future<?> allDone = executor.submit(() -> {
+      for (Future<?> warmUp : warmUps) {
+        warmUp.get();
+      }
+      for (Runnable step : afterwards) {
+        try {
+          step.run();
+        } catch (RuntimeException e) {
+          LOG.warn("Warm up step {} failed", step.getClass().getSimpleName(), e);
+        }
+      }
+      ready = true;
+      return null;
+    });
+    // No new tasks, but everything already submitted keeps running
+    executor.shutdown();
+    return allDone;
+  }
+
+  private void warmUpUntilDone(Controller controller) throws InterruptedException {
+    Duration delay = firstRetryDelay;
+    while (true) {
+      try {
+        controller.warmUp();
+        return;
+      } catch (RuntimeException e) {
+        LOG.warn("Warming up {} failed ({}); trying again in {}ms",
+          controller.getClass().getSimpleName(), e.toString(), delay.toMillis());
+      }
+      Thread.sleep(delay);
+      delay = delay.multipliedBy(2);
+      if (delay.compareTo(MAX_RETRY_DELAY) > 0) {
+        delay = MAX_RETRY_DELAY;
+      }
+    }
+  }
+
+  /**
+   * Respond 200 if the server is running, which it must be to respond at all.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getLive(Context ctx) {
+    ctx.json(Map.of("live", true));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Respond 200 if the server is warmed up and ready for traffic, and 503
+   * Service Unavailable if it isn't yet.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getReady(Context ctx) {
+    boolean isReady = ready;
+    ctx.json(Map.of("ready", isReady));
+    ctx.status(isReady ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
+  /**
+   * Setup the `/live` and `/ready` routes.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(LIVE_PATH, this::getLive);
+    server.get(READY_PATH, this::getReady);
+  }
+}
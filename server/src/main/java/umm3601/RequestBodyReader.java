@@ -0,0 +1,215 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Reads (and validates) JSON request bodies straight from the request's
+ * input stream.
+ *
+ * The POST handlers used to call `ctx.body()`, which reads the whole request
+ * into a `String` (just in case it was needed for an error message), and
+ * then `ctx.bodyValidator()` parsed that again. This instead hands the input
+ * stream directly to a Jackson parser, so the body is never held in memory
+ * as a whole, and:
+ *
+ *   - bodies larger than `maxBodyBytes` are rejected with a 413 Content Too
+ *     Large, either right away (when the `Content-Length` says so) or as soon
+ *     as that many bytes have been read (when it lies, or isn't given),
+ *   - only the first `EXCERPT_BYTES` bytes of the body are kept, and that
+ *     excerpt (rather than the whole body) is what goes into error messages
+ *     (unless the request asked for the whole body to be kept; see
+ *     `KEEP_BODY_ATTRIBUTE`).
+ *
+ * Parse and validation failures are both thrown as `ValidationException`s
+ * with the errors under `"REQUEST_BODY"`, just as Javalin's own
+ * `BodyValidator` would, so clients get the same 400 responses as before.
+ */
+public final class RequestBodyReader {
+
+  /**
+   * The largest body accepted unless configured otherwise (1MiB).
+   */
+  public static final long DEFAULT_MAX_BODY_BYTES = 1L << 20;
+
+  /**
+   * How much of the start of a body is kept for error messages.
+   */
+  static final int EXCERPT_BYTES = 512;
+
+  /**
+   * The request attribute under which `read()` leaves a `Supplier<String>`
+   * of the body it read, so others (like `TrafficCapture`) can see the
+   * body without reading it a second time. The supplier gives `null` if
+   * the body was longer than `EXCERPT_BYTES`, since only that much is kept
+   * (unless the request has a `KEEP_BODY_ATTRIBUTE`).
+   */
+  public static final String BODY_ATTRIBUTE = "umm3601.requestBody";
+
+  /**
+   * The request attribute that has `read()` keep a copy of the whole body
+   * (which is never more than `maxBodyBytes`) for `BODY_ATTRIBUTE`, not
+   * just the excerpt. `TrafficCapture` sets it on the requests it samples.
+   */
+  public static final String KEEP_BODY_ATTRIBUTE = "umm3601.keepRequestBody";
+
+  private static final int CONTENT_TOO_LARGE = 413;
+
+  private final ObjectMapper mapper;
+  private final long maxBodyBytes;
+
+  /**
+   * @param mapper the mapper to parse bodies with
+   * @param maxBodyBytes the largest body (in bytes) to accept
+   */
+  public RequestBodyReader(ObjectMapper mapper, long maxBodyBytes) {
+    this.mapper = mapper;
+    this.maxBodyBytes = maxBodyBytes;
+  }
+
+  /**
+   * Parse the request body as a `type`, and check it against `rules`.
+   *
+   * @param <T> the type of the body
+   * @param ctx a Javalin HTTP context with the request body
+   * @param type the class to parse the body into
+   * @param rules what makes a legal body
+   * @return the parsed, validated body
+   * @throws ValidationException if the body can't be parsed, or breaks the rules
+   * @throws HttpResponseException (413) if the body is too large
+   */
+  public <T> T read(Context ctx, Class<T> type, ValidationRules<T> rules) {
+    if (ctx.contentLength() > maxBodyBytes) {
+      throw tooLarge();
+    }
+
+    boolean keepWhole = ctx.attribute(KEEP_BODY_ATTRIBUTE) != null;
+    BoundedInputStream body = new BoundedInputStream(ctx.bodyInputStream(), maxBodyBytes, keepWhole);
+    ctx.attribute(BODY_ATTRIBUTE, (Supplier<String>) body::whole);
+    T value;
+    try (body) {
+      value = mapper.readerFor(type).readValue(body);
+    } catch (BodyTooLargeException e) {
+      throw tooLarge();
+    } catch (JsonProcessingException e) {
+      throw invalid("Couldn't parse the body as a " + type.getSimpleName() + ": " + e.getOriginalMessage()
+        + "; body was " + body.excerpt(), e);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't read the request body", e);
+    }
+    if (value == null) {
+      throw invalid("The body must be a " + type.getSimpleName() + ", not null", null);
+    }
+    return rules.validate(value, body::excerpt);
+  }
+
+  private HttpResponseException tooLarge() {
+    return new HttpResponseException(CONTENT_TOO_LARGE,
+      "The request body can't be larger than " + maxBodyBytes + " bytes", Map.of());
+  }
+
+  private static ValidationException invalid(String message, Exception cause) {
+    ValidationError<Object> error = new ValidationError<>(message, Map.of(), null, cause);
+    return new ValidationException(Map.of(ValidationRules.REQUEST_BODY_KEY, List.of(error)));
+  }
+
+  /**
+   * Thrown (from inside Jackson's reads) once a body goes over the limit.
+   */
+  private static final class BodyTooLargeException extends IOException {
+    BodyTooLargeException() {
+      super("request body too large");
+    }
+  }
+
+  /**
+   * An input stream that fails once more than `limit` bytes have been read
+   * from it, and keeps a copy of the first `EXCERPT_BYTES` bytes (and, if
+   * asked to, of everything).
+   */
+  private static final class BoundedInputStream extends FilterInputStream {
+    private final long limit;
+    private final byte[] excerpt = new byte[EXCERPT_BYTES];
+    private int excerptLength;
+    private long count;
+    // The whole body, if it's being kept
+    private final ByteArrayOutputStream copy;
+
+    BoundedInputStream(InputStream in, long limit, boolean keepWhole) {
+      super(in);
+      this.limit = limit;
+      this.copy = keepWhole ? new ByteArrayOutputStream() : null;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count(1);
+        if (copy != null) {
+          copy.write(b);
+        }
+        if (excerptLength < excerpt.length) {
+          excerpt[excerptLength++] = (byte) b;
+        }
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int n = super.read(buffer, offset, length);
+      if (n > 0) {
+        record(buffer, offset, n);
+      }
+      return n;
+    }
+
+    private void record(byte[] buffer, int offset, int length) throws IOException {
+      count(length);
+      if (copy != null) {
+        copy.write(buffer, offset, length);
+      }
+      int kept = Math.min(length, excerpt.length - excerptLength);
+      if (kept > 0) {
+        System.arraycopy(buffer, offset, excerpt, excerptLength, kept);
+        excerptLength += kept;
+      }
+    }
+
+    private void count(int length) throws IOException {
+      count += length;
+      if (count > limit) {
+        throw new BodyTooLargeException();
+      }
+    }
+
+    String excerpt() {
+      String text = new String(excerpt, 0, excerptLength, StandardCharsets.UTF_8);
+      return count > excerptLength ? text + "..." : text;
+    }
+
+    // The whole body (as read so far), or `null` if it didn't fit in the excerpt (and wasn't kept)
+    String whole() {
+      if (copy != null) {
+        return copy.toString(StandardCharsets.UTF_8);
+      }
+      return count > excerptLength ? null : new String(excerpt, 0, excerptLength, StandardCharsets.UTF_8);
+    }
+  }
+}
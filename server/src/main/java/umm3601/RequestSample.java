@@ -0,0 +1,79 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * One recorded request, as a line of NDJSON (newline delimited JSON).
+ *
+ * This one format is used both for the request mix that `JitWarmup`
+ * replays at startup, and for the traffic samples captured from a
+ * running server, so captured traffic can be turned straight into a
+ * new warm up mix. A warm up mix only needs `method`, `path`, and
+ * `query`; the other fields are there for captured traffic.
+ *
+ * @param timestamp when the request arrived (milliseconds since the epoch)
+ * @param method the HTTP method, e.g., `GET`
+ * @param route the matched route, e.g., `/api/users/{id}`, so requests can
+ *   be grouped by endpoint
+ * @param path the actual request path, e.g., `/api/users/588935f57546a2daea44de7c`
+ * @param query the raw query string (without the `?`), or `null` if there wasn't one
+ * @param body the request body (only kept for POSTs, and only up to a limit),
+ *   or `null`
+ * @param status the HTTP status of the response
+ * @param latencyMicros how long the server took to respond, in microseconds
+ */
+public record RequestSample(
+    long timestamp,
+    String method,
+    String route,
+    String path,
+    String query,
+    String body,
+    int status,
+    long latencyMicros) {
+
+  /**
+   * @return the path and (if there is one) query string, e.g., `/api/todos?owner=Fry`
+   */
+  public String uri() {
+    return query == null || query.isEmpty() ? path : path + "?" + query;
+  }
+
+  /**
+   * @return the route if it was recorded, otherwise the path
+   */
+  public String routeOrPath() {
+    return route == null || route.isEmpty() ? path : route;
+  }
+
+  /**
+   * @return `true` for requests that can't change anything on the server
+   */
+  public boolean isReadOnly() {
+    return "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method);
+  }
+
+  /**
+   * Read every sample from an NDJSON stream.
+   *
+   * @param in the NDJSON to read (this doesn't close it)
+   * @param mapper the mapper to parse each line with
+   * @return the samples, in order
+   * @throws IOException if the stream can't be read or a line isn't a sample
+   */
+  public static List<RequestSample> readAll(InputStream in, ObjectMapper mapper) throws IOException {
+    List<RequestSample> samples = new ArrayList<>();
+    try (MappingIterator<RequestSample> lines = mapper.readerFor(RequestSample.class).readValues(in)) {
+      while (lines.hasNextValue()) {
+        samples.add(lines.nextValue());
+      }
+    }
+    return samples;
+  }
+}
@@ -1,6 +1,8 @@
 package umm3601;
 
+import java.net.URI;
 import java.util.Arrays;
+import java.util.List;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
@@ -11,6 +13,7 @@ import org.bson.UuidRepresentation;
 
 import io.javalin.Javalin;
 import io.javalin.http.InternalServerErrorResponse;
+import io.javalin.json.JavalinJackson;
 
 /**
  * The class used to configure and start a Javalin server.
@@ -18,7 +21,7 @@ import io.javalin.http.InternalServerErrorResponse;
 public class Server {
 
   // The port that the server should run on.
-  private static final int SERVER_PORT = 4567;
+  static final int SERVER_PORT = 4567;
 
   // The `mongoClient` field is used to access the MongoDB
   private final MongoClient mongoClient;
@@ -27,15 +30,23 @@ public class Server {
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
 
+  // The server-wide services shared with the controllers (e.g., the Jackson mapper)
+  private final Services services;
+
+  // Whether the controllers have all warmed up; reported by `/live` and `/ready`
+  private final Readiness readiness = new Readiness();
+
   /**
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
    * and start the server.
    *
    * @param mongoClient The MongoDB client object used to access to the database
    * @param controllers The implementations of `Controller` used for this server
+   * @param services The server-wide services shared with the controllers
    */
-  public Server(MongoClient mongoClient, Controller[] controllers) {
+  public Server(MongoClient mongoClient, Controller[] controllers, Services services) {
     this.mongoClient = mongoClient;
+    this.services = services;
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
@@ -76,14 +87,33 @@ public class Server {
   /**
    * Configure and start the server.
    *
-   * This configures and starts the Javalin server, which will start listening for HTTP requests.
+   * This configures and starts the Javalin server, which will start listening for HTTP requests,
+   * and then starts warming up the controllers, and (optionally) the JIT
+   * compiler (see `Readiness` and `JitWarmup`).
    * It also sets up the server to shut down gracefully if it's killed or if the
    * JVM is shut down.
    */
   void startServer() {
     Javalin javalin = configureJavalin();
+    readiness.addRoutes(javalin);
+    services.trafficCapture().addRoutes(javalin);
+    services.metrics().addRoutes(javalin);
+    services.writeAheadLog().addRoutes(javalin);
+    services.changeFeed().addRoutes(javalin);
     setupRoutes(javalin);
     javalin.start(SERVER_PORT);
+    // Start listening (so `/live` responds) right away, and warm the controllers
+    // up (all at once, in the background) before `/ready` says to send us traffic.
+    readiness.warmUp(controllers, jitWarmups());
+  }
+
+  // The JIT warm up (if there's a mix to replay), which runs once the controllers are warm
+  private List<Runnable> jitWarmups() {
+    if (services.warmupMix().isEmpty()) {
+      return List.of();
+    }
+    return List.of(new JitWarmup(
+      services.warmupMix(), URI.create("http://localhost:" + SERVER_PORT), services.jitWarmupMaxTime()));
   }
 
   /**
@@ -91,6 +121,7 @@ public class Server {
    *
    * - Adding a route overview plugin to make it easier to see what routes
    *   are available.
+   * - Using the shared, tuned Jackson mapper for `ctx.json()` and friends.
    * - Setting it up to shut down gracefully if it's killed or if the
    *   JVM is shut down.
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
@@ -112,10 +143,15 @@ public class Server {
      * `http://localhost:4567/api` shows all of the available endpoints and
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
+     *
+     * `jsonMapper(...)` replaces Javalin's default Jackson mapper with the
+     * shared one from `JsonMappers`, so the HTTP side and the MongoJack side
+     * use the same tuning.
      */
-    Javalin server = Javalin.create(config ->
-      config.bundledPlugins.enableRouteOverview("/api")
-    );
+    Javalin server = Javalin.create(config -> {
+      config.bundledPlugins.enableRouteOverview("/api");
+      config.jsonMapper(new JavalinJackson(services.objectMapper(), false));
+    });
 
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
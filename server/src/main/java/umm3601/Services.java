@@ -0,0 +1,433 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.user.AvatarService;
+
+/**
+ * The shared, server-wide services that are handed to each controller.
+ *
+ * `Main` builds one of these from the environment and passes it to every
+ * controller it creates, so that things like the response cache are shared
+ * across the whole server. Code that just needs a working controller
+ * (like the tests) can use `Services.defaults()`, which turns the optional
+ * machinery (response caching, request coalescing and batching, write
+ * batching, the write-ahead log, admission limits) off. A few things stay
+ * on, since they cost next to nothing when idle and every request relies
+ * on them: the standard per-priority deadlines, the avatar memo, and a
+ * change feed (which does nothing until a client subscribes).
+ */
+public final class Services {
+
+  private final ObjectMapper objectMapper;
+  private final ObjectMapper mongoJackMapper;
+  private final JsonResponseCache responseCache;
+  private final boolean rawBsonPassthrough;
+  private final RequestBodyReader bodyReader;
+  private final AvatarService avatars;
+  private final List<RequestSample> warmupMix;
+  private final Duration jitWarmupMaxTime;
+  private final TrafficCapture trafficCapture;
+  private final AdmissionControl admission;
+  private final AdaptiveLimiter mongoLimiter;
+  private final Metrics metrics;
+  private final Deadlines deadlines;
+  private final Duration batchWindow;
+  private final int maxBatchSize;
+  private final Duration writeBatchInterval;
+  private final int maxWriteBatchSize;
+  private final WriteAheadLog writeAheadLog;
+  private final Duration tombstoneRetention;
+  private final ChangeFeed changeFeed;
+
+  private Services(Builder builder) {
+    this.objectMapper = builder.objectMapper;
+    this.mongoJackMapper = JsonMappers.forMongoJack(builder.objectMapper);
+    this.responseCache = builder.responseCache;
+    this.rawBsonPassthrough = builder.rawBsonPassthrough;
+    this.bodyReader = new RequestBodyReader(builder.objectMapper, builder.maxBodyBytes);
+    this.avatars = builder.avatars;
+    this.warmupMix = builder.warmupMix;
+    this.jitWarmupMaxTime = builder.jitWarmupMaxTime;
+    this.trafficCapture = builder.trafficCapture;
+    this.admission = builder.admission;
+    this.mongoLimiter = builder.mongoLimiter;
+    this.metrics = builder.metrics;
+    this.deadlines = builder.deadlines;
+    this.batchWindow = builder.batchWindow;
+    this.maxBatchSize = builder.maxBatchSize;
+    this.writeBatchInterval = builder.writeBatchInterval;
+    this.maxWriteBatchSize = builder.maxWriteBatchSize;
+    this.writeAheadLog = builder.writeAheadLog;
+    this.tombstoneRetention = builder.tombstoneRetention;
+    this.changeFeed = builder.changeFeed;
+  }
+
+  /**
+   * @return a builder for a `Services` object, initialized to the defaults
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return a `Services` object with all of the optional services disabled
+   */
+  public static Services defaults() {
+    return builder().build();
+  }
+
+  /**
+   * @return the shared, tuned Jackson mapper (used by Javalin for `ctx.json()`)
+   */
+  public ObjectMapper objectMapper() {
+    return objectMapper;
+  }
+
+  /**
+   * @return the MongoJack flavored copy of the shared mapper, for
+   *   building `JacksonMongoCollection`s
+   */
+  public ObjectMapper mongoJackMapper() {
+    return mongoJackMapper;
+  }
+
+  /**
+   * @return the cache of encoded JSON responses
+   */
+  public JsonResponseCache responseCache() {
+    return responseCache;
+  }
+
+  /**
+   * @return `true` if list endpoints should transcode raw BSON straight
+   *   to JSON instead of decoding it into POJOs first
+   */
+  public boolean rawBsonPassthrough() {
+    return rawBsonPassthrough;
+  }
+
+  /**
+   * @return the reader for (streamed, size limited) JSON request bodies
+   */
+  public RequestBodyReader bodyReader() {
+    return bodyReader;
+  }
+
+  /**
+   * @return the (memoizing) service that computes users' avatars
+   */
+  public AvatarService avatars() {
+    return avatars;
+  }
+
+  /**
+   * @return the requests to replay to warm up the JIT compiler before
+   *   reporting ready (empty if there's no JIT warm up)
+   */
+  public List<RequestSample> warmupMix() {
+    return warmupMix;
+  }
+
+  /**
+   * @return the longest to spend on the JIT warm up
+   */
+  public Duration jitWarmupMaxTime() {
+    return jitWarmupMaxTime;
+  }
+
+  /**
+   * @return the recorder of sampled requests (disabled unless configured)
+   */
+  public TrafficCapture trafficCapture() {
+    return trafficCapture;
+  }
+
+  /**
+   * @return the per-priority-class limits on concurrent requests (unlimited unless configured)
+   */
+  public AdmissionControl admission() {
+    return admission;
+  }
+
+  /**
+   * @return the adaptive limit on database operations in flight (unlimited unless configured)
+   */
+  public AdaptiveLimiter mongoLimiter() {
+    return mongoLimiter;
+  }
+
+  /**
+   * @return the registry of metrics reported by `/metrics`
+   */
+  public Metrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the default (and largest) time budgets for requests
+   */
+  public Deadlines deadlines() {
+    return deadlines;
+  }
+
+  /**
+   * @return how long a by-id lookup waits for others to batch with (zero
+   *   means lookups aren't batched; see `BatchLoader`)
+   */
+  public Duration batchWindow() {
+    return batchWindow;
+  }
+
+  /**
+   * @return the most by-id lookups to batch into one query
+   */
+  public int maxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * @return how often batched inserts are flushed (zero means inserts
+   *   aren't batched; see `WriteBatcher`)
+   */
+  public Duration writeBatchInterval() {
+    return writeBatchInterval;
+  }
+
+  /**
+   * @return the most documents to insert in one batch
+   */
+  public int maxWriteBatchSize() {
+    return maxWriteBatchSize;
+  }
+
+  /**
+   * @return the local log that new todos and users go through (if it's enabled)
+   */
+  public WriteAheadLog writeAheadLog() {
+    return writeAheadLog;
+  }
+
+  /**
+   * @return how long deletions (and other changes) are remembered for clients syncing
+   */
+  public Duration tombstoneRetention() {
+    return tombstoneRetention;
+  }
+
+  /**
+   * @return the feed that pushes changes to subscribed clients
+   */
+  public ChangeFeed changeFeed() {
+    return changeFeed;
+  }
+
+  /**
+   * Builder for `Services`; anything that isn't set keeps its default.
+   */
+  public static final class Builder {
+    private ObjectMapper objectMapper = JsonMappers.create();
+    private JsonResponseCache responseCache = JsonResponseCache.disabled();
+    private boolean rawBsonPassthrough = false;
+    private long maxBodyBytes = RequestBodyReader.DEFAULT_MAX_BODY_BYTES;
+    private AvatarService avatars = new AvatarService(AvatarService.DEFAULT_MEMO_SIZE);
+    private List<RequestSample> warmupMix = List.of();
+    private Duration jitWarmupMaxTime = Duration.ofMinutes(1);
+    private TrafficCapture trafficCapture = TrafficCapture.disabled();
+    private AdmissionControl admission = AdmissionControl.unlimited();
+    private AdaptiveLimiter mongoLimiter = AdaptiveLimiter.unlimited();
+    private Metrics metrics = new Metrics();
+    private Deadlines deadlines = Deadlines.standard();
+    private Duration batchWindow = Duration.ZERO;
+    private int maxBatchSize = 100;
+    private Duration writeBatchInterval = Duration.ZERO;
+    private int maxWriteBatchSize = 500;
+    private WriteAheadLog writeAheadLog = WriteAheadLog.disabled();
+    private Duration tombstoneRetention = Duration.ofDays(7);
+    private ChangeFeed changeFeed = new ChangeFeed(ChangeFeed.DEFAULT_QUEUE_SIZE);
+
+    private Builder() {
+    }
+
+    /**
+     * @param objectMapper the shared Jackson mapper
+     * @return this builder
+     */
+    public Builder objectMapper(ObjectMapper objectMapper) {
+      this.objectMapper = objectMapper;
+      return this;
+    }
+
+    /**
+     * @param responseCache the cache of encoded JSON responses
+     * @return this builder
+     */
+    public Builder responseCache(JsonResponseCache responseCache) {
+      this.responseCache = responseCache;
+      return this;
+    }
+
+    /**
+     * @param rawBsonPassthrough whether list endpoints should transcode raw BSON straight to JSON
+     * @return this builder
+     */
+    public Builder rawBsonPassthrough(boolean rawBsonPassthrough) {
+      this.rawBsonPassthrough = rawBsonPassthrough;
+      return this;
+    }
+
+    /**
+     * @param maxBodyBytes the largest request body (in bytes) to accept
+     * @return this builder
+     */
+    public Builder maxBodyBytes(long maxBodyBytes) {
+      this.maxBodyBytes = maxBodyBytes;
+      return this;
+    }
+
+    /**
+     * @param avatars the service that computes users' avatars
+     * @return this builder
+     */
+    public Builder avatars(AvatarService avatars) {
+      this.avatars = avatars;
+      return this;
+    }
+
+    /**
+     * @param warmupMix the requests to replay to warm up the JIT compiler (empty for none)
+     * @return this builder
+     */
+    public Builder warmupMix(List<RequestSample> warmupMix) {
+      this.warmupMix = List.copyOf(warmupMix);
+      return this;
+    }
+
+    /**
+     * @param jitWarmupMaxTime the longest to spend on the JIT warm up
+     * @return this builder
+     */
+    public Builder jitWarmupMaxTime(Duration jitWarmupMaxTime) {
+      this.jitWarmupMaxTime = jitWarmupMaxTime;
+      return this;
+    }
+
+    /**
+     * @param trafficCapture the recorder of sampled requests
+     * @return this builder
+     */
+    public Builder trafficCapture(TrafficCapture trafficCapture) {
+      this.trafficCapture = trafficCapture;
+      return this;
+    }
+
+    /**
+     * @param admission the per-priority-class limits on concurrent requests
+     * @return this builder
+     */
+    public Builder admission(AdmissionControl admission) {
+      this.admission = admission;
+      return this;
+    }
+
+    /**
+     * @param mongoLimiter the adaptive limit on database operations in flight
+     * @return this builder
+     */
+    public Builder mongoLimiter(AdaptiveLimiter mongoLimiter) {
+      this.mongoLimiter = mongoLimiter;
+      return this;
+    }
+
+    /**
+     * @param metrics the registry of metrics reported by `/metrics`
+     * @return this builder
+     */
+    public Builder metrics(Metrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    /**
+     * @param deadlines the default (and largest) time budgets for requests
+     * @return this builder
+     */
+    public Builder deadlines(Deadlines deadlines) {
+      this.deadlines = deadlines;
+      return this;
+    }
+
+    /**
+     * @param batchWindow how long a by-id lookup waits for others to batch with
+     * @return this builder
+     */
+    public Builder batchWindow(Duration batchWindow) {
+      this.batchWindow = batchWindow;
+      return this;
+    }
+
+    /**
+     * @param maxBatchSize the most by-id lookups to batch into one query
+     * @return this builder
+     */
+    public Builder maxBatchSize(int maxBatchSize) {
+      this.maxBatchSize = maxBatchSize;
+      return this;
+    }
+
+    /**
+     * @param writeBatchInterval how often batched inserts are flushed
+     * @return this builder
+     */
+    public Builder writeBatchInterval(Duration writeBatchInterval) {
+      this.writeBatchInterval = writeBatchInterval;
+      return this;
+    }
+
+    /**
+     * @param maxWriteBatchSize the most documents to insert in one batch
+     * @return this builder
+     */
+    public Builder maxWriteBatchSize(int maxWriteBatchSize) {
+      this.maxWriteBatchSize = maxWriteBatchSize;
+      return this;
+    }
+
+    /**
+     * @param writeAheadLog the local log that new todos and users go through
+     * @return this builder
+     */
+    public Builder writeAheadLog(WriteAheadLog writeAheadLog) {
+      this.writeAheadLog = writeAheadLog;
+      return this;
+    }
+
+    /**
+     * @param tombstoneRetention how long deletions (and other changes) are remembered for clients syncing
+     * @return this builder
+     */
+    public Builder tombstoneRetention(Duration tombstoneRetention) {
+      this.tombstoneRetention = tombstoneRetention;
+      return this;
+    }
+
+    /**
+     * @param changeFeed the feed that pushes changes to subscribed clients
+     * @return this builder
+     */
+    public Builder changeFeed(ChangeFeed changeFeed) {
+      this.changeFeed = changeFeed;
+      return this;
+    }
+
+    /**
+     * @return the `Services` object described by this builder
+     */
+    public Services build() {
+      return new Services(this);
+    }
+  }
+}
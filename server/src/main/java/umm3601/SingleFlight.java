@@ -0,0 +1,112 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.mongodb.MongoExecutionTimeoutException;
+
+import io.javalin.http.GatewayTimeoutResponse;
+
+/**
+ * Makes concurrent identical reads share one execution.
+ *
+ * The first caller for a key (the "leader") runs the load; anyone who asks
+ * for the same key while that's still running waits for it and gets the
+ * same result (or the same exception) instead of running the load again.
+ * The one exception it doesn't share is running out of time: the leader's
+ * deadline may be shorter than a waiter's, so a waiter whose leader timed
+ * out runs the load itself, within its own deadline. Once the load
+ * finishes, the next caller starts a new one, so this never serves
+ * anything older than a load that was in flight when it was asked.
+ *
+ * This is what keeps a dashboard that fires dozens of identical
+ * aggregations at once (or the first requests after the response cache
+ * expires, or after a deploy) from running dozens of identical queries.
+ */
+public final class SingleFlight {
+
+  private final Map<String, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+  private final AtomicLong led = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /**
+   * Load the value for `key`, or wait for the load of it that's already running.
+   *
+   * @param <T> the type of value loaded
+   * @param key identifies equivalent loads
+   * @param maxWait the longest to wait for someone else's load
+   * @param loader loads the value, if no one else is already
+   * @return the loaded value
+   * @throws io.javalin.http.GatewayTimeoutResponse if someone else's load
+   *   doesn't finish within `maxWait`
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T run(String key, Duration maxWait, Supplier<T> loader) {
+    CompletableFuture<Object> flight = new CompletableFuture<>();
+    CompletableFuture<Object> leader = flights.putIfAbsent(key, flight);
+    if (leader != null) {
+      coalesced.incrementAndGet();
+      try {
+        return (T) Deadline.await(leader, maxWait);
+      } catch (GatewayTimeoutResponse | MongoExecutionTimeoutException e) {
+        // If it was our own wait that ran out (rather than the leader's
+        // load), there's no time left to run the load ourselves
+        if (!leader.isCompletedExceptionally()) {
+          throw e;
+        }
+        led.incrementAndGet();
+        return loader.get();
+      }
+    }
+
+    led.incrementAndGet();
+    try {
+      T value = loader.get();
+      flight.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      flights.remove(key, flight);
+    }
+  }
+
+  /**
+   * @return how many loads have actually been run
+   */
+  public long led() {
+    return led.get();
+  }
+
+  /**
+   * @return how many callers shared a load someone else was already running
+   */
+  public long coalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * @return how many loads are running right now
+   */
+  public int inFlight() {
+    return flights.size();
+  }
+
+  /**
+   * Report how many loads were run and how many callers shared one, as
+   * metrics named `<prefix>.led`, `<prefix>.coalesced`, and `<prefix>.inFlight`.
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    metrics.register(prefix + ".led", led::get);
+    metrics.register(prefix + ".coalesced", coalesced::get);
+    metrics.register(prefix + ".inFlight", flights::size);
+  }
+}
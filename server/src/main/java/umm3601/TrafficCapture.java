@@ -0,0 +1,279 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Records a sample of the real requests the server gets, so benchmarks
+ * (and the JIT warm up) can use the actual mix of queries rather than a
+ * made up one.
+ *
+ * A `before` handler picks a random `sampleRate` fraction of the `/api/`
+ * requests, and an `after` handler turns each picked request into a
+ * `RequestSample` (method, matched route, path, query string, body for
+ * POSTs, status, and latency). The request thread only puts the sample
+ * on a bounded queue; a single background thread writes them out as
+ * gzipped NDJSON, so a slow disk never slows down a response (if the
+ * queue ever fills, samples are dropped and counted instead).
+ *
+ * The samples go into `traffic-<time>.ndjson.gz` files in `directory`.
+ * Once a file has `segmentBytes` (uncompressed) bytes in it, the writer
+ * moves on to a new one, and only the newest `segmentsKept` files are
+ * kept. The current file is flushed whenever the writer runs out of
+ * samples to write, so everything up to then can be read while it's
+ * still being written (see `umm3601.bench.TrafficReplay`).
+ *
+ * `disabled()` gives a capture that doesn't register any handlers.
+ */
+public final class TrafficCapture implements Controller {
+
+  static final String START_ATTRIBUTE = "umm3601.captureStart";
+  private static final Logger LOG = LoggerFactory.getLogger(TrafficCapture.class);
+  private static final int QUEUE_SIZE = 10_000;
+  private static final long IDLE_POLL_MILLIS = 500;
+  private static final byte[] NEWLINE = {'\n'};
+
+  private static final TrafficCapture DISABLED = new TrafficCapture();
+
+  private final ObjectWriter writer;
+  private final Path directory;
+  private final double sampleRate;
+  private final long segmentBytes;
+  private final int segmentsKept;
+  private final BlockingQueue<RequestSample> queue;
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final Thread writerThread;
+  private volatile boolean running;
+
+  // Only used by the writer thread
+  private OutputStream segment;
+  private long segmentWritten;
+  private long lastSegmentMillis;
+
+  /**
+   * @param mapper the mapper to write samples with
+   * @param directory where to write the capture files (created if need be)
+   * @param sampleRate the fraction (0 to 1) of requests to record
+   * @param segmentBytes how many (uncompressed) bytes to write to a file before starting a new one
+   * @param segmentsKept how many of the newest files to keep
+   */
+  public TrafficCapture(ObjectMapper mapper, Path directory, double sampleRate, long segmentBytes,
+      int segmentsKept) {
+    this.writer = mapper.writerFor(RequestSample.class);
+    this.directory = directory;
+    this.sampleRate = sampleRate;
+    this.segmentBytes = segmentBytes;
+    this.segmentsKept = segmentsKept;
+    this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    this.running = true;
+    this.writerThread = Thread.ofPlatform().daemon().name("traffic-capture").start(this::writeSamples);
+  }
+
+  private TrafficCapture() {
+    this.writer = null;
+    this.directory = null;
+    this.sampleRate = 0;
+    this.segmentBytes = 0;
+    this.segmentsKept = 0;
+    this.queue = null;
+    this.writerThread = null;
+    this.running = false;
+  }
+
+  /**
+   * @return a capture that doesn't record anything
+   */
+  public static TrafficCapture disabled() {
+    return DISABLED;
+  }
+
+  /**
+   * @return how many samples were dropped because the writer couldn't keep up
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * @return how many samples have been written so far
+   */
+  public long written() {
+    return written.get();
+  }
+
+  /**
+   * Start timing the request (if it's picked to be sampled).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  void before(Context ctx) {
+    if (ctx.path().startsWith("/api/") && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+      ctx.attribute(START_ATTRIBUTE, System.nanoTime());
+      // So a POST's whole body can be replayed, not just the start of it
+      ctx.attribute(RequestBodyReader.KEEP_BODY_ATTRIBUTE, true);
+    }
+  }
+
+  /**
+   * Record the request (if it was picked to be sampled in `before()`).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  void after(Context ctx) {
+    Long start = ctx.attribute(START_ATTRIBUTE);
+    if (start == null) {
+      return;
+    }
+    long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    String body = null;
+    if (ctx.method() == HandlerType.POST) {
+      Supplier<String> read = ctx.attribute(RequestBodyReader.BODY_ATTRIBUTE);
+      body = read == null ? null : read.get();
+    }
+    RequestSample sample = new RequestSample(System.currentTimeMillis(), ctx.method().name(),
+      ctx.endpointHandlerPath(), ctx.path(), ctx.queryString(), body, ctx.status().getCode(), latencyMicros);
+    if (!queue.offer(sample)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Stop recording, and write out whatever's still waiting to be written.
+   */
+  public void close() {
+    if (writerThread == null) {
+      return;
+    }
+    running = false;
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // The writer thread's loop
+  private void writeSamples() {
+    List<RequestSample> batch = new ArrayList<>();
+    try {
+      while (running || !queue.isEmpty()) {
+        RequestSample first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch);
+        for (RequestSample sample : batch) {
+          write(sample);
+        }
+        batch.clear();
+        // Nothing else to do right now, so make what we've got readable
+        segment.flush();
+      }
+    } catch (IOException e) {
+      LOG.warn("Traffic capture stopped", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      running = false;
+      closeSegment();
+    }
+  }
+
+  private void write(RequestSample sample) throws IOException {
+    if (segment == null || segmentWritten >= segmentBytes) {
+      nextSegment();
+    }
+    byte[] line = writer.writeValueAsBytes(sample);
+    segment.write(line);
+    segment.write(NEWLINE);
+    segmentWritten += line.length + 1;
+    written.incrementAndGet();
+  }
+
+  private void nextSegment() throws IOException {
+    closeSegment();
+    Files.createDirectories(directory);
+    // Named for when they were started (but never two with the same name)
+    lastSegmentMillis = Math.max(System.currentTimeMillis(), lastSegmentMillis + 1);
+    Path file = directory.resolve("traffic-" + lastSegmentMillis + ".ndjson.gz");
+    // "Sync flush", so each `flush()` pushes everything written so far out to the file
+    segment = new GZIPOutputStream(Files.newOutputStream(file), true);
+    segmentWritten = 0;
+    deleteOldSegments();
+  }
+
+  private void closeSegment() {
+    if (segment == null) {
+      return;
+    }
+    try {
+      segment.close();
+    } catch (IOException e) {
+      LOG.warn("Couldn't finish a traffic capture file", e);
+    } finally {
+      segment = null;
+    }
+  }
+
+  private void deleteOldSegments() throws IOException {
+    List<Path> segments = segments(directory);
+    for (int i = 0; i < segments.size() - segmentsKept; i++) {
+      Files.deleteIfExists(segments.get(i));
+    }
+  }
+
+  /**
+   * @param directory a directory with capture files in it
+   * @return the capture files in `directory`, oldest first
+   * @throws IOException if the directory can't be read
+   */
+  public static List<Path> segments(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      // The names all have the same shape, so sorting by name sorts by time
+      return files
+        .filter(file -> file.getFileName().toString().matches("traffic-\\d+\\.ndjson\\.gz"))
+        .sorted()
+        .toList();
+    }
+  }
+
+  /**
+   * Add the `before` and `after` handlers that sample requests (unless
+   * this capture is disabled), and close the capture when the server stops.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    if (writerThread == null) {
+      return;
+    }
+    server.before(this::before);
+    server.after(this::after);
+    server.events(event -> event.serverStopped(this::close));
+  }
+}
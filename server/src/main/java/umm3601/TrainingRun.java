@@ -0,0 +1,125 @@
+package umm3601;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A short, scripted workout for a freshly started server, used to build
+ * its AppCDS (Application Class Data Sharing) archive.
+ *
+ * When `Main` is started with `CDS_TRAINING_RUN=true` (and the JVM option
+ * `-XX:ArchiveClassesAtExit=...`), it runs this against itself and then
+ * exits. Along the way the JVM loads (and links) all of the Javalin,
+ * Jetty, Jackson, MongoDB driver, and MongoJack classes a real request
+ * needs, and at exit it writes them all to the archive. Later starts
+ * that use the archive (`-XX:SharedArchiveFile=...`) map those classes
+ * straight in, instead of finding, reading, and verifying each of them
+ * from the jars all over again.
+ *
+ * The workout adds a user and a todo, reads them back through every kind
+ * of endpoint, and then deletes them, so it's safe to run against any
+ * database, though it's meant for a throwaway "stand-in" one.
+ */
+public final class TrainingRun {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TrainingRun.class);
+  // How many times to go through the whole workout; a few times
+  // through makes sure lazily initialized paths get loaded too.
+  private static final int ROUNDS = 3;
+
+  private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"([0-9a-f]{24})\"");
+
+  private final HttpClient client = HttpClient.newHttpClient();
+  private final String base;
+  private int failures;
+
+  private TrainingRun(int port) {
+    this.base = "http://localhost:" + port;
+  }
+
+  /**
+   * Exercise the server listening on `port`.
+   *
+   * @param port the port the server is listening on
+   * @return the number of requests that didn't succeed
+   */
+  static int exercise(int port) {
+    TrainingRun run = new TrainingRun(port);
+    try {
+      for (int round = 0; round < ROUNDS; round++) {
+        run.round();
+      }
+    } catch (IOException e) {
+      LOG.warn("Training run failed", e);
+      run.failures++;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      run.failures++;
+    }
+    return run.failures;
+  }
+
+  private void round() throws IOException, InterruptedException {
+    String userId = idFrom(send("POST", "/api/users", """
+      {"name": "Training Run", "age": 30, "company": "CDS", "email": "training@example.com", "role": "viewer"}
+      """));
+    String todoId = idFrom(send("POST", "/api/todos", """
+      {"owner": "Training Run", "status": false, "body": "Warm up the class loader", "category": "startup"}
+      """));
+
+    for (String path : List.of(
+        "/api/users",
+        "/api/users?company=CDS&role=viewer&sortby=age",
+        "/api/usersByCompany?countsOnly=true",
+        "/api/usersByCompany?group=CDS&membersLimit=5",
+        "/api/todos",
+        "/api/todos?owner=Training%20Run&status=incomplete&limit=5",
+        "/api/TodoByOwner",
+        "/api/TodoByStatus?sortBy=count",
+        "/api/TodoByCategory?membersLimit=2&membersSkip=1",
+        "/api/todos/summary?countsOnly=true",
+        "/api/owners/Training%20Run",
+        "/live")) {
+      send("GET", path, null);
+    }
+    if (userId != null) {
+      send("GET", "/api/users/" + userId, null);
+      send("DELETE", "/api/users/" + userId, null);
+    }
+    if (todoId != null) {
+      send("DELETE", "/api/todos/" + todoId, null);
+    }
+  }
+
+  private String send(String method, String path, String body) throws IOException, InterruptedException {
+    HttpRequest.BodyPublisher publisher = body == null
+      ? HttpRequest.BodyPublishers.noBody()
+      : HttpRequest.BodyPublishers.ofString(body);
+    HttpRequest request = HttpRequest.newBuilder(URI.create(base + path))
+      .method(method, publisher)
+      .header("Content-Type", "application/json")
+      .header("Accept-Encoding", "gzip")
+      .build();
+    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() >= 400) {
+      // Keep going; a failed request still loads most of what a good one would.
+      LOG.warn("Training run: {} {} gave {}", method, path, response.statusCode());
+      failures++;
+    }
+    return response.body();
+  }
+
+  private static String idFrom(String response) {
+    Matcher matcher = ID.matcher(response);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+}
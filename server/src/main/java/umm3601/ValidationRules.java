@@ -0,0 +1,212 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+/**
+ * A fixed set of validation rules for one kind of request body (like a new
+ * `User` or `Todo`), declared once and then checked against every body.
+ *
+ * Each rule checks a single field, e.g.,
+ *
+ * <pre>
+ *   ValidationRules.&lt;User&gt;builder()
+ *     .field("name", usr -&gt; usr.name, ValidationRules::notBlank, "User must have a non-empty user name")
+ *     .intField("age", usr -&gt; usr.age, age -&gt; age &gt; 0, "User's age must be greater than zero")
+ *     .build();
+ * </pre>
+ *
+ * Compared to chaining `.check(...)`s on a Javalin `BodyValidator`:
+ *
+ *   - every failing rule is reported, not just the first, and each error
+ *     names the field that failed (in its `args`) and holds that field's value,
+ *   - error messages are only put together when a rule actually fails, so
+ *     the request body (which goes into every message) is only read then,
+ *   - the rules themselves add nothing to check when everything passes: they
+ *     are an array of lambdas, `int` fields are checked without boxing, and
+ *     the list of errors is only created once there's an error to put in it.
+ *     (A check can still allocate on its own; `matches()` makes a `Matcher`
+ *     each time, so rules that run on every request are better off with a
+ *     hand-written check, like `UserController.isEmail()`.)
+ *
+ * Failures are thrown as a Javalin `ValidationException` with the errors
+ * under `"REQUEST_BODY"`, just as a failing `BodyValidator` check would,
+ * so clients see the same 400 response they always have.
+ *
+ * @param <T> the type of object being validated
+ */
+public final class ValidationRules<T> {
+
+  /**
+   * The key Javalin uses for errors about the request body as a whole.
+   */
+  public static final String REQUEST_BODY_KEY = "REQUEST_BODY";
+
+  private final Rule<T>[] rules;
+
+  private ValidationRules(List<Rule<T>> rules) {
+    @SuppressWarnings("unchecked")
+    Rule<T>[] array = rules.toArray(new Rule[0]);
+    this.rules = array;
+  }
+
+  /**
+   * @param <T> the type of object being validated
+   * @return a builder for a new set of rules
+   */
+  public static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  /**
+   * Check `target` against every rule.
+   *
+   * @param target the (already parsed) request body
+   * @param body supplies the text of the request body for the error messages;
+   *   it's only called if some rule fails
+   * @return `target`, if it passed every rule
+   * @throws ValidationException listing every rule that failed
+   */
+  public T validate(T target, Supplier<String> body) {
+    List<ValidationError<Object>> errors = null;
+    String suffix = null;
+    for (int i = 0; i < rules.length; i++) {
+      if (!rules[i].passes(target)) {
+        if (errors == null) {
+          errors = new ArrayList<>();
+          // Every error message ends with the same body, so only fetch it once
+          suffix = "; body was " + body.get();
+        }
+        errors.add(rules[i].error(target, suffix));
+      }
+    }
+    if (errors != null) {
+      throw new ValidationException(Map.of(REQUEST_BODY_KEY, errors));
+    }
+    return target;
+  }
+
+  /**
+   * @param value a string, which may be `null`
+   * @return `true` if `value` is non-`null` and non-empty
+   */
+  public static boolean notBlank(String value) {
+    return value != null && !value.isEmpty();
+  }
+
+  /**
+   * @param pattern a (precompiled) pattern
+   * @return a check that passes non-`null` strings that entirely match `pattern`
+   *   (each check allocates a `Matcher`)
+   */
+  public static Predicate<String> matches(Pattern pattern) {
+    return value -> value != null && pattern.matcher(value).matches();
+  }
+
+  /**
+   * @param <V> the type of the value checked
+   * @param check a check for a value that's there
+   * @return a check that passes `null` (i.e., a field that was left out,
+   *   as in a partial update) as well as anything `check` passes
+   */
+  public static <V> Predicate<V> optional(Predicate<? super V> check) {
+    return value -> value == null || check.test(value);
+  }
+
+  /**
+   * One rule, for one field.
+   *
+   * @param <T> the type of object being validated
+   */
+  private interface Rule<T> {
+    boolean passes(T target);
+
+    ValidationError<Object> error(T target, String suffix);
+  }
+
+  private record ObjectRule<T, V>(String field, Function<? super T, ? extends V> getter,
+      Predicate<? super V> check, String message) implements Rule<T> {
+    @Override
+    public boolean passes(T target) {
+      return check.test(getter.apply(target));
+    }
+
+    @Override
+    public ValidationError<Object> error(T target, String suffix) {
+      return new ValidationError<>(message + suffix, Map.of("field", field), getter.apply(target));
+    }
+  }
+
+  private record IntRule<T>(String field, ToIntFunction<? super T> getter, IntPredicate check, String message)
+      implements Rule<T> {
+    @Override
+    public boolean passes(T target) {
+      return check.test(getter.applyAsInt(target));
+    }
+
+    @Override
+    public ValidationError<Object> error(T target, String suffix) {
+      return new ValidationError<>(message + suffix, Map.of("field", field), getter.applyAsInt(target));
+    }
+  }
+
+  /**
+   * Builder for `ValidationRules`. Rules are checked (and their errors
+   * reported) in the order they're added.
+   *
+   * @param <T> the type of object being validated
+   */
+  public static final class Builder<T> {
+    private final List<Rule<T>> rules = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * Add a rule for a field.
+     *
+     * @param <V> the type of the field
+     * @param field the name of the field (reported with any error)
+     * @param getter gets the field's value; it may be `null`, so `check` must handle that
+     * @param check passes legal values of the field
+     * @param message the error message if `check` fails
+     * @return this builder
+     */
+    public <V> Builder<T> field(String field, Function<? super T, ? extends V> getter,
+        Predicate<? super V> check, String message) {
+      rules.add(new ObjectRule<>(field, getter, check, message));
+      return this;
+    }
+
+    /**
+     * Add a rule for an `int` field, which is checked without boxing.
+     *
+     * @param field the name of the field (reported with any error)
+     * @param getter gets the field's value
+     * @param check passes legal values of the field
+     * @param message the error message if `check` fails
+     * @return this builder
+     */
+    public Builder<T> intField(String field, ToIntFunction<? super T> getter, IntPredicate check, String message) {
+      rules.add(new IntRule<>(field, getter, check, message));
+      return this;
+    }
+
+    /**
+     * @return the rules added to this builder
+     */
+    public ValidationRules<T> build() {
+      return new ValidationRules<>(rules);
+    }
+  }
+}
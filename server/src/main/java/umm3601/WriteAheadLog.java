@@ -0,0 +1,682 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+
+import io.javalin.Javalin;
+
+/**
+ * A local, durable log of accepted writes, so a burst of new todos and
+ * users can be acknowledged as fast as the local disk can take them,
+ * rather than as fast as MongoDB can.
+ *
+ * `append()` writes a document to the end of the log and waits until it's
+ * on disk; once it returns, the write will reach the database eventually,
+ * even if the server dies first. (The controllers then answer with a 202
+ * Accepted and the document's ID, which they generate up front.) A
+ * background "drainer" reads the log from where it last got to, inserts
+ * what it finds into MongoDB in batches (through the `sink` registered for
+ * each collection), and then records how far it got in a `checkpoint`
+ * file. When the server starts, anything after the checkpoint (i.e.,
+ * anything that was accepted but not yet drained) is drained first.
+ *
+ * Appends are group committed: records are written under a lock, but
+ * forced to disk outside it, and one force covers every record written by
+ * the time it starts. So a burst of appends shares a handful of forces,
+ * rather than queuing up behind one force each.
+ *
+ * The log is a series of `wal-<sequence>.log` segment files of
+ * `segmentBytes` each, memory mapped for writing. Each record is its
+ * length, a CRC32C checksum, and the collection and JSON of its document;
+ * a record whose checksum doesn't match (e.g., one that was only half
+ * written when the server died) marks the end of the log. Once a new
+ * segment is started the old one is never written again, and segments
+ * are deleted once they've been drained.
+ *
+ * A document can be inserted twice if the server dies after a batch is
+ * inserted but before the checkpoint is written. Every document has its
+ * `_id` from the start, so the second insert fails with a duplicate key
+ * error, which the drainer ignores.
+ *
+ * A document that can never be inserted (MongoDB rejects it, say, or it
+ * can't be read back) would otherwise hold up everything behind it, so it
+ * is moved to `dead-letters.ndjson` (one JSON object per line, with the
+ * collection, the reason, and the document) and the drainer moves on.
+ * Anything else that goes wrong (the database is down, or overloaded, or
+ * slow) leaves the batch in the log to be tried again.
+ *
+ * `disabled()` gives a log that isn't used at all.
+ */
+public final class WriteAheadLog implements Controller {
+
+  private static final Logger LOG = LoggerFactory.getLogger(WriteAheadLog.class);
+  private static final String CHECKPOINT = "checkpoint";
+  private static final String DEAD_LETTERS = "dead-letters.ndjson";
+  // Each record starts with its length and checksum
+  private static final int HEADER_BYTES = 2 * Integer.BYTES;
+  // The "length" written after the last record in a finished segment
+  private static final int END_OF_SEGMENT = -1;
+  private static final int DUPLICATE_KEY = 11000;
+  private static final long IDLE_NANOS = Duration.ofMillis(10).toNanos();
+  private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+  private static final WriteAheadLog DISABLED = new WriteAheadLog();
+
+  private final ObjectMapper mapper;
+  private final Path directory;
+  private final int segmentBytes;
+  private final int drainBatchSize;
+  private final Map<String, Sink<?>> sinks = new ConcurrentHashMap<>();
+
+  // Guarded by `appendLock`
+  private final ReentrantLock appendLock = new ReentrantLock();
+  private long writeSegment;
+  private MappedByteBuffer writeBuffer;
+  private int writeOffset;
+  // How many records have been written (whether or not they're on disk yet)
+  private long writeCount;
+
+  // Guarded by `syncLock`: how many of the records written are known to be
+  // on disk, and whether an appender is forcing more of them there right now
+  private final ReentrantLock syncLock = new ReentrantLock();
+  private final Condition syncDone = syncLock.newCondition();
+  private long syncedCount;
+  private boolean syncing;
+
+  // The end of the last record known to be on disk, which is as far as the drainer goes
+  private volatile Position durable;
+
+  // Only used by the drainer (and by the constructor, before it starts)
+  private Position drained;
+  private long readSegment = -1;
+  private MappedByteBuffer readBuffer;
+
+  private volatile Thread drainer;
+  private volatile boolean running;
+
+  private final AtomicLong appended = new AtomicLong();
+  private final AtomicLong drainedCount = new AtomicLong();
+  private final AtomicLong pending = new AtomicLong();
+  private final AtomicLong syncs = new AtomicLong();
+  private final AtomicLong deadLettered = new AtomicLong();
+
+  /**
+   * A place in the log: a segment and an offset in it.
+   */
+  record Position(long segment, int offset) implements Comparable<Position> {
+    @Override
+    public int compareTo(Position other) {
+      int bySegment = Long.compare(segment, other.segment);
+      return bySegment != 0 ? bySegment : Integer.compare(offset, other.offset);
+    }
+  }
+
+  /**
+   * One record read from the log.
+   */
+  private record Entry(String collection, byte[] document, Position next) {
+  }
+
+  /**
+   * A document that can't ever be inserted, as written to the dead letters.
+   */
+  record DeadLetter(String collection, String reason, String document) {
+  }
+
+  /**
+   * Where the documents for one collection are drained to.
+   */
+  private record Sink<T>(ObjectMapper mapper, Class<T> type, Consumer<List<T>> insertMany) {
+    /**
+     * Insert `documents`.
+     *
+     * @param collection the collection's name (for the dead letters)
+     * @param documents the JSON of the documents
+     * @return the documents that can't ever be inserted
+     * @throws RuntimeException if the insert failed in a way that's worth
+     *   trying again (so none of `documents` should be dropped)
+     */
+    List<DeadLetter> insert(String collection, List<byte[]> documents) {
+      List<DeadLetter> rejected = new ArrayList<>();
+      List<T> decoded = new ArrayList<>(documents.size());
+      List<byte[]> sent = new ArrayList<>(documents.size());
+      for (byte[] document : documents) {
+        try {
+          decoded.add(mapper.readValue(document, type));
+          sent.add(document);
+        } catch (IOException e) {
+          rejected.add(deadLetter(collection, "Can't be read: " + e.getMessage(), document));
+        }
+      }
+      if (decoded.isEmpty()) {
+        return rejected;
+      }
+      try {
+        insertMany.accept(decoded);
+      } catch (MongoBulkWriteException e) {
+        // A write concern error says nothing about the documents themselves
+        if (e.getWriteConcernError() != null) {
+          throw e;
+        }
+        // The other documents went in, and documents that were already
+        // inserted (before the server died and had to drain them again) are
+        // fine; the rest were rejected by the database, and always will be.
+        for (BulkWriteError error : e.getWriteErrors()) {
+          if (error.getCode() != DUPLICATE_KEY) {
+            String reason = error.getCode() + ": " + error.getMessage();
+            rejected.add(deadLetter(collection, reason, sent.get(error.getIndex())));
+          }
+        }
+      }
+      return rejected;
+    }
+
+    private static DeadLetter deadLetter(String collection, String reason, byte[] document) {
+      return new DeadLetter(collection, reason, new String(document, StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Open (or create) the log in `directory`, and find anything in it that
+   * hasn't been drained yet.
+   *
+   * @param mapper the mapper to write (and read back) documents with
+   * @param directory where to keep the segments and checkpoint (created if need be)
+   * @param segmentBytes how large each segment file is
+   * @param drainBatchSize the most documents to drain in one batch
+   * @throws IOException if the log can't be opened
+   */
+  public WriteAheadLog(ObjectMapper mapper, Path directory, int segmentBytes, int drainBatchSize)
+      throws IOException {
+    this.mapper = mapper;
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.drainBatchSize = drainBatchSize;
+
+    Files.createDirectories(directory);
+    List<Long> segments = segments();
+    drained = readCheckpoint(segments.isEmpty() ? 0 : segments.get(0));
+    deleteSegmentsBefore(drained.segment());
+
+    // Everything from the checkpoint up to the first bad (or missing) record is still to be drained
+    Position end = drained;
+    for (Entry entry = read(end); entry != null; entry = read(end)) {
+      end = entry.next();
+      pending.incrementAndGet();
+    }
+    // The drainer stops at the last record, even if new ones go in the next segment
+    durable = end;
+    end = skipFinishedSegment(end);
+    // Anything past a bad record can't be trusted (and would be overwritten anyway)
+    for (long later : segments()) {
+      if (later > end.segment()) {
+        Files.deleteIfExists(segment(later));
+      }
+    }
+    writeSegment = end.segment();
+    writeOffset = end.offset();
+    writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+  }
+
+  private WriteAheadLog() {
+    this.mapper = null;
+    this.directory = null;
+    this.segmentBytes = 0;
+    this.drainBatchSize = 0;
+  }
+
+  /**
+   * @return a log that isn't used
+   */
+  public static WriteAheadLog disabled() {
+    return DISABLED;
+  }
+
+  /**
+   * @return `true` if writes should go through this log
+   */
+  public boolean isEnabled() {
+    return directory != null;
+  }
+
+  /**
+   * Say where the documents appended for `collection` are drained to.
+   *
+   * @param <T> the type of the documents
+   * @param collection the collection's name (as passed to `append()`)
+   * @param type the class to read the documents back as
+   * @param insertMany inserts a batch of documents into the collection;
+   *   it must be unordered, so one duplicate doesn't stop the rest
+   */
+  public <T> void register(String collection, Class<T> type, Consumer<List<T>> insertMany) {
+    if (isEnabled()) {
+      sinks.put(collection, new Sink<>(mapper, type, insertMany));
+    }
+  }
+
+  /**
+   * Durably add a document to the end of the log.
+   *
+   * @param collection the collection the document belongs in
+   * @param document the document, which must already have its `_id`
+   */
+  public void append(String collection, Object document) {
+    byte[] name = collection.getBytes(StandardCharsets.UTF_8);
+    byte[] json;
+    try {
+      json = mapper.writeValueAsBytes(document);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+    int length = Short.BYTES + name.length + json.length;
+    if (HEADER_BYTES + length + Integer.BYTES > segmentBytes) {
+      throw new IllegalArgumentException("A " + length + " byte document won't fit in a log segment");
+    }
+    CRC32C checksum = new CRC32C();
+    checksum.update(name.length >> Byte.SIZE);
+    checksum.update(name.length);
+    checksum.update(name);
+    checksum.update(json);
+
+    long count;
+    appendLock.lock();
+    try {
+      // Always leave room for the end of segment marker
+      if (writeOffset + HEADER_BYTES + length + Integer.BYTES > segmentBytes) {
+        nextSegment();
+      }
+      int at = writeOffset;
+      writeBuffer.putInt(at + Integer.BYTES, (int) checksum.getValue());
+      writeBuffer.putShort(at + HEADER_BYTES, (short) name.length);
+      writeBuffer.put(at + HEADER_BYTES + Short.BYTES, name);
+      writeBuffer.put(at + HEADER_BYTES + Short.BYTES + name.length, json);
+      // The length goes in last, so a record is never seen before it's all there
+      writeBuffer.putInt(at, length);
+      writeOffset = at + HEADER_BYTES + length;
+      count = ++writeCount;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Couldn't start a new log segment", e);
+    } finally {
+      appendLock.unlock();
+    }
+    awaitSynced(count);
+    appended.incrementAndGet();
+    pending.incrementAndGet();
+    if (drainer != null) {
+      LockSupport.unpark(drainer);
+    }
+  }
+
+  // Wait until (at least) the first `count` records written are on disk.
+  // An appender that finds no force running starts one, which covers every
+  // record written by then; the appenders that arrive while it runs wait
+  // for it, and then share the next one.
+  private void awaitSynced(long count) {
+    syncLock.lock();
+    try {
+      while (syncedCount < count) {
+        if (syncing) {
+          syncDone.awaitUninterruptibly();
+          continue;
+        }
+        syncing = true;
+        syncLock.unlock();
+        long target = 0;
+        Position end = null;
+        try {
+          MappedByteBuffer buffer;
+          appendLock.lock();
+          try {
+            buffer = writeBuffer;
+            target = writeCount;
+            end = new Position(writeSegment, writeOffset);
+          } finally {
+            appendLock.unlock();
+          }
+          // Earlier segments were forced, all of them, when they were finished
+          Position from = durable;
+          int start = from.segment() == end.segment() ? from.offset() : 0;
+          buffer.force(start, end.offset() - start);
+          syncs.incrementAndGet();
+        } catch (RuntimeException | Error e) {
+          end = null;
+          throw e;
+        } finally {
+          syncLock.lock();
+          syncing = false;
+          if (end != null) {
+            syncedCount = target;
+            durable = end;
+          }
+          syncDone.signalAll();
+        }
+      }
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+  // Guarded by `appendLock`
+  private void nextSegment() throws IOException {
+    writeBuffer.putInt(writeOffset, END_OF_SEGMENT);
+    // Records written since the last force are in here too
+    writeBuffer.force(0, writeOffset + Integer.BYTES);
+    writeSegment++;
+    writeOffset = 0;
+    writeBuffer = map(writeSegment, FileChannel.MapMode.READ_WRITE);
+  }
+
+  /**
+   * Start draining the log in the background.
+   */
+  public void start() {
+    if (!isEnabled() || drainer != null) {
+      return;
+    }
+    running = true;
+    drainer = Thread.ofPlatform().daemon().name("write-ahead-log").start(this::drainForever);
+  }
+
+  /**
+   * Stop draining (anything not drained yet stays in the log for next time).
+   */
+  public void close() {
+    if (drainer == null) {
+      return;
+    }
+    running = false;
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // The drainer's loop
+  private void drainForever() {
+    while (running) {
+      try {
+        if (drain() == 0) {
+          LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Couldn't drain the write-ahead log (will try again): {}", e.toString());
+        LockSupport.parkNanos(this, RETRY_DELAY.toNanos());
+      }
+    }
+  }
+
+  /**
+   * Insert (up to) one batch of the documents that haven't been drained yet,
+   * moving any that can't ever be inserted to the dead letters.
+   *
+   * @return how many documents were taken off the log (inserted or dead lettered)
+   * @throws IOException if the log can't be read, or the checkpoint written
+   * @throws RuntimeException if the batch couldn't be inserted, but might be later
+   */
+  int drain() throws IOException {
+    Position limit = durable;
+    Map<String, List<byte[]>> batch = new LinkedHashMap<>();
+    Position at = drained;
+    int count = 0;
+    while (count < drainBatchSize && at.compareTo(limit) < 0) {
+      Entry entry = read(at);
+      if (entry == null) {
+        throw new IOException("The write-ahead log is corrupt at " + at);
+      }
+      batch.computeIfAbsent(entry.collection(), c -> new ArrayList<>()).add(entry.document());
+      at = entry.next();
+      count++;
+    }
+    if (count == 0) {
+      return 0;
+    }
+
+    List<DeadLetter> rejected = new ArrayList<>();
+    for (Map.Entry<String, List<byte[]>> documents : batch.entrySet()) {
+      Sink<?> sink = sinks.get(documents.getKey());
+      if (sink == null) {
+        throw new IllegalStateException("Nothing drains the " + documents.getKey() + " collection");
+      }
+      rejected.addAll(sink.insert(documents.getKey(), documents.getValue()));
+    }
+    // The dead letters have to be safely written before the checkpoint moves past them
+    writeDeadLetters(rejected);
+
+    drained = at;
+    writeCheckpoint(at);
+    deleteSegmentsBefore(at.segment());
+    pending.addAndGet(-count);
+    drainedCount.addAndGet(count - rejected.size());
+    deadLettered.addAndGet(rejected.size());
+    return count;
+  }
+
+  private void writeDeadLetters(List<DeadLetter> rejected) throws IOException {
+    if (rejected.isEmpty()) {
+      return;
+    }
+    ByteArrayOutputStream lines = new ByteArrayOutputStream();
+    for (DeadLetter deadLetter : rejected) {
+      LOG.warn("Moved a {} document that can't be inserted to the write-ahead log's dead letters: {}",
+        deadLetter.collection(), deadLetter.reason());
+      lines.write(mapper.writeValueAsBytes(deadLetter));
+      lines.write('\n');
+    }
+    try (FileChannel channel = FileChannel.open(directory.resolve(DEAD_LETTERS),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(lines.toByteArray()));
+      channel.force(true);
+    }
+  }
+
+  // The record at `at` (moving on to the next segment if `at` is the end
+  // of one), or `null` if there isn't a (whole, valid) record there
+  private Entry read(Position at) throws IOException {
+    while (true) {
+      if (readSegment != at.segment()) {
+        if (!Files.exists(segment(at.segment()))) {
+          return null;
+        }
+        readBuffer = map(at.segment(), FileChannel.MapMode.READ_ONLY);
+        readSegment = at.segment();
+      }
+      int offset = at.offset();
+      int length = offset + Integer.BYTES > segmentBytes ? END_OF_SEGMENT : readBuffer.getInt(offset);
+      if (length == END_OF_SEGMENT) {
+        at = new Position(at.segment() + 1, 0);
+        continue;
+      }
+      if (length < Short.BYTES || offset + HEADER_BYTES + length > segmentBytes) {
+        return null;
+      }
+      byte[] record = new byte[length];
+      readBuffer.get(offset + HEADER_BYTES, record);
+      CRC32C checksum = new CRC32C();
+      checksum.update(record);
+      if ((int) checksum.getValue() != readBuffer.getInt(offset + Integer.BYTES)) {
+        return null;
+      }
+      int nameLength = Short.toUnsignedInt(readBuffer.getShort(offset + HEADER_BYTES));
+      if (Short.BYTES + nameLength > length) {
+        return null;
+      }
+      String collection = new String(record, Short.BYTES, nameLength, StandardCharsets.UTF_8);
+      byte[] document = new byte[length - Short.BYTES - nameLength];
+      System.arraycopy(record, Short.BYTES + nameLength, document, 0, document.length);
+      return new Entry(collection, document, new Position(at.segment(), offset + HEADER_BYTES + length));
+    }
+  }
+
+  // If the log ends with a finished segment, new records go in the next one
+  private Position skipFinishedSegment(Position end) throws IOException {
+    if (Files.exists(segment(end.segment()))) {
+      MappedByteBuffer buffer = map(end.segment(), FileChannel.MapMode.READ_ONLY);
+      if (end.offset() + Integer.BYTES > segmentBytes || buffer.getInt(end.offset()) == END_OF_SEGMENT) {
+        return new Position(end.segment() + 1, 0);
+      }
+    }
+    return end;
+  }
+
+  private MappedByteBuffer map(long segment, FileChannel.MapMode mode) throws IOException {
+    Path file = segment(segment);
+    if (mode == FileChannel.MapMode.READ_WRITE && !Files.exists(file)) {
+      try (RandomAccessFile created = new RandomAccessFile(file.toFile(), "rw")) {
+        created.setLength(segmentBytes);
+      }
+    }
+    StandardOpenOption[] options = mode == FileChannel.MapMode.READ_WRITE
+      ? new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE}
+      : new StandardOpenOption[] {StandardOpenOption.READ};
+    // The mapping stays valid after the channel is closed
+    try (FileChannel channel = FileChannel.open(file, options)) {
+      return channel.map(mode, 0, segmentBytes);
+    }
+  }
+
+  private Path segment(long segment) {
+    return directory.resolve(String.format("wal-%020d.log", segment));
+  }
+
+  // The sequence numbers of the segments in the log, oldest first
+  private List<Long> segments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+        .map(file -> file.getFileName().toString())
+        .filter(name -> name.matches("wal-\\d{20}\\.log"))
+        .map(name -> Long.parseLong(name.substring("wal-".length(), name.length() - ".log".length())))
+        .sorted()
+        .toList();
+    }
+  }
+
+  private void deleteSegmentsBefore(long segment) throws IOException {
+    for (long old : segments()) {
+      if (old < segment) {
+        Files.deleteIfExists(segment(old));
+      }
+    }
+  }
+
+  private Position readCheckpoint(long firstSegment) throws IOException {
+    Path file = directory.resolve(CHECKPOINT);
+    if (!Files.exists(file)) {
+      return new Position(firstSegment, 0);
+    }
+    String[] parts = Files.readString(file).trim().split(" ");
+    return new Position(Long.parseLong(parts[0]), Integer.parseInt(parts[1]));
+  }
+
+  private void writeCheckpoint(Position at) throws IOException {
+    Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+    Files.writeString(temporary, at.segment() + " " + at.offset());
+    Files.move(temporary, directory.resolve(CHECKPOINT),
+      StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return how many documents have been appended since the log was opened
+   */
+  public long appended() {
+    return appended.get();
+  }
+
+  /**
+   * @return how many documents have been drained since the log was opened
+   */
+  public long drained() {
+    return drainedCount.get();
+  }
+
+  /**
+   * @return how many documents are in the log, waiting to be drained
+   */
+  public long pending() {
+    return pending.get();
+  }
+
+  /**
+   * @return how many documents have been moved to the dead letters since the log was opened
+   */
+  public long deadLettered() {
+    return deadLettered.get();
+  }
+
+  /**
+   * @return how many times appended records have been forced to disk
+   *   (which, with many appends at once, is fewer than the number of appends)
+   */
+  public long syncs() {
+    return syncs.get();
+  }
+
+  /**
+   * Report how many documents have been appended, drained, and dead
+   * lettered, how many are waiting, and how many forces the appends took,
+   * as metrics named `<prefix>.appended`, `<prefix>.drained`,
+   * `<prefix>.deadLettered`, `<prefix>.pending`, and `<prefix>.syncs`
+   * (if this log is enabled).
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    if (isEnabled()) {
+      metrics.register(prefix + ".appended", appended::get);
+      metrics.register(prefix + ".drained", drainedCount::get);
+      metrics.register(prefix + ".pending", pending::get);
+      metrics.register(prefix + ".deadLettered", deadLettered::get);
+      metrics.register(prefix + ".syncs", syncs::get);
+    }
+  }
+
+  /**
+   * Start draining once the server has started (by which point the
+   * controllers have all registered their sinks), and stop when it stops.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    if (!isEnabled()) {
+      return;
+    }
+    server.events(event -> {
+      event.serverStarted(this::start);
+      event.serverStopped(this::close);
+    });
+  }
+}
@@ -0,0 +1,212 @@
+package umm3601;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+
+import io.javalin.http.InternalServerErrorResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Collects single-document inserts from concurrent requests into batches,
+ * so that a burst of `POST`s becomes a few `insertMany`s instead of one
+ * `insertOne` each.
+ *
+ * Each `write()` puts its document on a (bounded, lock-free) queue and
+ * waits. A flusher thread takes whatever is queued every `interval` (or as
+ * soon as `maxBatchSize` documents are waiting) and inserts it with
+ * `insertMany`; each waiting request returns once its own document is
+ * acknowledged, or fails if its document couldn't be inserted. Requests
+ * pay up to `interval` of extra latency for much higher sustained insert
+ * throughput. When the queue is full, writes are turned away with a 503.
+ *
+ * An interval of zero (or a batch size of one) turns batching off: each
+ * `write()` just inserts its own document.
+ *
+ * @param <T> the type of document written
+ */
+public final class WriteBatcher<T> {
+
+  /**
+   * How many writes can wait to be flushed, unless told otherwise.
+   */
+  public static final int DEFAULT_CAPACITY = 10_000;
+
+  private final Consumer<List<T>> insertMany;
+  private final long intervalNanos;
+  private final int maxBatchSize;
+  private final int capacity;
+
+  private final Queue<Pending<T>> queue = new ConcurrentLinkedQueue<>();
+  // How many writes are in (or on their way into) `queue`; this is what bounds it
+  private final AtomicInteger queued = new AtomicInteger();
+  private final Thread flusher;
+
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * A write waiting to be flushed.
+   */
+  private record Pending<T>(T document, CompletableFuture<Void> acknowledged) {
+  }
+
+  /**
+   * @param insertMany inserts a batch of documents
+   * @param interval how often the flusher inserts whatever is queued
+   * @param maxBatchSize the most documents to insert at once
+   * @param capacity how many writes can wait to be flushed
+   */
+  public WriteBatcher(Consumer<List<T>> insertMany, Duration interval, int maxBatchSize, int capacity) {
+    this.insertMany = insertMany;
+    this.intervalNanos = interval.toNanos();
+    this.maxBatchSize = maxBatchSize;
+    this.capacity = capacity;
+    this.flusher = isBatching()
+      ? Thread.ofPlatform().daemon().name("write-batcher").start(this::flushForever)
+      : null;
+  }
+
+  /**
+   * @return `true` if writes are actually batched
+   */
+  public boolean isBatching() {
+    return intervalNanos > 0 && maxBatchSize > 1;
+  }
+
+  /**
+   * Insert `document` as part of a batch, and wait until it's acknowledged.
+   *
+   * @param document the document to insert
+   * @param maxWait the longest to wait for the document's batch; the
+   *   document may still be inserted after that
+   * @throws ServiceUnavailableResponse if too many writes are already waiting
+   * @throws io.javalin.http.GatewayTimeoutResponse if the batch isn't
+   *   acknowledged within `maxWait`
+   */
+  public void write(T document, Duration maxWait) {
+    if (!isBatching()) {
+      insertMany.accept(List.of(document));
+      batches.incrementAndGet();
+      written.incrementAndGet();
+      return;
+    }
+
+    int waiting;
+    do {
+      waiting = queued.get();
+      if (waiting >= capacity) {
+        rejected.incrementAndGet();
+        throw new ServiceUnavailableResponse("Too many writes are waiting to be saved; try again later");
+      }
+    } while (!queued.compareAndSet(waiting, waiting + 1));
+
+    Pending<T> pending = new Pending<>(document, new CompletableFuture<>());
+    queue.add(pending);
+    if (waiting + 1 >= maxBatchSize) {
+      // There's a full batch; don't make it wait for the rest of the interval
+      LockSupport.unpark(flusher);
+    }
+    Deadline.await(pending.acknowledged(), maxWait);
+  }
+
+  private void flushForever() {
+    while (true) {
+      if (queued.get() < maxBatchSize) {
+        LockSupport.parkNanos(this, intervalNanos);
+      }
+      flush();
+    }
+  }
+
+  // Insert (up to) one batch of the queued documents
+  void flush() {
+    List<Pending<T>> batch = new ArrayList<>();
+    Pending<T> pending;
+    while (batch.size() < maxBatchSize && (pending = queue.poll()) != null) {
+      batch.add(pending);
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    queued.addAndGet(-batch.size());
+    batches.incrementAndGet();
+
+    try {
+      insertMany.accept(batch.stream().map(Pending::document).toList());
+      written.addAndGet(batch.size());
+      batch.forEach(write -> write.acknowledged().complete(null));
+    } catch (MongoBulkWriteException e) {
+      // Unless the insert is ordered, everything but the documents with
+      // errors was inserted, so only their writes fail.
+      boolean[] failed = new boolean[batch.size()];
+      for (BulkWriteError error : e.getWriteErrors()) {
+        failed[error.getIndex()] = true;
+        batch.get(error.getIndex()).acknowledged()
+          .completeExceptionally(new InternalServerErrorResponse("Couldn't save the document: " + error.getMessage()));
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        if (!failed[i]) {
+          written.incrementAndGet();
+          batch.get(i).acknowledged().complete(null);
+        }
+      }
+    } catch (RuntimeException | Error e) {
+      batch.forEach(write -> write.acknowledged().completeExceptionally(e));
+    }
+  }
+
+  /**
+   * @return how many documents have been written
+   */
+  public long written() {
+    return written.get();
+  }
+
+  /**
+   * @return how many batches (i.e., database inserts) those documents took
+   */
+  public long batches() {
+    return batches.get();
+  }
+
+  /**
+   * @return how many writes are waiting to be flushed
+   */
+  public int queued() {
+    return queued.get();
+  }
+
+  /**
+   * @return how many writes were turned away because the queue was full
+   */
+  public long rejected() {
+    return rejected.get();
+  }
+
+  /**
+   * Report the number of documents written, the batches they took, writes
+   * turned away, and writes waiting, as metrics named `<prefix>.written`,
+   * `<prefix>.batches`, `<prefix>.rejected`, and `<prefix>.queued`.
+   *
+   * @param metrics where to report them
+   * @param prefix what to start each metric's name with
+   */
+  public void addMetrics(Metrics metrics, String prefix) {
+    metrics.register(prefix + ".written", written::get);
+    metrics.register(prefix + ".batches", batches::get);
+    metrics.register(prefix + ".rejected", rejected::get);
+    metrics.register(prefix + ".queued", queued::get);
+  }
+}
@@ -0,0 +1,131 @@
+package umm3601.owners;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.mongodb.MongoExecutionTimeoutException;
+
+import io.javalin.http.GatewayTimeoutResponse;
+import io.javalin.http.InternalServerErrorResponse;
+
+/**
+ * Runs a handful of queries at the same time, each on its own virtual
+ * thread, under one shared deadline.
+ *
+ * This follows the shape of Java 21's `StructuredTaskScope` (which is still
+ * a preview feature, so we can't use it without `--enable-preview`): fork
+ * the subtasks, `join()` them, then read their results. As with a
+ * structured task scope:
+ *
+ *   - no subtask outlives the `try`-with-resources block that opened the
+ *     `FanOut`; closing it cancels (interrupts) anything still running,
+ *   - the first subtask to fail fails the whole thing and cancels its
+ *     siblings, without waiting for them to finish, and
+ *   - if the deadline passes before every subtask is done, the rest are
+ *     cancelled and the request fails with a 504 Gateway Timeout.
+ *
+ * Subtasks should also pass `remaining()` on to MongoDB as the query's
+ * `maxTime`, so the database gives up on them at the deadline too.
+ */
+final class FanOut implements AutoCloseable {
+
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final CompletionService<Object> completions = new ExecutorCompletionService<>(executor);
+  private final List<Future<Object>> forked = new ArrayList<>();
+  private final Duration timeout;
+  private final long deadline;
+
+  /**
+   * @param timeout how long all of the subtasks together have to finish
+   */
+  FanOut(Duration timeout) {
+    this.timeout = timeout;
+    this.deadline = System.nanoTime() + timeout.toNanos();
+  }
+
+  /**
+   * @return how much time is left before the deadline (never negative)
+   */
+  Duration remaining() {
+    return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+  }
+
+  /**
+   * Start running `task` on its own virtual thread.
+   *
+   * @param <T> the type of result the task produces
+   * @param task the task to run
+   * @return a supplier of the task's result, which may only be used after `join()`
+   */
+  <T> Supplier<T> fork(Callable<T> task) {
+    Future<Object> future = completions.submit(task::call);
+    forked.add(future);
+    return () -> {
+      @SuppressWarnings("unchecked")
+      T result = (T) future.resultNow();
+      return result;
+    };
+  }
+
+  /**
+   * Wait for every forked task to finish, failing as soon as any one of
+   * them fails or the deadline passes.
+   *
+   * @throws GatewayTimeoutResponse if the deadline passes first
+   */
+  void join() {
+    try {
+      for (int done = 0; done < forked.size(); done++) {
+        // Tasks come back in the order they finish, so a failure is seen right away
+        Future<Object> next = completions.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (next == null) {
+          throw timedOut();
+        }
+        if (next.state() == Future.State.FAILED) {
+          throw failure(next.exceptionNow());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InternalServerErrorResponse("Interrupted while waiting for queries to finish");
+    }
+  }
+
+  private RuntimeException failure(Throwable cause) {
+    if (cause instanceof MongoExecutionTimeoutException) {
+      // MongoDB gave up on the query at our deadline
+      return timedOut();
+    }
+    if (cause instanceof RuntimeException runtimeException) {
+      return runtimeException;
+    }
+    if (cause instanceof Error error) {
+      throw error;
+    }
+    return new IllegalStateException(cause);
+  }
+
+  private GatewayTimeoutResponse timedOut() {
+    return new GatewayTimeoutResponse("The queries didn't all finish within " + timeout.toMillis() + "ms");
+  }
+
+  /**
+   * Cancel any task that's still running, and wait for them all to stop.
+   */
+  @Override
+  public void close() {
+    for (Future<Object> future : forked) {
+      future.cancel(true);
+    }
+    executor.close();
+  }
+}
@@ -0,0 +1,19 @@
+package umm3601.owners;
+
+import java.util.List;
+
+import umm3601.todos.Todo;
+import umm3601.todos.TodoByStatus;
+import umm3601.user.User;
+
+/**
+ * Everything on an owner's page: the users with the owner's name, the
+ * owner's todos, and how many of those todos are (and aren't) complete.
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class OwnerPage {
+  public String owner;
+  public List<User> users;
+  public List<Todo> todos;
+  public List<TodoByStatus> todosByStatus;
+}
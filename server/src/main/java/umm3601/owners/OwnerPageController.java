@@ -0,0 +1,113 @@
+package umm3601.owners;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.AdmissionControl;
+import umm3601.AdmissionControl.Priority;
+import umm3601.Controller;
+import umm3601.Deadline;
+import umm3601.Deadlines;
+import umm3601.todos.Todo;
+import umm3601.todos.TodoByStatus;
+import umm3601.todos.TodoController;
+import umm3601.user.User;
+import umm3601.user.UserController;
+
+/**
+ * Controller for the "owner page", which combines user and todo data
+ * about a single owner.
+ *
+ * Clients used to build this page from three separate requests
+ * (`/api/users`, `/api/todos?owner=...`, and `/api/TodoByStatus`), one after
+ * another. This runs the same three queries at the same time, each on its
+ * own virtual thread, so the page takes as long as the slowest query
+ * rather than as long as all of them put together.
+ */
+public class OwnerPageController implements Controller {
+
+  private static final String API_OWNER_PAGE = "/api/owners/{owner}";
+
+  private final UserController userController;
+  private final TodoController todoController;
+  private final Duration deadline;
+  private final AdmissionControl admission;
+  private final Deadlines deadlines;
+
+  /**
+   * Construct a controller for owner pages.
+   *
+   * @param userController the controller whose queries find the owner's users
+   * @param todoController the controller whose queries find the owner's todos
+   * @param deadline how long all of the queries for a page have to finish
+   */
+  public OwnerPageController(UserController userController, TodoController todoController, Duration deadline) {
+    this(userController, todoController, deadline, AdmissionControl.unlimited(), Deadlines.standard());
+  }
+
+  /**
+   * Construct a controller for owner pages whose route is limited by
+   * `admission`, and whose requests get their deadlines from `deadlines`.
+   *
+   * @param userController the controller whose queries find the owner's users
+   * @param todoController the controller whose queries find the owner's todos
+   * @param deadline how long all of the queries for a page have to finish
+   *   (unless the client asks for a different budget)
+   * @param admission the limits on concurrent requests
+   * @param deadlines the limits on how long a client can ask for
+   */
+  public OwnerPageController(UserController userController, TodoController todoController, Duration deadline,
+      AdmissionControl admission, Deadlines deadlines) {
+    this.userController = userController;
+    this.todoController = todoController;
+    this.deadline = deadline;
+    this.admission = admission;
+    this.deadlines = deadlines;
+  }
+
+  /**
+   * Set the JSON body of the response to be the `OwnerPage` for the owner
+   * named by the `owner` path parameter.
+   *
+   * If any of the queries fails, the others are cancelled and the request
+   * fails with that query's error. If they don't all finish before the
+   * deadline, the request fails with a 504 Gateway Timeout.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getOwnerPage(Context ctx) {
+    String owner = ctx.pathParam("owner");
+
+    try (FanOut fanOut = new FanOut(Deadline.of(ctx, deadline).remaining())) {
+      Supplier<List<User>> users = fanOut.fork(() -> userController.findUsersNamed(owner, fanOut.remaining()));
+      Supplier<List<Todo>> todos = fanOut.fork(() -> todoController.findTodosOwnedBy(owner, fanOut.remaining()));
+      Supplier<List<TodoByStatus>> todosByStatus =
+        fanOut.fork(() -> todoController.countTodosByStatus(owner, fanOut.remaining()));
+
+      fanOut.join();
+
+      OwnerPage page = new OwnerPage();
+      page.owner = owner;
+      page.users = users.get();
+      page.todos = todos.get();
+      page.todosByStatus = todosByStatus.get();
+      ctx.json(page);
+      ctx.status(HttpStatus.OK);
+    }
+  }
+
+  /**
+   * Setup routes for the owner page.
+   *
+   * @param server The Javalin server instance
+   */
+  @Override
+  public void addRoutes(Javalin server) {
+    // Get everything about one owner, in one request
+    server.get(API_OWNER_PAGE, deadlines.within(deadline, admission.limit(Priority.NORMAL, this::getOwnerPage)));
+  }
+}
@@ -1,33 +1,77 @@
 package umm3601.todos;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.regex;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.GoneResponse;
+import io.javalin.http.Handler;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.AdaptiveLimiter;
+import umm3601.AdmissionControl;
+import umm3601.AdmissionControl.Priority;
+import umm3601.BatchLoader;
+import umm3601.BsonJsonTranscoder;
+import umm3601.ChangeFeed;
 import umm3601.Controller;
+import umm3601.Deadline;
+import umm3601.Deadlines;
+import umm3601.GroupingOptions;
+import umm3601.JsonResponseCache;
+import umm3601.MultiGet;
+import umm3601.RequestBodyReader;
+import umm3601.Services;
+import umm3601.ValidationRules;
+import umm3601.WriteAheadLog;
+import umm3601.WriteBatcher;
 
 /**
  * Controller that manages requests for info about users.
@@ -35,16 +79,110 @@ import umm3601.Controller;
 public class TodoController implements Controller {
 
   private static final String API_TODOS = "/api/todos";
-  private static final String API_TODOS_BY_OID = "/api/todos/{$oid}";
+  private static final String API_TODOS_BY_OID = "/api/todos/{id}";
   static final String OWNER_KEY = "owner";
   static final String STATUS_KEY = "status";
   static final String BODY_KEY = "body";
   static final String CATEGORY_KEY = "category";
   static final String LIMIT_KEY = "limit";
   static final String CONTAINS_KEY = "contains";
+  static final String GROUP_KEY = "group";
+  static final String SINCE_KEY = "since";
+  // The field each group's members (todo IDs and owners) are collected into;
+  // this matches the `owners` field of `TodoByOwner`, `TodoByStatus`, and `TodoByCategory`.
+  static final String MEMBERS_FIELD = "owners";
+  // What makes a new todo "legal"; see `addNewOwner`.
+  static final ValidationRules<Todo> NEW_TODO_RULES = ValidationRules.<Todo>builder()
+    .field(OWNER_KEY, todo -> todo.owner, ValidationRules::notBlank,
+      "Owner must have a non-empty name")
+    .field(BODY_KEY, todo -> todo.body, ValidationRules::notBlank,
+      "The length of the owner's body must be greater than zero")
+    .field(CATEGORY_KEY, todo -> todo.category, ValidationRules::notBlank,
+      "The length of the owner's category must be greater than zero")
+    .build();
+
+  // What makes an update to one todo "legal"; the same as `NEW_TODO_RULES`,
+  // except any field can be left out. See `updateTodo`.
+  static final ValidationRules<TodoUpdate> UPDATE_RULES = ValidationRules.<TodoUpdate>builder()
+    .field(OWNER_KEY, update -> update.owner, ValidationRules.optional(ValidationRules::notBlank),
+      "Owner must have a non-empty name")
+    .field(BODY_KEY, update -> update.body, ValidationRules.optional(ValidationRules::notBlank),
+      "The length of the owner's body must be greater than zero")
+    .field(CATEGORY_KEY, update -> update.category, ValidationRules.optional(ValidationRules::notBlank),
+      "The length of the owner's category must be greater than zero")
+    .build();
+
+  // What makes a bulk update "legal"; see `updateTodos`.
+  static final ValidationRules<TodoUpdate> BULK_UPDATE_RULES = ValidationRules.<TodoUpdate>builder()
+    .field(OWNER_KEY, update -> update.owner, Objects::isNull,
+      "The owner can't be changed in bulk")
+    .field(BODY_KEY, update -> update.body, Objects::isNull,
+      "The body can't be changed in bulk")
+    .field(CATEGORY_KEY, update -> update.category, ValidationRules.optional(ValidationRules::notBlank),
+      "The new category must not be empty")
+    .build();
+
+  // The most todos a bulk update or delete changes with one command
+  static final int BULK_CHUNK_SIZE = 500;
+  // The most new todos (and, separately, journal entries) to read for one response from `getChanges`
+  static final int MAX_CHANGES = 1000;
+  // How far behind the present a `getChanges` token stays, so that todos
+  // inserted with IDs the driver made a moment ago, but that aren't in the
+  // database yet, aren't skipped
+  static final Duration CHANGES_SETTLE_TIME = Duration.ofSeconds(5);
+  // Where changes `getChanges` can't find by todo ID are recorded (see
+  // `journaled`), and the fields of those journal entries
+  static final String JOURNAL = "todoChanges";
+  private static final String TODO_ID_KEY = "todoId";
+  private static final String TYPE_KEY = "type";
+  private static final String CHANGED_AT_KEY = "changedAt";
+  private static final int INDEX_OPTIONS_CONFLICT = 85;
+
+  /**
+   * What's changed since a `getChanges` token.
+   *
+   * @param inserted the todos added since then, as they are now
+   * @param updated the todos changed since then (that weren't new), as they are now
+   * @param deleted the IDs of the todos deleted since then, oldest first
+   * @param token the token to ask for the next changes with
+   * @param more whether there are more changes already waiting (so ask again right away)
+   */
+  public record Changes(List<Todo> inserted, List<Todo> updated, List<String> deleted, String token, boolean more) {
+  }
+
+  // The response cache namespace for everything built from the `todos` collection
+  static final String CACHE_NAMESPACE = "todos";
+  // The fields of a `Todo`; raw documents are projected down to just these
+  // so the passthrough JSON has the same shape as the POJO's JSON.
+  private static final Bson TODO_FIELDS =
+    Projections.include("_id", OWNER_KEY, STATUS_KEY, BODY_KEY, CATEGORY_KEY);
+  // The fields of a deleted todo the change feed needs
+  private static final Bson DELETE_FIELDS = Projections.include("_id", OWNER_KEY, CATEGORY_KEY);
   private Todo[] allTodos;
 
   private final JacksonMongoCollection<Todo> todoCollection;
+  // The same collection, but read as undecoded BSON for the passthrough read path
+  private final MongoCollection<RawBsonDocument> rawTodoCollection;
+  private final JsonResponseCache responseCache;
+  private final boolean rawBsonPassthrough;
+  private final RequestBodyReader bodyReader;
+  private final AdmissionControl admission;
+  private final AdaptiveLimiter mongoLimiter;
+  private final Deadlines deadlines;
+  // Collects concurrent by-id lookups into batches of `$in` queries
+  private final BatchLoader<ObjectId, Todo> todosById;
+  // Collects new todos into batches of `insertMany`s (if that's turned on)
+  private final WriteBatcher<Todo> todoWrites;
+  // Where new todos go first when they're accepted into the local log (if that's turned on)
+  private final WriteAheadLog wal;
+  // The inserts of todos with IDs made earlier, updates, and deletes, for
+  // clients syncing changes (see `getChanges`)
+  private final MongoCollection<Document> journal;
+  private final Duration tombstoneRetention;
+  // The first `_id` of each batch of journal entries that isn't written yet
+  private final ConcurrentSkipListSet<ObjectId> unjournaled = new ConcurrentSkipListSet<>();
+  // Pushes inserts, updates, and deletes to subscribed clients
+  private final ChangeFeed changeFeed;
 
   /**
    * Construct a controller for users.
@@ -52,11 +190,84 @@ public class TodoController implements Controller {
    * @param database the database containing user data
    */
   public TodoController(MongoDatabase database) {
-    todoCollection = JacksonMongoCollection.builder().build(
+    this(database, Services.defaults());
+  }
+
+  /**
+   * Construct a controller for todos that uses the given shared services.
+   *
+   * @param database the database containing todo data
+   * @param services the server-wide services (shared mapper, response cache, etc.)
+   */
+  public TodoController(MongoDatabase database, Services services) {
+    todoCollection = JacksonMongoCollection.builder()
+      .withObjectMapper(services.mongoJackMapper())
+      .build(
         database,
         "todos",
         Todo.class,
         UuidRepresentation.STANDARD);
+    rawTodoCollection = database.getCollection("todos", RawBsonDocument.class);
+    journal = database.getCollection(JOURNAL);
+    tombstoneRetention = services.tombstoneRetention();
+    changeFeed = services.changeFeed();
+    responseCache = services.responseCache();
+    rawBsonPassthrough = services.rawBsonPassthrough();
+    bodyReader = services.bodyReader();
+    admission = services.admission();
+    mongoLimiter = services.mongoLimiter();
+    deadlines = services.deadlines();
+    todosById = new BatchLoader<>(this::findTodosById, services.batchWindow(), services.maxBatchSize());
+    todosById.addMetrics(services.metrics(), "batch.todos");
+    todoWrites = new WriteBatcher<>(this::insertTodos,
+      services.writeBatchInterval(), services.maxWriteBatchSize(), WriteBatcher.DEFAULT_CAPACITY);
+    todoWrites.addMetrics(services.metrics(), "batch.todoWrites");
+    wal = services.writeAheadLog();
+    wal.register("todos", Todo.class, todos -> {
+      try {
+        insertTodos(todos);
+      } finally {
+        responseCache.invalidate(CACHE_NAMESPACE);
+      }
+    });
+  }
+
+  // Insert a batch of new todos (unordered, so one bad todo doesn't stop the
+  // rest). These todos got their IDs when they were accepted, which may have
+  // been a while ago, so they're journaled too.
+  void insertTodos(List<Todo> todos) {
+    journaled("insert", inserted -> {
+      try {
+        mongoLimiter.run(() -> todoCollection.insertMany(todos, new InsertManyOptions().ordered(false)));
+      } catch (MongoBulkWriteException e) {
+        // The todos that weren't rejected were still inserted, so announce those
+        Set<Integer> failed = e.getWriteErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+        for (int i = 0; i < todos.size(); i++) {
+          if (!failed.contains(i)) {
+            inserted.add(new ObjectId(todos.get(i)._id));
+            publish("insert", todos.get(i));
+          }
+        }
+        throw e;
+      }
+      for (Todo todo : todos) {
+        inserted.add(new ObjectId(todo._id));
+        publish("insert", todo);
+      }
+      return todos.size();
+    });
+  }
+
+  // Tell the clients following the change feed about a change to `todo`
+  private void publish(String type, Todo todo) {
+    changeFeed.publish(new ChangeFeed.Change("todos", type, todo._id, todo),
+      ChangeFeed.attributes(OWNER_KEY, todo.owner, CATEGORY_KEY, todo.category));
+  }
+
+  // Tell them `todo` (read with just `DELETE_FIELDS`) was deleted
+  private void publishDeleted(Todo todo) {
+    Map<String, String> attributes = ChangeFeed.attributes(OWNER_KEY, todo.owner, CATEGORY_KEY, todo.category);
+    changeFeed.publish(ChangeFeed.deleted("todos", todo._id, attributes), attributes);
   }
 
   /**
@@ -70,7 +281,8 @@ public class TodoController implements Controller {
     Todo todo;
 
     try {
-      todo = todoCollection.find(eq("_id", new ObjectId(id))).first();
+      ObjectId oid = new ObjectId(id);
+      todo = todosById.load(oid, Deadline.of(ctx).remaining());
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
@@ -86,9 +298,16 @@ public class TodoController implements Controller {
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
    *
+   * If there's an `ids` query parameter, this looks up those todos
+   * instead (see `getTodosByIds`).
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
+    if (ctx.queryParam(MultiGet.IDS_KEY) != null) {
+      getTodosByIds(ctx);
+      return;
+    }
     Bson combinedFilter = constructFilter(ctx);
     Bson sortingOrder = constructSortingOrder(ctx);
 
@@ -96,20 +315,253 @@ public class TodoController implements Controller {
     // database system. So MongoDB is going to find the users with the specified
     // properties, return those sorted in the specified manner, and put the
     // results into an initially empty ArrayList.
-    ArrayList<Todo> matchingUsers = todoCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .limit(getLimit(ctx))
-      .into(new ArrayList<>());
-
     // Set the JSON body of the response to be the list of users returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
+    // The response cache either sends an already encoded copy of this response, or
+    // runs the query and hands the result to `ctx.json()` (which, according to the
+    // Javalin documentation (https://javalin.io/documentation#context), calls
+    // result(jsonString), and also sets content type to json).
+    if (rawBsonPassthrough) {
+      // Nothing here changes the todos, so skip the POJOs entirely and
+      // stream the raw BSON from the driver straight into JSON bytes.
+      responseCache.respondJson(ctx, CACHE_NAMESPACE, () -> {
+        int limit = getLimit(ctx);
+        long maxTime = Deadline.of(ctx).maxTimeMillis();
+        return mongoLimiter.call(() -> BsonJsonTranscoder.toJsonArray(rawTodoCollection
+          .find(combinedFilter)
+          .projection(TODO_FIELDS)
+          .sort(sortingOrder)
+          .limit(limit)
+          .maxTime(maxTime, TimeUnit.MILLISECONDS)));
+      });
+    } else {
+      responseCache.respond(ctx, CACHE_NAMESPACE, () -> {
+        int limit = getLimit(ctx);
+        long maxTime = Deadline.of(ctx).maxTimeMillis();
+        return mongoLimiter.call(() -> todoCollection
+          .find(combinedFilter)
+          .sort(sortingOrder)
+          .limit(limit)
+          .maxTime(maxTime, TimeUnit.MILLISECONDS)
+          .into(new ArrayList<>()));
+      });
+    }
 
     // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
   }
+
+  /**
+   * Set the JSON body of the response to the todos whose IDs are listed
+   * (separated by commas) in the `ids` query parameter, e.g.,
+   * `/api/todos?ids=a,b,c`.
+   *
+   * The IDs are all checked first, then looked up with one `$in` query. The
+   * response has an entry for each ID, in the order they were given, which
+   * either holds the todo or says it wasn't found.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodosByIds(Context ctx) {
+    List<ObjectId> ids = MultiGet.parseIds(ctx.queryParam(MultiGet.IDS_KEY));
+    Map<ObjectId, Todo> found = findTodosById(ids.stream().distinct().toList(), Deadline.of(ctx).remaining());
+    ctx.json(MultiGet.inOrder(ids, found));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Find the todos belonging to `owner`, sorted by `_id`.
+   *
+   * This and `countTodosByStatus` are for composite endpoints (like the
+   * owner page) that run several queries at once and need each of them to
+   * finish within a shared deadline.
+   *
+   * @param owner the owner of the todos
+   * @param maxTime how long MongoDB may spend on the query
+   * @return the owner's todos
+   */
+  public List<Todo> findTodosOwnedBy(String owner, Duration maxTime) {
+    return mongoLimiter.call(() -> todoCollection.find(eq(OWNER_KEY, owner))
+      .sort(Sorts.ascending("_id"))
+      .maxTime(maxTimeMillis(maxTime), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()));
+  }
+
+  /**
+   * Find the todos with the given IDs, in one `$in` query.
+   *
+   * @param ids the IDs of the todos
+   * @param maxTime how long MongoDB may spend on the query
+   * @return the todos that were found, by ID (IDs with no todo have no entry)
+   */
+  public Map<ObjectId, Todo> findTodosById(List<ObjectId> ids, Duration maxTime) {
+    return mongoLimiter.call(() -> todoCollection.find(in("_id", ids))
+      .maxTime(maxTimeMillis(maxTime), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()))
+      .stream()
+      .collect(Collectors.toMap(todo -> new ObjectId(todo._id), Function.identity()));
+  }
+
+  /**
+   * Count `owner`'s complete and incomplete todos.
+   *
+   * @param owner the owner of the todos
+   * @param maxTime how long MongoDB may spend on the query
+   * @return a (members free) group for each status the owner has todos with, sorted by status
+   */
+  public List<TodoByStatus> countTodosByStatus(String owner, Duration maxTime) {
+    List<Bson> pipeline = List.of(
+      Aggregates.match(eq(OWNER_KEY, owner)),
+      new Document("$group", new Document("_id", "$" + STATUS_KEY).append("count", new Document("$sum", 1))),
+      new Document("$sort", Sorts.ascending("_id")));
+    return mongoLimiter.call(() -> todoCollection.aggregate(pipeline, TodoByStatus.class)
+      .maxTime(maxTimeMillis(maxTime), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()));
+  }
+
+  // A `maxTime` of 0 means "no limit" to MongoDB, so never ask for less than 1ms
+  private static long maxTimeMillis(Duration maxTime) {
+    return Math.max(1, maxTime.toMillis());
+  }
+
+  /**
+   * Set the JSON body of the response to what's changed in the todos since
+   * the token in the `since` query parameter (see `Changes`), so a client
+   * can keep its copy of the todos current without fetching them all again.
+   *
+   * A todo's `_id` starts with the time it was made, so the todos added
+   * since a token (which is itself an Object ID) are mostly just the ones
+   * with larger IDs. Everything else is found the same way, in the journal
+   * (see `journaled`): todos that got their IDs well before they were
+   * inserted (by the write-ahead log or write batching), updates, and
+   * deletes. Journal entries are kept for `tombstoneRetention`, after which
+   * a token that old gets a 410 Gone and the client has to start over.
+   * Without a `since`, every todo is "inserted", which gives a new client
+   * its first copy and first token.
+   *
+   * The same todo can be sent twice, so clients should apply changes by ID.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getChanges(Context ctx) {
+    String since = ctx.queryParam(SINCE_KEY);
+    ObjectId sinceId = null;
+    if (since != null) {
+      if (!ObjectId.isValid(since)) {
+        throw new BadRequestResponse("The `since` token wasn't one this server handed out.");
+      }
+      sinceId = new ObjectId(since);
+      if (sinceId.getDate().toInstant().isBefore(Instant.now().minus(tombstoneRetention))) {
+        throw new GoneResponse("The `since` token is too old to sync from; get all the todos again");
+      }
+    }
+    // Worked out before reading anything, so whatever comes after it is
+    // there for the next request to find
+    ObjectId settled = settledId();
+
+    Bson after = sinceId == null ? new Document() : gt("_id", sinceId);
+    Deadline deadline = Deadline.of(ctx);
+    long maxTime = deadline.maxTimeMillis();
+    List<Todo> inserted = mongoLimiter.call(() -> todoCollection.find(after)
+      .sort(Sorts.ascending("_id"))
+      .limit(MAX_CHANGES)
+      .maxTime(maxTime, TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()));
+    List<Document> entries = sinceId == null ? new ArrayList<>() : mongoLimiter.call(() -> journal.find(after)
+      .sort(Sorts.ascending("_id"))
+      .limit(MAX_CHANGES)
+      .maxTime(maxTime, TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()));
+
+    // If either list was cut off, only go as far as the earlier cut, so
+    // nothing from the other list is skipped
+    ObjectId end = null;
+    if (inserted.size() == MAX_CHANGES) {
+      end = new ObjectId(inserted.get(inserted.size() - 1)._id);
+    }
+    if (entries.size() == MAX_CHANGES) {
+      ObjectId lastEntry = entries.get(entries.size() - 1).getObjectId("_id");
+      end = end == null || lastEntry.compareTo(end) < 0 ? lastEntry : end;
+    }
+    boolean more = end != null;
+    if (more) {
+      ObjectId cut = end;
+      inserted.removeIf(todo -> new ObjectId(todo._id).compareTo(cut) > 0);
+      entries.removeIf(entry -> entry.getObjectId("_id").compareTo(cut) > 0);
+    } else {
+      end = latest(sinceId, inserted.isEmpty() ? null : new ObjectId(inserted.get(inserted.size() - 1)._id));
+      end = latest(end, entries.isEmpty() ? null : entries.get(entries.size() - 1).getObjectId("_id"));
+    }
+
+    // Never move the token past what might still be on its way into the database
+    if (end == null || end.compareTo(settled) > 0) {
+      end = latest(sinceId, settled);
+      more = false;
+    }
+
+    ctx.json(changes(inserted, entries, end, more, deadline));
+    ctx.status(HttpStatus.OK);
+  }
+
+  // The latest token `getChanges` can hand out right now: before any todo
+  // the driver may have just made an ID for, and before any journal entry
+  // that isn't written yet
+  private ObjectId settledId() {
+    ObjectId settled = objectIdAt(Instant.now().minus(CHANGES_SETTLE_TIME));
+    ObjectId oldest = unjournaled.stream().findFirst().orElse(null);
+    if (oldest != null && oldest.compareTo(settled) < 0) {
+      settled = objectIdAt(oldest.getDate().toInstant());
+    }
+    return settled;
+  }
+
+  // Put what `getChanges` found together: a todo that was deleted is only
+  // listed as deleted, and the rest of the todos in the journal are looked
+  // up as they are now (unless they're already in `inserted`)
+  private Changes changes(List<Todo> inserted, List<Document> entries, ObjectId end, boolean more, Deadline deadline) {
+    Set<ObjectId> deleted = new LinkedHashSet<>();
+    // Whether each other todo in the journal was inserted (or only updated)
+    Map<ObjectId, Boolean> changed = new LinkedHashMap<>();
+    for (Document entry : entries) {
+      ObjectId id = entry.getObjectId(TODO_ID_KEY);
+      if (entry.getString(TYPE_KEY).equals("delete")) {
+        deleted.add(id);
+      } else {
+        changed.merge(id, entry.getString(TYPE_KEY).equals("insert"), Boolean::logicalOr);
+      }
+    }
+    inserted.removeIf(todo -> deleted.contains(new ObjectId(todo._id)));
+    changed.keySet().removeAll(deleted);
+    for (Todo todo : inserted) {
+      changed.remove(new ObjectId(todo._id));
+    }
+
+    List<Todo> updated = new ArrayList<>();
+    if (!changed.isEmpty()) {
+      Map<ObjectId, Todo> found = findTodosById(new ArrayList<>(changed.keySet()), deadline.remaining());
+      changed.forEach((id, wasInserted) -> {
+        Todo todo = found.get(id);
+        if (todo != null) {
+          (wasInserted ? inserted : updated).add(todo);
+        }
+      });
+    }
+    List<String> deletedIds = deleted.stream().map(ObjectId::toHexString).toList();
+    return new Changes(inserted, updated, deletedIds, end.toHexString(), more);
+  }
+
+  // The later of two Object IDs, either of which may be `null`
+  private static ObjectId latest(ObjectId a, ObjectId b) {
+    if (a == null) {
+      return b;
+    }
+    return b == null || a.compareTo(b) >= 0 ? a : b;
+  }
+
+  // The smallest Object ID made at `time`
+  static ObjectId objectIdAt(Instant time) {
+    return new ObjectId(String.format("%08x%016x", time.getEpochSecond(), 0));
+  }
+
   /**
    * Construct a Bson filter document to use in the `find` method based on the
    * query parameters from the context.
@@ -177,7 +629,8 @@ public class TodoController implements Controller {
         return todoLimit;
     }
     else{
-      return (int)todoCollection.countDocuments();
+      CountOptions options = new CountOptions().maxTime(Deadline.of(ctx).maxTimeMillis(), TimeUnit.MILLISECONDS);
+      return (int) (long) mongoLimiter.call(() -> todoCollection.countDocuments(new Document(), options));
     }
   }
   private Bson constructSortingOrder(Context ctx) {
@@ -191,160 +644,195 @@ public class TodoController implements Controller {
   }
 
   /**
-   * Set the JSON body of the response to be a list of all the user names and IDs
-   * returned from the database, grouped by company
+   * Set the JSON body of the response to be a list of todo IDs and owners,
+   * grouped by owner.
    *
-   * This "returns" a list of user names and IDs, grouped by company in the JSON
-   * body of the response. The user names and IDs are stored in `UserIdName` objects,
-   * and the company name, the number of users in that company, and the list of user
-   * names and IDs are stored in `UserByCompany` objects.
+   * Each group (a `TodoByOwner`) has the owner's name as its `_id`, the
+   * number of todos that owner has, and (unless `countsOnly=true` was
+   * requested) a list of the todos' IDs and owners. See `GroupingOptions`
+   * for the `countsOnly`, `membersLimit`, and `membersSkip` parameters, and
+   * `groupTodosBy` for `group`, `sortBy`, and `sortOrder`.
    *
    * @param ctx a Javalin HTTP context that provides the query parameters
-   *   used to sort the results. We support either sorting by company name
-   *   (in either `asc` or `desc` order) or by the number of users in the
-   *   company (`count`, also in either `asc` or `desc` order).
+   *   used to sort and trim the results
    */
+  public void getTodosGroupedByOwner(Context ctx) {
+    groupTodosBy(ctx, OWNER_KEY, TodoByOwner.class);
+  }
 
-  public void getTodosGroupedByOwner(Context ctx)
-  {
-    // We'll support sorting the results either by company name (in either `asc` or `desc` order)
-    // or by the number of users in the company (`count`, also in either `asc` or `desc` order).
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "$oid");
-    if (sortBy.equals("status")) {
-      sortBy = "$oid";
-    }
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+  /**
+   * Set the JSON body of the response to be a list of todo IDs and owners,
+   * grouped by status (`true` for complete, `false` for incomplete).
+   *
+   * @param ctx a Javalin HTTP context that provides the query parameters
+   *   used to sort and trim the results
+   */
+  public void getTodosGroupedByStatus(Context ctx) {
+    groupTodosBy(ctx, STATUS_KEY, TodoByStatus.class);
+  }
 
-    // The `UserByCompany` class is a simple class that has fields for the company
-    // name, the number of users in that company, and a list of user names and IDs
-    // (using the `UserIdName` class to store the user names and IDs).
-    // We're going to use the aggregation pipeline to group users by company, and
-    // then count the number of users in each company. We'll also collect the userserver/src/main/java/umm3601/user/UserIdName.java
-    // names and IDs for each user in each company. We'll then convert the results
-    // of the aggregation pipeline to `UserByCompany` objects.
+  /**
+   * Set the JSON body of the response to be a list of todo IDs and owners,
+   * grouped by category.
+   *
+   * @param ctx a Javalin HTTP context that provides the query parameters
+   *   used to sort and trim the results
+   */
+  public void getTodosGroupedByCategory(Context ctx) {
+    groupTodosBy(ctx, CATEGORY_KEY, TodoByCategory.class);
+  }
 
-    ArrayList<TodoByCategory> matchingTodos = todoCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("owner", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$owner")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("users", new Document("$push", new Document("_id", "$_id").append("owner", "$owner")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
-        // Convert the results of the aggregation pipeline to UserGroupResult objects
-        // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
-        // to convert the results to, and the JacksonMongoCollection will do this for us.
-        TodoByCategory.class
-      )
-      .into(new ArrayList<>());
+  /**
+   * Group the todos by the given field, and send the groups as the JSON body
+   * of the response.
+   *
+   * This supports the following query parameters:
+   *   - `sortBy`: `count` sorts the groups by how many todos they have; anything
+   *     else (including the name of the field being grouped by) sorts them by
+   *     the grouped value
+   *   - `sortOrder`: `asc` (the default) or `desc`
+   *   - `group`: only return the group with this value (e.g., `group=Fry` when
+   *     grouping by owner, or `group=complete` when grouping by status). Along with
+   *     `membersSkip` and `membersLimit`, this lets a client page through the
+   *     members of a single group.
+   *   - `countsOnly`, `membersLimit`, and `membersSkip` (see `GroupingOptions`)
+   *
+   * @param ctx a Javalin HTTP context that provides the query parameters
+   * @param field the todo field to group by (`owner`, `status`, or `category`)
+   * @param resultClass the Java type to convert each group to
+   * @param <T> the type of each group
+   */
+  private <T> void groupTodosBy(Context ctx, String field, Class<T> resultClass) {
+    Bson sortingOrder = groupSortingOrder(ctx.queryParam("sortBy"), ctx.queryParam("sortOrder"));
+    GroupingOptions options = GroupingOptions.from(ctx);
 
-    ctx.json(matchingTodos);
+    List<Bson> pipeline = new ArrayList<>();
+    if (ctx.queryParamMap().containsKey(GROUP_KEY)) {
+      pipeline.add(Aggregates.match(groupFilter(field, ctx.queryParam(GROUP_KEY))));
+    }
+    // Project just the fields we need in the next step, i.e., the _id, owner, and grouped field
+    pipeline.add(new Document("$project", new Document("_id", 1).append(OWNER_KEY, 1).append(field, 1)));
+    // Group the todos, count the todos in each group, (maybe) collect their IDs and owners, and sort
+    pipeline.addAll(groupingStages(field, options, sortingOrder));
+
+    // It is necessary to have a Java type to convert the results of the aggregation
+    // pipeline to, and the JacksonMongoCollection will do this for us.
+    responseCache.respond(ctx, CACHE_NAMESPACE, () -> {
+      long maxTime = Deadline.of(ctx).maxTimeMillis();
+      return mongoLimiter.call(() -> todoCollection
+        .aggregate(pipeline, resultClass)
+        .maxTime(maxTime, TimeUnit.MILLISECONDS)
+        .into(new ArrayList<T>()));
+    });
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Set the JSON body of the response to be a `TodoSummary`: the total number
+   * of todos, and the todos grouped by owner, by status, and by category.
+   *
+   * The dashboard used to get these by calling `/api/TodoByOwner`,
+   * `/api/TodoByStatus`, and `/api/TodoByCategory` one after another, which
+   * meant three full scans of the collection. This computes all of them from
+   * a single scan, using `$facet` to run one sub-pipeline per grouping over
+   * the same stream of documents. `allowDiskUse` lets MongoDB spill to disk
+   * rather than fail if the groupings get too big for memory.
+   *
+   * This supports the same query parameters as the individual grouping
+   * endpoints, which apply to all three groupings:
+   *   - `sortBy` (`count` or the grouped value) and `sortOrder` (`asc` or `desc`)
+   *   - `countsOnly`, `membersLimit`, and `membersSkip` (see `GroupingOptions`);
+   *     the dashboard will usually want `countsOnly=true`
+   * Each grouping's sorting can also be set on its own with `ownerSortBy`,
+   * `ownerSortOrder`, `statusSortBy`, `statusSortOrder`, `categorySortBy`,
+   * and `categorySortOrder`.
+   *
+   * @param ctx a Javalin HTTP context that provides the query parameters
+   */
+  public void getTodoSummary(Context ctx) {
+    GroupingOptions options = GroupingOptions.from(ctx);
 
-  public void getTodosGroupedByStatus(Context ctx)
-  {
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "$oid");
-    if (sortBy.equals("status")) {
-      sortBy = "$oid";
+    Document facets = new Document();
+    for (String field : List.of(OWNER_KEY, STATUS_KEY, CATEGORY_KEY)) {
+      Bson sortingOrder = groupSortingOrder(
+        Objects.requireNonNullElse(ctx.queryParam(field + "SortBy"), ctx.queryParam("sortBy")),
+        Objects.requireNonNullElse(ctx.queryParam(field + "SortOrder"), ctx.queryParam("sortOrder")));
+      facets.append(summaryFieldName(field), groupingStages(field, options, sortingOrder));
     }
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    // The `UserByCompany` class is a simple class that has fields for the company
-    // name, the number of users in that company, and a list of user names and IDs
-    // (using the `UserIdName` class to store the user names and IDs).
-    // We're going to use the aggregation pipeline to group users by company, and
-    // then count the number of users in each company. We'll also collect the userserver/src/main/java/umm3601/user/UserIdName.java
-    // names and IDs for each user in each company. We'll then convert the results
-    // of the aggregation pipeline to `UserByCompany` objects.
-    ArrayList<TodoByStatus> matchingTodos = todoCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("owner", 1).append("status", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$status")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("todos", new Document("$push", new Document("_id", "$_id").append("owner", "$owner")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
-        // Convert the results of the aggregation pipeline to UserGroupResult objects
-        // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
-        // to convert the results to, and the JacksonMongoCollection will do this for us.
-        TodoByStatus.class
-      )
-      .into(new ArrayList<>());
+    facets.append("totals", List.of(new Document("$count", "total")));
 
-    ctx.json(matchingTodos);
+    List<Bson> pipeline = List.of(
+      // One pass over the collection, keeping only the fields any of the facets need
+      new Document("$project", new Document("_id", 1).append(OWNER_KEY, 1).append(STATUS_KEY, 1)
+        .append(CATEGORY_KEY, 1)),
+      new Document("$facet", facets),
+      // `$count` produces `[{total: N}]` (or `[]` if there are no todos), so pull the number out
+      new Document("$project", new Document("byOwner", 1).append("byStatus", 1).append("byCategory", 1)
+        .append("total", new Document("$ifNull",
+          List.of(new Document("$arrayElemAt", List.of("$totals.total", 0)), 0)))));
+
+    responseCache.respond(ctx, CACHE_NAMESPACE, () -> {
+      long maxTime = Deadline.of(ctx).maxTimeMillis();
+      return mongoLimiter.call(() -> todoCollection
+        .aggregate(pipeline, TodoSummary.class)
+        .allowDiskUse(true)
+        .maxTime(maxTime, TimeUnit.MILLISECONDS)
+        .first());
+    });
     ctx.status(HttpStatus.OK);
   }
-  public void getTodosGroupedByCategory(Context ctx) {
-    // We'll support sorting the results either by company name (in either `asc` or `desc` order)
-    // or by the number of users in the company (`count`, also in either `asc` or `desc` order).
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "$oid");
-    if (sortBy.equals("category")) {
-      sortBy = "$oid";
-    }
-    String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
 
-    // The `UserByCompany` class is a simple class that has fields for the company
-    // name, the number of users in that company, and a list of user names and IDs
-    // (using the `UserIdName` class to store the user names and IDs).
-    // We're going to use the aggregation pipeline to group users by company, and
-    // then count the number of users in each company. We'll also collect the userserver/src/main/java/umm3601/user/UserIdName.java
-    // names and IDs for each user in each company. We'll then convert the results
-    // of the aggregation pipeline to `UserByCompany` objects.
+  /**
+   * @param field a todo field that can be grouped by
+   * @return the name of the `TodoSummary` field holding the grouping by `field`
+   */
+  private static String summaryFieldName(String field) {
+    return "by" + Character.toUpperCase(field.charAt(0)) + field.substring(1);
+  }
 
-    ArrayList<TodoByCategory> matchingTodos = todoCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("owner", 1).append("category", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$category")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("todos", new Document("$push", new Document("_id", "$_id").append("owner", "$owner")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
-        // Convert the results of the aggregation pipeline to UserGroupResult objects
-        // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
-        // to convert the results to, and the JacksonMongoCollection will do this for us.
-        TodoByCategory.class
-      )
-      .into(new ArrayList<>());
+  /**
+   * Build the sorting order for groups: `count` sorts groups by how many
+   * todos they have, and anything else (including no value at all) sorts
+   * them by the grouped value.
+   *
+   * @param sortBy the requested sort field (may be `null`)
+   * @param sortOrder `desc` for descending; anything else (including `null`) is ascending
+   * @return a Bson sorting document for the groups
+   */
+  private static Bson groupSortingOrder(String sortBy, String sortOrder) {
+    String sortField = "count".equals(sortBy) ? "count" : "_id";
+    return "desc".equals(sortOrder) ? Sorts.descending(sortField) : Sorts.ascending(sortField);
+  }
 
-    ctx.json(matchingTodos);
-    ctx.status(HttpStatus.OK);
+  /**
+   * Build the aggregation stages that group todos by `field` and then sort the groups.
+   *
+   * @param field the todo field to group by
+   * @param options the requested member options
+   * @param sortingOrder how to sort the groups
+   * @return the stages to add to an aggregation pipeline
+   */
+  private static List<Bson> groupingStages(String field, GroupingOptions options, Bson sortingOrder) {
+    List<Bson> stages = new ArrayList<>(options.groupStages("$" + field, MEMBERS_FIELD,
+      new Document("_id", "$_id").append(OWNER_KEY, "$" + OWNER_KEY)));
+    stages.add(new Document("$sort", sortingOrder));
+    return stages;
+  }
+
+  /**
+   * Build the filter for a single group's value. Statuses are stored as
+   * booleans, so for those `complete` (or `true`) means `true`, and anything
+   * else means `false`.
+   *
+   * @param field the todo field being grouped by
+   * @param value the requested group value
+   * @return a filter matching the todos in that group
+   */
+  private static Bson groupFilter(String field, String value) {
+    if (field.equals(STATUS_KEY)) {
+      return eq(STATUS_KEY, value.equalsIgnoreCase("complete") || value.equalsIgnoreCase("true"));
+    }
+    return eq(field, value);
   }
 
   public void filterLimit(Context ctx) {
@@ -372,8 +860,9 @@ public class TodoController implements Controller {
     // then count the number of users in each company. We'll also collect the userserver/src/main/java/umm3601/user/UserIdName.java
     // names and IDs for each user in each company. We'll then convert the results
     // of the aggregation pipeline to `UserByCompany` objects.
-    System.out.println("Hello!");
-    ArrayList<TodoByCategory> matchingTodos = todoCollection
+    int limit = getLimit(ctx);
+    long maxTime = Deadline.of(ctx).maxTimeMillis();
+    ArrayList<TodoByCategory> matchingTodos = mongoLimiter.call(() -> todoCollection
       // The following aggregation pipeline groups users by company, and
       // then counts the number of users in each company. It also collects
       // the user names and IDs for each user in each company.
@@ -393,12 +882,12 @@ public class TodoController implements Controller {
         // to convert the results to, and the JacksonMongoCollection will do this for us.
         TodoByCategory.class
       )
-      .into(new ArrayList<>());
+      .maxTime(maxTime, TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()));
 
-    while(matchingTodos.size() > getLimit(ctx))
+    while(matchingTodos.size() > limit)
     {
       matchingTodos.removeLast();
-      System.out.println(matchingTodos.size());
     }
     ctx.json(matchingTodos);
     ctx.status(HttpStatus.OK);
@@ -413,33 +902,37 @@ public class TodoController implements Controller {
    */
   public void addNewOwner(Context ctx) {
     /*
-     * The follow chain of statements uses the Javalin validator system
-     * to verify that instance of `User` provided in this context is
-     * a "legal" user. It checks the following things (in order):
-     *    - The user has a value for the name (`usr.name != null`)
-     *    - The user name is not blank (`usr.name.length > 0`)
-     *    - The provided email is valid (matches EMAIL_REGEX)
-     *    - The provided age is > 0
-     *    - The provided age is < REASONABLE_AGE_LIMIT
-     *    - The provided role is valid (one of "admin", "editor", or "viewer")
-     *    - A non-blank company is provided
-     * If any of these checks fail, the Javalin system will throw a
-     * `BadRequestResponse` with an appropriate error message.
+     * Parse the body (streamed straight from the request) into a `Todo`, and
+     * then check it against `NEW_TODO_RULES` to verify that it's a "legal"
+     * todo, i.e., that it has a non-empty owner, body, and category. (The
+     * status is a `boolean`, so any status that parsed is legal.) If any of
+     * these checks fail, this throws a `ValidationException` (which Javalin
+     * turns into a 400 Bad Request) listing every failed check.
      */
-    String body = ctx.body();
-    Todo newOwner = ctx.bodyValidator(Todo.class)
-      .check(usr -> usr.owner != null && usr.owner.length() > 0,
-        "Owner must have a non-empty name; body was " + body)
-      .check(usr -> usr.status != true || usr.status != false,
-        "Owner must possess a legal status; body was " + body)
-      .check(usr -> usr.body.length() > 0,
-        "The length of the owner's body must be greater than zero; body was " + body)
-      .check(usr -> usr.category.length() > 0,
-        "The length of the owner's category must be greater than zero; body was " + body)
-      .get();
+    Todo newOwner = bodyReader.read(ctx, Todo.class, NEW_TODO_RULES);
 
-    // Add the new user to the database
-    todoCollection.insertOne(newOwner);
+    // If the write-ahead log is on, the todo is accepted (with the ID we
+    // give it here) as soon as it's safely in the log, and it reaches the
+    // database a little later. 202 (`HttpStatus.ACCEPTED`) says just that.
+    if (wal.isEnabled()) {
+      newOwner._id = new ObjectId().toHexString();
+      wal.append("todos", newOwner);
+      ctx.json(Map.of("id", newOwner._id));
+      ctx.status(HttpStatus.ACCEPTED);
+      return;
+    }
+
+    // Add the new user to the database, either on its own or (if write
+    // batching is on) together with the other todos added at about the same
+    // time. A batched todo gets its ID here, so we can send it back.
+    if (todoWrites.isBatching()) {
+      newOwner._id = new ObjectId().toHexString();
+      todoWrites.write(newOwner, Deadline.of(ctx).remaining());
+    } else {
+      mongoLimiter.run(() -> todoCollection.insertOne(newOwner));
+      publish("insert", newOwner);
+    }
+    responseCache.invalidate(CACHE_NAMESPACE);
 
     // Set the JSON response to be the `_id` of the newly created user.
     // This gives the client the opportunity to know the ID of the new user,
@@ -460,49 +953,280 @@ public class TodoController implements Controller {
    */
   public void deleteTodo(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = todoCollection.deleteOne(eq("_id", new ObjectId(id)));
+    ObjectId oid = new ObjectId(id);
+    // `findOneAndDelete` hands back what the change feed needs of the deleted todo
+    FindOneAndDeleteOptions options = new FindOneAndDeleteOptions()
+      .projection(DELETE_FIELDS)
+      .maxTime(Deadline.of(ctx).maxTimeMillis(), TimeUnit.MILLISECONDS);
+    Todo deleted = journaled("delete", ids -> {
+      Todo todo = mongoLimiter.call(() -> todoCollection.findOneAndDelete(eq("_id", oid), options));
+      if (todo != null) {
+        ids.add(oid);
+      }
+      return todo;
+    });
+    responseCache.invalidate(CACHE_NAMESPACE);
     // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    if (deleted == null) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    publishDeleted(deleted);
     ctx.status(HttpStatus.OK);
   }
 
+  // Make some changes to the todos with `change` (which adds the IDs of the
+  // todos it changed to the list it's handed), and then record them in the
+  // journal, for `getChanges` to find. The entries' `_id`s come from before
+  // the changes were made, and until they're written (even if `change`
+  // failed part way through) `getChanges` hands out no tokens past the
+  // first of them, so it never skips a change it hasn't been able to see yet.
+  private <T> T journaled(String type, Function<List<ObjectId>, T> change) {
+    ObjectId first = new ObjectId();
+    unjournaled.add(first);
+    List<ObjectId> ids = new ArrayList<>();
+    try {
+      return change.apply(ids);
+    } finally {
+      try {
+        writeJournal(first, type, ids);
+      } finally {
+        unjournaled.remove(first);
+      }
+    }
+  }
+
+  // Write a journal entry for each of `ids`, the first with `first` as its `_id`
+  private void writeJournal(ObjectId first, String type, List<ObjectId> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    Date now = new Date();
+    List<Document> entries = new ArrayList<>(ids.size());
+    for (ObjectId id : ids) {
+      entries.add(new Document("_id", entries.isEmpty() ? first : new ObjectId())
+        .append(TODO_ID_KEY, id)
+        .append(TYPE_KEY, type)
+        .append(CHANGED_AT_KEY, now));
+    }
+    mongoLimiter.run(() -> journal.insertMany(entries, new InsertManyOptions().ordered(false)));
+  }
+
   /**
-   * Utility function to generate an URI that points
-   * at a unique avatar image based on a user's email.
+   * Change some of the fields of the todo specified by the `id` parameter
+   * in the request, e.g., `PATCH /api/todos/{id}` with `{"status": true}`.
+   * Fields left out of the body aren't changed; the ones that are there
+   * have to be legal, just as for `addNewOwner`.
    *
-   * This uses the service provided by gravatar.com; there
-   * are numerous other similar services that one could
-   * use if one wished.
+   * The change is made with one `findOneAndUpdate`, which hands back the
+   * updated todo, so that's what the response holds (and the client
+   * doesn't have to read it again).
    *
-   * YOU DON'T NEED TO USE THIS FUNCTION FOR THE TODOS.
+   * @param ctx a Javalin HTTP context
+   */
+  public void updateTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The requested todo id wasn't a legal Mongo Object ID.");
+    }
+    TodoUpdate update = bodyReader.read(ctx, TodoUpdate.class, UPDATE_RULES);
+    if (update.isEmpty()) {
+      throw new BadRequestResponse("The update must set at least one of the todo's fields");
+    }
+
+    FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+      .returnDocument(ReturnDocument.AFTER)
+      .maxTime(Deadline.of(ctx).maxTimeMillis(), TimeUnit.MILLISECONDS);
+    ObjectId oid = new ObjectId(id);
+    Todo updated = journaled("update", ids -> {
+      Todo todo = mongoLimiter.call(() -> todoCollection.findOneAndUpdate(eq("_id", oid), update.toSet(), options));
+      if (todo != null) {
+        ids.add(oid);
+      }
+      return todo;
+    });
+    if (updated == null) {
+      throw new NotFoundResponse("The requested todo was not found");
+    }
+    responseCache.invalidate(CACHE_NAMESPACE);
+    publish("update", updated);
+
+    ctx.json(updated);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Change the status and/or category of every todo matching the filter in
+   * the query parameters (the same ones `getUsers` takes, e.g.,
+   * `PATCH /api/todos?owner=Blanche` with `{"status": true}` marks all of
+   * Blanche's todos complete).
    *
-   * @param email the email to generate an avatar for
-   * @return a URI pointing to an avatar image
+   * Like `deleteTodos`, this goes `BULK_CHUNK_SIZE` todos at a time (each
+   * chunk found with its own query, through the database limiter), with
+   * one `updateMany` for each chunk, and then reads the chunk back to
+   * publish an update for each todo (and journals them for `getChanges`).
+   * The response says how many todos matched and how many actually
+   * changed. (If the request runs out of time part way through, the ones
+   * changed by then stay changed.)
+   *
+   * @param ctx a Javalin HTTP context
    */
+  public void updateTodos(Context ctx) {
+    Bson filter = constructBulkFilter(ctx);
+    TodoUpdate update = bodyReader.read(ctx, TodoUpdate.class, BULK_UPDATE_RULES);
+    if (update.isEmpty()) {
+      throw new BadRequestResponse("The update must set the status and/or the category");
+    }
+
+    Deadline deadline = Deadline.of(ctx);
+    AtomicLong matched = new AtomicLong();
+    AtomicLong modified = new AtomicLong();
+    try {
+      forEachChunk(filter, Projections.include("_id"), deadline, todos -> {
+        List<ObjectId> ids = todos.stream().map(todo -> new ObjectId(todo._id)).toList();
+        UpdateResult result = journaled("update", journaledIds -> {
+          journaledIds.addAll(ids);
+          // Still matching `filter`, in case a todo changed since it was read
+          return mongoLimiter.call(() -> todoCollection.updateMany(and(filter, in("_id", ids)), update.toSet()));
+        });
+        matched.addAndGet(result.getMatchedCount());
+        modified.addAndGet(result.getModifiedCount());
+        long maxTime = deadline.maxTimeMillis();
+        mongoLimiter.call(() -> todoCollection.find(in("_id", ids))
+          .maxTime(maxTime, TimeUnit.MILLISECONDS)
+          .into(new ArrayList<>()))
+          .forEach(todo -> publish("update", todo));
+      });
+    } finally {
+      // Even if the deadline ran out part way through, some todos may have changed
+      responseCache.invalidate(CACHE_NAMESPACE);
+    }
+
+    ctx.json(Map.of("matched", matched.get(), "modified", modified.get()));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Delete every todo of the owner given by the `owner` query parameter
+   * (narrowed by any of the other filters `getUsers` takes), e.g.,
+   * `DELETE /api/todos?owner=Blanche&status=complete`.
+   *
+   * The todos are deleted `BULK_CHUNK_SIZE` at a time, with one
+   * `deleteMany` for each chunk. The response says how many todos were
+   * deleted. (If the request runs out of time part way through, the ones
+   * deleted by then stay deleted.)
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteTodos(Context ctx) {
+    if (!ctx.queryParamMap().containsKey(OWNER_KEY)) {
+      throw new BadRequestResponse("Deleting todos in bulk needs an owner");
+    }
+    Bson filter = constructBulkFilter(ctx);
+
+    // Find the todos first and delete exactly those, so each one gets a
+    // journal entry (and a delete event, with what subscriptions filter on)
+    AtomicLong deleted = new AtomicLong();
+    try {
+      forEachChunk(filter, DELETE_FIELDS, Deadline.of(ctx), todos -> {
+        List<ObjectId> ids = todos.stream().map(todo -> new ObjectId(todo._id)).toList();
+        deleted.addAndGet(journaled("delete", journaledIds -> {
+          journaledIds.addAll(ids);
+          return mongoLimiter.call(() -> todoCollection.deleteMany(in("_id", ids))).getDeletedCount();
+        }));
+        todos.forEach(this::publishDeleted);
+      });
+    } finally {
+      // Even if the deadline ran out part way through, some todos may be gone
+      responseCache.invalidate(CACHE_NAMESPACE);
+    }
 
+    ctx.json(Map.of("deleted", deleted.get()));
+    ctx.status(HttpStatus.OK);
+  }
+
+  // Go through the todos matching `filter` (just the fields in `projection`)
+  // a chunk at a time, in `_id` order, so neither the todos in memory nor
+  // any one command sent to MongoDB (like an `$in` of their IDs) grows with
+  // how many todos match. Each chunk is its own query (picking up after the
+  // last `_id` of the one before), so every read goes through the limiter
+  // and gets what's left of `deadline`.
+  private void forEachChunk(Bson filter, Bson projection, Deadline deadline, Consumer<List<Todo>> action) {
+    ObjectId lastId = null;
+    while (true) {
+      Bson page = lastId == null ? filter : and(filter, gt("_id", lastId));
+      long maxTime = deadline.maxTimeMillis();
+      List<Todo> chunk = mongoLimiter.call(() -> todoCollection.find(page)
+        .projection(projection)
+        .sort(Sorts.ascending("_id"))
+        .limit(BULK_CHUNK_SIZE)
+        .maxTime(maxTime, TimeUnit.MILLISECONDS)
+        .into(new ArrayList<>(BULK_CHUNK_SIZE)));
+      if (chunk.isEmpty()) {
+        return;
+      }
+      // The writes for each chunk don't take a `maxTime`, so check the deadline before each one
+      deadline.maxTimeMillis();
+      action.accept(chunk);
+      if (chunk.size() < BULK_CHUNK_SIZE) {
+        return;
+      }
+      lastId = new ObjectId(chunk.get(chunk.size() - 1)._id);
+    }
+  }
+
+  // The filter for a bulk update or delete, which (unlike a read) can't be
+  // left empty, since that would change every todo there is
+  private Bson constructBulkFilter(Context ctx) {
+    Bson filter = constructFilter(ctx);
+    if (filter.toBsonDocument().isEmpty()) {
+      throw new BadRequestResponse("Changing todos in bulk needs at least one filter");
+    }
+    return filter;
+  }
 
   /**
-   * Utility function to generate the md5 hash for a given string
+   * Make sure the todos collection has an index on each of the fields
+   * requests filter and group by (`owner`, `category`, `status`), and open the
+   * connections to the database, so the first real requests don't pay
+   * for either.
    *
-   * @param str the string to generate a md5 for
+   * Creating an index that already exists does nothing, so this is safe to
+   * run every time the server starts.
    */
-  public String md5(String str) throws NoSuchAlgorithmException {
-    MessageDigest md = MessageDigest.getInstance("MD5");
-    byte[] hashInBytes = md.digest(str.toLowerCase().getBytes(StandardCharsets.UTF_8));
+  @Override
+  public void warmUp() {
+    todoCollection.createIndexes(List.of(
+      new IndexModel(Indexes.ascending(OWNER_KEY)),
+      new IndexModel(Indexes.ascending(CATEGORY_KEY)),
+      new IndexModel(Indexes.ascending(STATUS_KEY))));
+    ensureJournalExpiry();
+    todoCollection.countDocuments();
+  }
 
-    StringBuilder result = new StringBuilder();
-    for (byte b : hashInBytes) {
-      result.append(String.format("%02x", b));
+  // Have MongoDB delete journal entries once they're `tombstoneRetention`
+  // old. An existing index with a different retention is replaced.
+  private void ensureJournalExpiry() {
+    Bson key = Indexes.ascending(CHANGED_AT_KEY);
+    IndexOptions options = new IndexOptions().expireAfter(tombstoneRetention.toSeconds(), TimeUnit.SECONDS);
+    try {
+      journal.createIndex(key, options);
+    } catch (MongoCommandException e) {
+      if (e.getErrorCode() != INDEX_OPTIONS_CONFLICT) {
+        throw e;
+      }
+      journal.dropIndex(key);
+      journal.createIndex(key, options);
     }
-    return result.toString();
   }
 
+  // Give a route's requests a deadline, and limit how many can run at once, by its priority class
+  private Handler route(Priority priority, Handler handler) {
+    return deadlines.within(priority, admission.limit(priority, handler));
+  }
 
   /**
    * Setup routes for the `user` collection endpoints.
@@ -532,27 +1256,41 @@ public class TodoController implements Controller {
    * @param userController The controller that handles the user endpoints
    */
   public void addRoutes(Javalin server) {
+    // Get the total, and the todos grouped by owner, status, and category, in one go.
+    // This has to be added before `API_TODOS_BY_OID`, or "summary" would be taken as an ID.
+    server.get(API_TODOS + "/summary", route(Priority.LOW, this::getTodoSummary));
+
+    // Get what's changed since a token from an earlier request (this also has to come first)
+    server.get(API_TODOS + "/changes", route(Priority.NORMAL, this::getChanges));
+
     // Get the specified user
-    server.get(API_TODOS_BY_OID, this::getUser);
+    server.get(API_TODOS_BY_OID, route(Priority.HIGH, this::getUser));
 
     // List users, filtered using query parameters
-    server.get(API_TODOS, this::getUsers);
+    server.get(API_TODOS, route(Priority.NORMAL, this::getUsers));
 
     // Get the users, possibly filtered, grouped by category
-    server.get("/api/TodoByCategory", this::getTodosGroupedByCategory);
+    server.get("/api/TodoByCategory", route(Priority.LOW, this::getTodosGroupedByCategory));
 
         //Get the users by owner (name)
-    server.get("/api/TodoByOwner", this::getTodosGroupedByOwner);
+    server.get("/api/TodoByOwner", route(Priority.LOW, this::getTodosGroupedByOwner));
 
-    server.get("/api/TodoByStatus", this::getTodosGroupedByStatus);
+    server.get("/api/TodoByStatus", route(Priority.LOW, this::getTodosGroupedByStatus));
 
-    server.get("/api/TodoLimit", this::filterLimit);
+    server.get("/api/TodoLimit", route(Priority.NORMAL, this::filterLimit));
 
     // Add new user with the user info being in the JSON body
     // of the HTTP request
-    server.post(API_TODOS, this::addNewOwner);
+    server.post(API_TODOS, route(Priority.HIGH, this::addNewOwner));
 
     // Delete the specified user
-    server.delete(API_TODOS_BY_OID, this::deleteTodo);
+    server.delete(API_TODOS_BY_OID, route(Priority.HIGH, this::deleteTodo));
+
+    // Change some of the fields of the specified todo
+    server.patch(API_TODOS_BY_OID, route(Priority.HIGH, this::updateTodo));
+
+    // Change or delete all the todos matching the query parameters at once
+    server.patch(API_TODOS, route(Priority.NORMAL, this::updateTodos));
+    server.delete(API_TODOS, route(Priority.NORMAL, this::deleteTodos));
   }
 }
@@ -0,0 +1,16 @@
+package umm3601.todos;
+
+import java.util.List;
+
+/**
+ * Everything the dashboard shows about the todos, computed in a single
+ * aggregation: the total number of todos, and the todos grouped by owner,
+ * by status, and by category.
+ */
+@SuppressWarnings("checkstyle:visibilitymodifier")
+public class TodoSummary {
+  public long total;
+  public List<TodoByOwner> byOwner;
+  public List<TodoByStatus> byStatus;
+  public List<TodoByCategory> byCategory;
+}
@@ -0,0 +1,48 @@
+package umm3601.todos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Updates;
+
+/**
+ * The body of a `PATCH` to the todos: the fields to change, and their new
+ * values. Fields that are left out (i.e., `null`) aren't changed.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class TodoUpdate {
+
+  public String owner;
+  public Boolean status;
+  public String body;
+  public String category;
+
+  /**
+   * @return `true` if this doesn't change anything
+   */
+  public boolean isEmpty() {
+    return owner == null && status == null && body == null && category == null;
+  }
+
+  /**
+   * @return a `$set` of just the fields that were given
+   */
+  public Bson toSet() {
+    List<Bson> sets = new ArrayList<>();
+    if (owner != null) {
+      sets.add(Updates.set(TodoController.OWNER_KEY, owner));
+    }
+    if (status != null) {
+      sets.add(Updates.set(TodoController.STATUS_KEY, status));
+    }
+    if (body != null) {
+      sets.add(Updates.set(TodoController.BODY_KEY, body));
+    }
+    if (category != null) {
+      sets.add(Updates.set(TodoController.CATEGORY_KEY, category));
+    }
+    return Updates.combine(sets);
+  }
+}
@@ -0,0 +1,110 @@
+package umm3601.user;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns email addresses into gravatar.com avatar URIs.
+ *
+ * Every new user gets an avatar, which means an MD5 hash of their email.
+ * This keeps that cheap:
+ *
+ *   - each thread reuses its own `MessageDigest` rather than looking one up
+ *     (with `MessageDigest.getInstance()`) for every hash,
+ *   - hashes are turned into hex with `HexFormat` rather than a
+ *     `String.format()` per byte, and
+ *   - the avatars for the most recently used emails are remembered (in a
+ *     small LRU), so the same email isn't hashed over and over.
+ */
+public class AvatarService {
+
+  /**
+   * How many email to avatar results are remembered unless configured otherwise.
+   */
+  public static final int DEFAULT_MEMO_SIZE = 10_000;
+
+  /**
+   * The avatar used when we can't compute one (gravatar.com's "mystery person").
+   */
+  static final String MYSTERY_PERSON = "https://gravatar.com/avatar/?d=mp";
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  // `LinkedHashMap`'s own defaults, which it has no constructor for when access-ordered
+  private static final int MEMO_INITIAL_CAPACITY = 16;
+  private static final float MEMO_LOAD_FACTOR = 0.75f;
+
+  // `null` if this JVM has no MD5 (which would be very odd)
+  private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      return null;
+    }
+  });
+
+  // The most recently used emails' avatars, least recently used first;
+  // guarded by its own lock, since even `get()` reorders it
+  private final Map<String, String> memo;
+
+  /**
+   * @param memoSize how many email to avatar results to remember (0 to remember none)
+   */
+  public AvatarService(int memoSize) {
+    this.memo = new LinkedHashMap<>(MEMO_INITIAL_CAPACITY, MEMO_LOAD_FACTOR, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > memoSize;
+      }
+    };
+  }
+
+  /**
+   * Generate the md5 hash (as lowercase hex) for a given string, ignoring case.
+   *
+   * @param str the string to generate a md5 for
+   * @return the hex md5 hash of the lowercase version of `str`
+   * @throws NoSuchAlgorithmException if this JVM doesn't support MD5
+   */
+  public String md5(String str) throws NoSuchAlgorithmException {
+    MessageDigest md = DIGESTS.get();
+    if (md == null) {
+      throw new NoSuchAlgorithmException("MD5 isn't available");
+    }
+    // `digest()` resets the digest, so it's ready for this thread's next hash
+    return HEX.formatHex(md.digest(str.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Get the URI of an avatar image for a user's email.
+   *
+   * @param email the email to generate an avatar for
+   * @return a URI pointing to an avatar image
+   */
+  public String avatarFor(String email) {
+    String avatar;
+    synchronized (memo) {
+      avatar = memo.get(email);
+    }
+    if (avatar != null) {
+      return avatar;
+    }
+    try {
+      // generate unique md5 code for identicon
+      avatar = "https://gravatar.com/avatar/" + md5(email) + "?d=identicon";
+    } catch (NoSuchAlgorithmException ignored) {
+      // set to mystery person, but don't remember that, since it isn't really this email's avatar
+      return MYSTERY_PERSON;
+    }
+    // Hashed outside the lock, so lookups never wait on a hash
+    synchronized (memo) {
+      memo.put(email, avatar);
+    }
+    return avatar;
+  }
+}
@@ -1,33 +1,64 @@
 package umm3601.user;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.bson.Document;
+import org.bson.RawBsonDocument;
 import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
 import static com.mongodb.client.model.Filters.regex;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Handler;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.AdaptiveLimiter;
+import umm3601.AdmissionControl;
+import umm3601.AdmissionControl.Priority;
+import umm3601.BatchLoader;
+import umm3601.BsonJsonTranscoder;
+import umm3601.ChangeFeed;
 import umm3601.Controller;
+import umm3601.Deadline;
+import umm3601.Deadlines;
+import umm3601.GroupingOptions;
+import umm3601.JsonResponseCache;
+import umm3601.MultiGet;
+import umm3601.RequestBodyReader;
+import umm3601.Services;
+import umm3601.ValidationRules;
+import umm3601.WriteAheadLog;
 
 /**
  * Controller that manages requests for info about users.
@@ -40,12 +71,97 @@ public class UserController implements Controller {
   static final String COMPANY_KEY = "company";
   static final String ROLE_KEY = "role";
   static final String SORT_ORDER_KEY = "sortorder";
+  static final String GROUP_KEY = "group";
 
   private static final int REASONABLE_AGE_LIMIT = 150;
-  private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
+  private static final Set<String> ROLES = Set.of("admin", "editor", "viewer");
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
+  // The characters `EMAIL_REGEX` allows before the `@`, besides letters and digits
+  private static final String EMAIL_LOCAL_SYMBOLS = "_!#$%&'*+/=?`{|}~^.-";
+
+  // What makes a new user "legal"; see `addNewUser`.
+  static final ValidationRules<User> NEW_USER_RULES = ValidationRules.<User>builder()
+    .field("name", usr -> usr.name, ValidationRules::notBlank,
+      "User must have a non-empty user name")
+    .field("email", usr -> usr.email, UserController::isEmail,
+      "User must have a legal email")
+    .intField(AGE_KEY, usr -> usr.age, age -> age > 0,
+      "User's age must be greater than zero")
+    .intField(AGE_KEY, usr -> usr.age, age -> age < REASONABLE_AGE_LIMIT,
+      "User's age must be less than " + REASONABLE_AGE_LIMIT)
+    .field(ROLE_KEY, usr -> usr.role, role -> role != null && ROLES.contains(role),
+      "User must have a legal user role")
+    .field(COMPANY_KEY, usr -> usr.company, ValidationRules::notBlank,
+      "User must have a non-empty company name")
+    .build();
+
+  // What makes an update to a user "legal"; the same as `NEW_USER_RULES`,
+  // except any field can be left out. See `updateUser`.
+  static final ValidationRules<UserUpdate> UPDATE_USER_RULES = ValidationRules.<UserUpdate>builder()
+    .field("name", usr -> usr.name, ValidationRules.optional(ValidationRules::notBlank),
+      "User must have a non-empty user name")
+    .field("email", usr -> usr.email, ValidationRules.optional(UserController::isEmail),
+      "User must have a legal email")
+    .field(AGE_KEY, usr -> usr.age, ValidationRules.<Integer>optional(age -> age > 0),
+      "User's age must be greater than zero")
+    .field(AGE_KEY, usr -> usr.age, ValidationRules.<Integer>optional(age -> age < REASONABLE_AGE_LIMIT),
+      "User's age must be less than " + REASONABLE_AGE_LIMIT)
+    .field(ROLE_KEY, usr -> usr.role, ValidationRules.optional(ROLES::contains),
+      "User must have a legal user role")
+    .field(COMPANY_KEY, usr -> usr.company, ValidationRules.optional(ValidationRules::notBlank),
+      "User must have a non-empty company name")
+    .build();
+
+  /**
+   * Check an email against `EMAIL_REGEX`, by hand, since this runs on every
+   * new user and a `Matcher` would be allocated for each one.
+   *
+   * @param email the email to check (possibly `null`)
+   * @return `true` if `email` entirely matches `EMAIL_REGEX`
+   */
+  static boolean isEmail(String email) {
+    if (email == null) {
+      return false;
+    }
+    int at = email.indexOf('@');
+    if (at <= 0 || at == email.length() - 1) {
+      return false;
+    }
+    for (int i = 0; i < email.length(); i++) {
+      char c = email.charAt(i);
+      boolean legal = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+        || (i < at ? EMAIL_LOCAL_SYMBOLS.indexOf(c) >= 0 : i == at || c == '.' || c == '-');
+      if (!legal) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The response cache namespace for everything built from the `users` collection
+  static final String CACHE_NAMESPACE = "users";
+
+  // The fields of a `User`; raw documents are projected down to just these
+  // so the passthrough JSON has the same shape as the POJO's JSON.
+  private static final Bson USER_FIELDS =
+    Projections.include("_id", "name", AGE_KEY, COMPANY_KEY, "email", "avatar", ROLE_KEY);
 
   private final JacksonMongoCollection<User> userCollection;
+  // The same collection, but read as undecoded BSON for the passthrough read path
+  private final MongoCollection<RawBsonDocument> rawUserCollection;
+  private final JsonResponseCache responseCache;
+  private final boolean rawBsonPassthrough;
+  private final RequestBodyReader bodyReader;
+  private final AvatarService avatars;
+  private final AdmissionControl admission;
+  private final AdaptiveLimiter mongoLimiter;
+  private final Deadlines deadlines;
+  // Collects concurrent by-id lookups into batches of `$in` queries
+  private final BatchLoader<ObjectId, User> usersById;
+  // Where new users go first when they're accepted into the local log (if that's turned on)
+  private final WriteAheadLog wal;
+  // Pushes inserts, updates, and deletes to subscribed clients
+  private final ChangeFeed changeFeed;
 
   /**
    * Construct a controller for users.
@@ -53,11 +169,60 @@ public class UserController implements Controller {
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
-    userCollection = JacksonMongoCollection.builder().build(
+    this(database, Services.defaults());
+  }
+
+  /**
+   * Construct a controller for users that uses the given shared services.
+   *
+   * @param database the database containing user data
+   * @param services the server-wide services (shared mapper, response cache, etc.)
+   */
+  public UserController(MongoDatabase database, Services services) {
+    userCollection = JacksonMongoCollection.builder()
+      .withObjectMapper(services.mongoJackMapper())
+      .build(
         database,
         "users",
         User.class,
         UuidRepresentation.STANDARD);
+    rawUserCollection = database.getCollection("users", RawBsonDocument.class);
+    responseCache = services.responseCache();
+    rawBsonPassthrough = services.rawBsonPassthrough();
+    bodyReader = services.bodyReader();
+    avatars = services.avatars();
+    admission = services.admission();
+    mongoLimiter = services.mongoLimiter();
+    deadlines = services.deadlines();
+    usersById = new BatchLoader<>(this::findUsersById, services.batchWindow(), services.maxBatchSize());
+    usersById.addMetrics(services.metrics(), "batch.users");
+    changeFeed = services.changeFeed();
+    wal = services.writeAheadLog();
+    wal.register("users", User.class, users -> {
+      try {
+        insertUsers(users);
+      } finally {
+        responseCache.invalidate(CACHE_NAMESPACE);
+      }
+    });
+  }
+
+  // Insert a batch of new users from the write-ahead log (unordered, so one bad user doesn't stop the rest)
+  void insertUsers(List<User> users) {
+    try {
+      mongoLimiter.run(() -> userCollection.insertMany(users, new InsertManyOptions().ordered(false)));
+    } catch (MongoBulkWriteException e) {
+      // The users that weren't rejected (as, e.g., already in the database
+      // when the log is drained again after a crash) were still inserted, so announce those
+      Set<Integer> failed = e.getWriteErrors().stream().map(BulkWriteError::getIndex).collect(Collectors.toSet());
+      for (int i = 0; i < users.size(); i++) {
+        if (!failed.contains(i)) {
+          publish("insert", users.get(i));
+        }
+      }
+      throw e;
+    }
+    users.forEach(user -> publish("insert", user));
   }
 
   /**
@@ -71,7 +236,8 @@ public class UserController implements Controller {
     User user;
 
     try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
+      ObjectId oid = new ObjectId(id);
+      user = usersById.load(oid, Deadline.of(ctx).remaining());
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
@@ -97,20 +263,90 @@ public class UserController implements Controller {
     // database system. So MongoDB is going to find the users with the specified
     // properties, return those sorted in the specified manner, and put the
     // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
-
+    //
     // Set the JSON body of the response to be the list of users returned by the database.
-    // According to the Javalin documentation (https://javalin.io/documentation#context),
-    // this calls result(jsonString), and also sets content type to json
-    ctx.json(matchingUsers);
+    // The response cache either sends an already encoded copy of this response, or
+    // runs the query and hands the result to `ctx.json()` (which, according to the
+    // Javalin documentation (https://javalin.io/documentation#context), calls
+    // result(jsonString), and also sets content type to json).
+    if (rawBsonPassthrough) {
+      // Nothing here changes the users, so skip the POJOs entirely and
+      // stream the raw BSON from the driver straight into JSON bytes.
+      responseCache.respondJson(ctx, CACHE_NAMESPACE, () -> {
+        long maxTime = Deadline.of(ctx).maxTimeMillis();
+        return mongoLimiter.call(() -> BsonJsonTranscoder.toJsonArray(rawUserCollection
+          .find(combinedFilter)
+          .projection(USER_FIELDS)
+          .sort(sortingOrder)
+          .maxTime(maxTime, TimeUnit.MILLISECONDS)));
+      });
+    } else {
+      responseCache.respond(ctx, CACHE_NAMESPACE, () -> {
+        long maxTime = Deadline.of(ctx).maxTimeMillis();
+        return mongoLimiter.call(() -> userCollection
+          .find(combinedFilter)
+          .sort(sortingOrder)
+          .maxTime(maxTime, TimeUnit.MILLISECONDS)
+          .into(new ArrayList<User>()));
+      });
+    }
 
     // Explicitly set the context status to OK
     ctx.status(HttpStatus.OK);
   }
 
+  /**
+   * Find the users with the given name (ignoring case), sorted by `_id`.
+   *
+   * This is for composite endpoints (like the owner page) that run this
+   * query alongside others and need it to finish within a shared deadline.
+   *
+   * @param name the name to look for
+   * @param maxTime how long MongoDB may spend on the query
+   * @return the users with that name
+   */
+  public List<User> findUsersNamed(String name, Duration maxTime) {
+    Pattern pattern = Pattern.compile("^" + Pattern.quote(name) + "$", Pattern.CASE_INSENSITIVE);
+    return mongoLimiter.call(() -> userCollection.find(regex("name", pattern))
+      .sort(Sorts.ascending("_id"))
+      // A `maxTime` of 0 means "no limit" to MongoDB, so never ask for less than 1ms
+      .maxTime(Math.max(1, maxTime.toMillis()), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()));
+  }
+
+  /**
+   * Find the users with the given IDs, in one `$in` query.
+   *
+   * @param ids the IDs of the users
+   * @param maxTime how long MongoDB may spend on the query
+   * @return the users that were found, by ID (IDs with no user have no entry)
+   */
+  public Map<ObjectId, User> findUsersById(List<ObjectId> ids, Duration maxTime) {
+    return mongoLimiter.call(() -> userCollection.find(in("_id", ids))
+      .maxTime(Math.max(1, maxTime.toMillis()), TimeUnit.MILLISECONDS)
+      .into(new ArrayList<>()))
+      .stream()
+      .collect(Collectors.toMap(user -> new ObjectId(user._id), Function.identity()));
+  }
+
+  /**
+   * Set the JSON body of the response to the users whose IDs are listed in
+   * the request body, e.g., `{"ids": ["a", "b", "c"]}`.
+   *
+   * The IDs are all checked first, then looked up with one `$in` query. The
+   * response has an entry for each ID, in the order they were given, which
+   * either holds the user or says it wasn't found.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUsersByIds(Context ctx) {
+    MultiGet.Request request = bodyReader.read(ctx, MultiGet.Request.class, MultiGet.REQUEST_RULES);
+    List<ObjectId> ids = MultiGet.parseIds(request.ids);
+    Map<ObjectId, User> found = findUsersById(ids.stream().distinct().toList(), Deadline.of(ctx).remaining());
+    ctx.json(MultiGet.inOrder(ids, found));
+    ctx.status(HttpStatus.OK);
+  }
+
   /**
    * Construct a Bson filter document to use in the `find` method based on the
    * query parameters from the context.
@@ -141,7 +377,7 @@ public class UserController implements Controller {
     }
     if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
       String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
-        .check(it -> it.matches(ROLE_REGEX), "User must have a legal user role")
+        .check(ROLES::contains, "User must have a legal user role")
         .get();
       filters.add(eq(ROLE_KEY, role));
     }
@@ -201,6 +437,10 @@ public class UserController implements Controller {
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
     Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
 
+    // `countsOnly`, `membersLimit`, and `membersSkip` let the client trim (or skip)
+    // the list of users in each company; see `GroupingOptions`.
+    GroupingOptions options = GroupingOptions.from(ctx);
+
     // The `UserByCompany` class is a simple class that has fields for the company
     // name, the number of users in that company, and a list of user names and IDs
     // (using the `UserIdName` class to store the user names and IDs).
@@ -208,34 +448,34 @@ public class UserController implements Controller {
     // then count the number of users in each company. We'll also collect the user
     // names and IDs for each user in each company. We'll then convert the results
     // of the aggregation pipeline to `UserByCompany` objects.
+    List<Bson> pipeline = new ArrayList<>();
+
+    // `group=COMPANY` restricts the results to that one company, which (along with
+    // `membersSkip` and `membersLimit`) lets a client page through a company's users.
+    if (ctx.queryParamMap().containsKey(GROUP_KEY)) {
+      pipeline.add(Aggregates.match(eq(COMPANY_KEY, ctx.queryParam(GROUP_KEY))));
+    }
+    // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
+    pipeline.add(new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)));
+    // Group the users by company, count the number of users in each company, and
+    // (unless only counts were asked for) collect the user names and IDs
+    pipeline.addAll(options.groupStages("$company", "users", new Document("_id", "$_id").append("name", "$name")));
+    // Sort the results. Use the `sortby` query param (default "company")
+    // as the field to sort by, and the query param `sortorder` (default
+    // "asc") to specify the sort order.
+    pipeline.add(new Document("$sort", sortingOrder));
 
-    ArrayList<UserByCompany> matchingUsers = userCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$company")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
+    responseCache.respond(ctx, CACHE_NAMESPACE, () -> {
+      long maxTime = Deadline.of(ctx).maxTimeMillis();
+      return mongoLimiter.call(() -> userCollection
         // Convert the results of the aggregation pipeline to UserGroupResult objects
         // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
         // to convert the results to, and the JacksonMongoCollection will do this for us.
-        UserByCompany.class
-      )
-      .into(new ArrayList<>());
+        .aggregate(pipeline, UserByCompany.class)
+        .maxTime(maxTime, TimeUnit.MILLISECONDS)
+        .into(new ArrayList<UserByCompany>()));
+    });
 
-    ctx.json(matchingUsers);
     ctx.status(HttpStatus.OK);
   }
 
@@ -248,9 +488,9 @@ public class UserController implements Controller {
    */
   public void addNewUser(Context ctx) {
     /*
-     * The follow chain of statements uses the Javalin validator system
-     * to verify that instance of `User` provided in this context is
-     * a "legal" user. It checks the following things (in order):
+     * Parse the body (streamed straight from the request) into a `User`, and
+     * then check it against `NEW_USER_RULES` to verify that it's a "legal"
+     * user. It checks the following things:
      *    - The user has a value for the name (`usr.name != null`)
      *    - The user name is not blank (`usr.name.length > 0`)
      *    - The provided email is valid (matches EMAIL_REGEX)
@@ -258,30 +498,29 @@ public class UserController implements Controller {
      *    - The provided age is < REASONABLE_AGE_LIMIT
      *    - The provided role is valid (one of "admin", "editor", or "viewer")
      *    - A non-blank company is provided
-     * If any of these checks fail, the Javalin system will throw a
-     * `BadRequestResponse` with an appropriate error message.
+     * If any of these checks fail, this throws a `ValidationException`
+     * (which Javalin turns into a 400 Bad Request) listing every failed check.
      */
-    String body = ctx.body();
-    User newUser = ctx.bodyValidator(User.class)
-      .check(usr -> usr.name != null && usr.name.length() > 0,
-        "User must have a non-empty user name; body was " + body)
-      .check(usr -> usr.email.matches(EMAIL_REGEX),
-        "User must have a legal email; body was " + body)
-      .check(usr -> usr.age > 0,
-        "User's age must be greater than zero; body was " + body)
-      .check(usr -> usr.age < REASONABLE_AGE_LIMIT,
-        "User's age must be less than " + REASONABLE_AGE_LIMIT + "; body was " + body)
-      .check(usr -> usr.role.matches(ROLE_REGEX),
-        "User must have a legal user role; body was " + body)
-      .check(usr -> usr.company != null && usr.company.length() > 0,
-        "User must have a non-empty company name; body was " + body)
-      .get();
+    User newUser = bodyReader.read(ctx, User.class, NEW_USER_RULES);
 
     // Generate a user avatar (you won't need this part for todos)
     newUser.avatar = generateAvatar(newUser.email);
 
+    // If the write-ahead log is on, the user is accepted (with the ID we
+    // give it here) as soon as it's safely in the log, and it reaches the
+    // database a little later. 202 (`HttpStatus.ACCEPTED`) says just that.
+    if (wal.isEnabled()) {
+      newUser._id = new ObjectId().toHexString();
+      wal.append("users", newUser);
+      ctx.json(Map.of("id", newUser._id));
+      ctx.status(HttpStatus.ACCEPTED);
+      return;
+    }
+
     // Add the new user to the database
-    userCollection.insertOne(newUser);
+    mongoLimiter.run(() -> userCollection.insertOne(newUser));
+    responseCache.invalidate(CACHE_NAMESPACE);
+    publish("insert", newUser);
 
     // Set the JSON response to be the `_id` of the newly created user.
     // This gives the client the opportunity to know the ID of the new user,
@@ -295,6 +534,45 @@ public class UserController implements Controller {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Change some of the fields of the user specified by the `id` parameter
+   * in the request, e.g., `PATCH /api/users/{id}` with `{"role": "admin"}`.
+   * Fields left out of the body aren't changed; the ones that are there
+   * have to be legal, just as for `addNewUser`. A new email gets a new
+   * avatar to go with it.
+   *
+   * The change is made with one `findOneAndUpdate`, which hands back the
+   * updated user, so that's what the response holds (and the client
+   * doesn't have to read it again).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void updateUser(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
+    }
+    UserUpdate update = bodyReader.read(ctx, UserUpdate.class, UPDATE_USER_RULES);
+    if (update.isEmpty()) {
+      throw new BadRequestResponse("The update must set at least one of the user's fields");
+    }
+    Bson set = update.toSet(update.email == null ? null : generateAvatar(update.email));
+
+    FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+      .returnDocument(ReturnDocument.AFTER)
+      .maxTime(Deadline.of(ctx).maxTimeMillis(), TimeUnit.MILLISECONDS);
+    User updated = mongoLimiter.call(
+      () -> userCollection.findOneAndUpdate(eq("_id", new ObjectId(id)), set, options));
+    if (updated == null) {
+      throw new NotFoundResponse("The requested user was not found");
+    }
+    responseCache.invalidate(CACHE_NAMESPACE);
+    publish("update", updated);
+
+    ctx.json(updated);
+    ctx.status(HttpStatus.OK);
+  }
+
   /**
    * Delete the user specified by the `id` parameter in the request.
    *
@@ -302,25 +580,40 @@ public class UserController implements Controller {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
+    ObjectId oid = new ObjectId(id);
+    // `findOneAndDelete` hands back what the change feed needs of the deleted user
+    FindOneAndDeleteOptions options = new FindOneAndDeleteOptions()
+      .projection(Projections.include("_id", COMPANY_KEY))
+      .maxTime(Deadline.of(ctx).maxTimeMillis(), TimeUnit.MILLISECONDS);
+    User deleted = mongoLimiter.call(() -> userCollection.findOneAndDelete(eq("_id", oid), options));
+    responseCache.invalidate(CACHE_NAMESPACE);
     // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    if (deleted == null) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    Map<String, String> attributes = ChangeFeed.attributes(COMPANY_KEY, deleted.company);
+    changeFeed.publish(ChangeFeed.deleted("users", deleted._id, attributes), attributes);
     ctx.status(HttpStatus.OK);
   }
 
+  // Tell the clients following the change feed about a change to `user`
+  private void publish(String type, User user) {
+    changeFeed.publish(new ChangeFeed.Change("users", type, user._id, user),
+      ChangeFeed.attributes(COMPANY_KEY, user.company));
+  }
+
   /**
    * Utility function to generate an URI that points
    * at a unique avatar image based on a user's email.
    *
    * This uses the service provided by gravatar.com; there
    * are numerous other similar services that one could
-   * use if one wished.
+   * use if one wished. The (shared, memoizing) `AvatarService`
+   * does the actual work.
    *
    * YOU DON'T NEED TO USE THIS FUNCTION FOR THE TODOS.
    *
@@ -328,15 +621,7 @@ public class UserController implements Controller {
    * @return a URI pointing to an avatar image
    */
   String generateAvatar(String email) {
-    String avatar;
-    try {
-      // generate unique md5 code for identicon
-      avatar = "https://gravatar.com/avatar/" + md5(email) + "?d=identicon";
-    } catch (NoSuchAlgorithmException ignored) {
-      // set to mystery person
-      avatar = "https://gravatar.com/avatar/?d=mp";
-    }
-    return avatar;
+    return avatars.avatarFor(email);
   }
 
   /**
@@ -345,14 +630,30 @@ public class UserController implements Controller {
    * @param str the string to generate a md5 for
    */
   public String md5(String str) throws NoSuchAlgorithmException {
-    MessageDigest md = MessageDigest.getInstance("MD5");
-    byte[] hashInBytes = md.digest(str.toLowerCase().getBytes(StandardCharsets.UTF_8));
+    return avatars.md5(str);
+  }
 
-    StringBuilder result = new StringBuilder();
-    for (byte b : hashInBytes) {
-      result.append(String.format("%02x", b));
-    }
-    return result.toString();
+  /**
+   * Make sure the users collection has an index on each of the fields
+   * requests filter and group by (`company`, `role`, `age`), and open the
+   * connections to the database, so the first real requests don't pay
+   * for either.
+   *
+   * Creating an index that already exists does nothing, so this is safe to
+   * run every time the server starts.
+   */
+  @Override
+  public void warmUp() {
+    userCollection.createIndexes(List.of(
+      new IndexModel(Indexes.ascending(COMPANY_KEY)),
+      new IndexModel(Indexes.ascending(ROLE_KEY)),
+      new IndexModel(Indexes.ascending(AGE_KEY))));
+    userCollection.countDocuments();
+  }
+
+  // Give a route's requests a deadline, and limit how many can run at once, by its priority class
+  private Handler route(Priority priority, Handler handler) {
+    return deadlines.within(priority, admission.limit(priority, handler));
   }
 
   /**
@@ -371,6 +672,11 @@ public class UserController implements Controller {
    *   - `POST /api/users`
    *      - Create a new user
    *      - The user info is in the JSON body of the HTTP request
+   *   - `POST /api/users/_mget`
+   *      - Get the users with the IDs listed in the JSON body (`{"ids": [...]}`)
+   *   - `PATCH /api/users/:id`
+   *      - Change some of the fields of the specified user
+   *      - The fields to change are in the JSON body of the HTTP request
    *
    * GROUPS SHOULD CREATE THEIR OWN CONTROLLERS THAT IMPLEMENT THE
    * `Controller` INTERFACE FOR WHATEVER DATA THEY'RE WORKING WITH.
@@ -384,19 +690,25 @@ public class UserController implements Controller {
    */
   public void addRoutes(Javalin server) {
     // Get the specified user
-    server.get(API_USER_BY_ID, this::getUser);
+    server.get(API_USER_BY_ID, route(Priority.HIGH, this::getUser));
 
     // List users, filtered using query parameters
-    server.get(API_USERS, this::getUsers);
+    server.get(API_USERS, route(Priority.NORMAL, this::getUsers));
 
     // Get the users, possibly filtered, grouped by company
-    server.get("/api/usersByCompany", this::getUsersGroupedByCompany);
+    server.get("/api/usersByCompany", route(Priority.LOW, this::getUsersGroupedByCompany));
 
     // Add new user with the user info being in the JSON body
     // of the HTTP request
-    server.post(API_USERS, this::addNewUser);
+    server.post(API_USERS, route(Priority.HIGH, this::addNewUser));
+
+    // Get a list of users by their IDs, in one request
+    server.post(API_USERS + "/_mget", route(Priority.NORMAL, this::getUsersByIds));
 
     // Delete the specified user
-    server.delete(API_USER_BY_ID, this::deleteUser);
+    server.delete(API_USER_BY_ID, route(Priority.HIGH, this::deleteUser));
+
+    // Change some of the fields of the specified user
+    server.patch(API_USER_BY_ID, route(Priority.HIGH, this::updateUser));
   }
 }
@@ -0,0 +1,55 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Updates;
+
+/**
+ * The body of a `PATCH` to a user: the fields to change, and their new
+ * values. Fields that are left out (i.e., `null`) aren't changed.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class UserUpdate {
+
+  public String name;
+  public Integer age;
+  public String company;
+  public String email;
+  public String role;
+
+  /**
+   * @return `true` if this doesn't change anything
+   */
+  public boolean isEmpty() {
+    return name == null && age == null && company == null && email == null && role == null;
+  }
+
+  /**
+   * @param avatar the user's new avatar, if the email changed (otherwise ignored)
+   * @return a `$set` of just the fields that were given
+   */
+  public Bson toSet(String avatar) {
+    List<Bson> sets = new ArrayList<>();
+    if (name != null) {
+      sets.add(Updates.set("name", name));
+    }
+    if (age != null) {
+      sets.add(Updates.set(UserController.AGE_KEY, age));
+    }
+    if (company != null) {
+      sets.add(Updates.set(UserController.COMPANY_KEY, company));
+    }
+    if (email != null) {
+      // The avatar comes from the email, so it changes along with it
+      sets.add(Updates.set("email", email));
+      sets.add(Updates.set("avatar", avatar));
+    }
+    if (role != null) {
+      sets.add(Updates.set(UserController.ROLE_KEY, role));
+    }
+    return Updates.combine(sets);
+  }
+}
@@ -0,0 +1,158 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoExecutionTimeoutException;
+
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Tests for `AdaptiveLimiter`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AdaptiveLimiterSpec {
+
+  private ExecutorService executor;
+  private CountDownLatch started;
+  private CountDownLatch release;
+
+  @BeforeEach
+  void setupEach() {
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+    started = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+  }
+
+  @AfterEach
+  void teardownEach() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(Duration.ofMillis(millis));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Hold one of `limiter`'s slots until `release` counts down
+  private void holdASlot(AdaptiveLimiter limiter) throws InterruptedException {
+    executor.submit(() -> limiter.run(() -> {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void unlimitedJustRunsOperations() {
+    Metrics metrics = new Metrics();
+    AdaptiveLimiter.unlimited().addMetrics(metrics, "mongo");
+
+    assertEquals("done", AdaptiveLimiter.unlimited().call(() -> "done"));
+    assertTrue(metrics.snapshot().isEmpty());
+  }
+
+  @Test
+  void limitGrowsWhileLatencyStaysFlatUnderLoad() throws Exception {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 100, 1000, 5000);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int worker = 0; worker < 16; worker++) {
+      workers.add(executor.submit(() -> {
+        for (int i = 0; i < 20; i++) {
+          limiter.run(() -> sleep(2));
+        }
+      }));
+    }
+    for (Future<?> worker : workers) {
+      worker.get(30, TimeUnit.SECONDS);
+    }
+
+    assertTrue(limiter.limit() > 4, "limit was " + limiter.limit());
+    assertEquals(0, limiter.inFlight());
+    assertEquals(0, limiter.rejected());
+  }
+
+  @Test
+  void limitShrinksWhenLatencyRises() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(20, 4, 100, 0, 0);
+    for (int i = 0; i < 50; i++) {
+      limiter.run(() -> sleep(1));
+    }
+    for (int i = 0; i < 10; i++) {
+      limiter.run(() -> sleep(25));
+    }
+
+    assertTrue(limiter.limit() < 20, "limit was " + limiter.limit());
+    assertTrue(limiter.limit() >= 4);
+  }
+
+  @Test
+  void timeoutsShrinkTheLimitRightAway() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(20, 4, 100, 0, 0);
+
+    assertThrows(MongoExecutionTimeoutException.class, () -> limiter.run(() -> {
+      throw new MongoExecutionTimeoutException(50, "operation exceeded time limit");
+    }));
+
+    assertEquals(18, limiter.limit());
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  void operationsPastTheQueueAreRejected() throws Exception {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1, 0, 1000);
+    holdASlot(limiter);
+
+    assertThrows(ServiceUnavailableResponse.class, () -> limiter.call(() -> "too many"));
+    assertEquals(1, limiter.rejected());
+    assertEquals(1, limiter.inFlight());
+  }
+
+  @Test
+  void queuedOperationsRunOnceThereIsRoom() throws Exception {
+    AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 1, 1, 5000);
+    holdASlot(limiter);
+
+    Future<String> queued = executor.submit(() -> limiter.call(() -> "my turn"));
+    while (limiter.waiting() == 0) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+
+    assertEquals("my turn", queued.get(5, TimeUnit.SECONDS));
+    assertEquals(0, limiter.rejected());
+  }
+
+  @Test
+  void reportsMetrics() {
+    Metrics metrics = new Metrics();
+    AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100, 0, 0);
+    limiter.addMetrics(metrics, "mongo");
+
+    assertEquals(Map.of("mongo.limit", 10L, "mongo.inFlight", 0L, "mongo.waiting", 0L, "mongo.rejected", 0L),
+      metrics.snapshot());
+  }
+}
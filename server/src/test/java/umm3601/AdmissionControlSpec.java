@@ -0,0 +1,149 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import io.javalin.http.Handler;
+import io.javalin.http.Header;
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.AdmissionControl.Limit;
+import umm3601.AdmissionControl.Priority;
+
+/**
+ * Tests for `AdmissionControl`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AdmissionControlSpec {
+
+  private Context ctx;
+  private ExecutorService executor;
+  private CountDownLatch started;
+  private CountDownLatch release;
+  private Handler blocking;
+
+  @BeforeEach
+  void setupEach() {
+    ctx = mock(Context.class);
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+    started = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    blocking = context -> {
+      started.countDown();
+      release.await();
+    };
+  }
+
+  @AfterEach
+  void teardownEach() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  private static AdmissionControl admission(Limit low, long maxWaitMillis) {
+    return new AdmissionControl(Map.of(Priority.LOW, low), maxWaitMillis, 7);
+  }
+
+  @Test
+  void unlimitedDoesntWrapHandlers() {
+    Handler handler = context -> { };
+
+    assertSame(handler, AdmissionControl.unlimited().limit(Priority.LOW, handler));
+    assertSame(handler, admission(new Limit(1, 0), 0).limit(Priority.HIGH, handler));
+  }
+
+  @Test
+  void permitsAreReturnedWhenTheHandlerFinishesOrFails() throws Exception {
+    AdmissionControl admission = admission(new Limit(1, 0), 0);
+    Handler failing = admission.limit(Priority.LOW, context -> {
+      throw new IllegalStateException("boom");
+    });
+
+    assertThrows(IllegalStateException.class, () -> failing.handle(ctx));
+    admission.limit(Priority.LOW, context -> { }).handle(ctx);
+
+    assertEquals(0, admission.running(Priority.LOW));
+    assertEquals(0, admission.shed(Priority.LOW));
+  }
+
+  @Test
+  void requestsPastTheQueueAreShedWithRetryAfter() throws Exception {
+    AdmissionControl admission = admission(new Limit(1, 0), 1000);
+    Handler limited = admission.limit(Priority.LOW, blocking);
+    executor.submit(() -> {
+      limited.handle(mock(Context.class));
+      return null;
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertThrows(ServiceUnavailableResponse.class, () -> limited.handle(ctx));
+    verify(ctx).header(Header.RETRY_AFTER, "7");
+    assertEquals(1, admission.running(Priority.LOW));
+    assertEquals(1, admission.shed(Priority.LOW));
+  }
+
+  @Test
+  void queuedRequestsAreShedIfTheyWaitTooLong() throws Exception {
+    AdmissionControl admission = admission(new Limit(1, 1), 10);
+    Handler limited = admission.limit(Priority.LOW, blocking);
+    executor.submit(() -> {
+      limited.handle(mock(Context.class));
+      return null;
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertThrows(ServiceUnavailableResponse.class, () -> limited.handle(ctx));
+    assertEquals(1, admission.shed(Priority.LOW));
+  }
+
+  @Test
+  void queuedRequestsRunOnceThereIsRoom() throws Exception {
+    AdmissionControl admission = admission(new Limit(1, 1), 5000);
+    Handler limited = admission.limit(Priority.LOW, blocking);
+    executor.submit(() -> {
+      limited.handle(mock(Context.class));
+      return null;
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    Future<?> queued = executor.submit(() -> {
+      admission.limit(Priority.LOW, context -> { }).handle(ctx);
+      return null;
+    });
+    release.countDown();
+    queued.get(5, TimeUnit.SECONDS);
+
+    assertEquals(0, admission.shed(Priority.LOW));
+  }
+
+  @Test
+  void aSaturatedClassDoesntHoldUpOtherClasses() throws Exception {
+    AdmissionControl admission = new AdmissionControl(
+      Map.of(Priority.LOW, new Limit(1, 0), Priority.HIGH, new Limit(1, 0)), 0, 1);
+    Handler low = admission.limit(Priority.LOW, blocking);
+    executor.submit(() -> {
+      low.handle(mock(Context.class));
+      return null;
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    admission.limit(Priority.HIGH, context -> { }).handle(ctx);
+
+    assertEquals(0, admission.shed(Priority.HIGH));
+  }
+}
@@ -0,0 +1,128 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Tests for `BatchLoader`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class BatchLoaderSpec {
+
+  private static final Duration WAIT = Duration.ofSeconds(5);
+
+  private ExecutorService executor;
+  // The keys of each batch that was looked up
+  private List<List<Integer>> batches;
+
+  @BeforeEach
+  void setupEach() {
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+    batches = new ArrayList<>();
+  }
+
+  @AfterEach
+  void teardownEach() {
+    executor.shutdownNow();
+  }
+
+  // "Finds" the even keys, as their own string
+  private synchronized Map<Integer, String> findEven(List<Integer> keys, Duration maxTime) {
+    batches.add(keys);
+    Map<Integer, String> found = new HashMap<>();
+    for (Integer key : keys) {
+      if (key % 2 == 0) {
+        found.put(key, "value " + key);
+      }
+    }
+    return found;
+  }
+
+  private List<Future<String>> loadConcurrently(BatchLoader<Integer, String> loader, int count) {
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      int key = i;
+      results.add(executor.submit(() -> loader.load(key, WAIT)));
+    }
+    return results;
+  }
+
+  @Test
+  void withoutAWindowEveryLookupIsItsOwnQuery() {
+    BatchLoader<Integer, String> loader = new BatchLoader<>(this::findEven, Duration.ZERO, 100);
+
+    assertEquals("value 2", loader.load(2, WAIT));
+    assertNull(loader.load(3, WAIT));
+    assertEquals(List.of(List.of(2), List.of(3)), batches);
+    assertEquals(2, loader.batches());
+  }
+
+  @Test
+  void concurrentLookupsShareAQuery() throws Exception {
+    BatchLoader<Integer, String> loader = new BatchLoader<>(this::findEven, Duration.ofMillis(200), 100);
+    List<Future<String>> results = loadConcurrently(loader, 10);
+
+    for (int key = 0; key < 10; key++) {
+      String expected = key % 2 == 0 ? "value " + key : null;
+      assertEquals(expected, results.get(key).get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(10, loader.lookups());
+    assertEquals(1, loader.batches());
+  }
+
+  @Test
+  void fullBatchesRunRightAway() throws Exception {
+    // A window this long would time the test out, if full batches waited for it
+    BatchLoader<Integer, String> loader = new BatchLoader<>(this::findEven, Duration.ofMinutes(10), 4);
+    List<Future<String>> results = loadConcurrently(loader, 4);
+
+    for (Future<String> result : results) {
+      result.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals(1, loader.batches());
+    assertEquals(4, batches.get(0).size());
+  }
+
+  @Test
+  void failuresGoToEveryLookupInTheBatch() throws Exception {
+    ServiceUnavailableResponse failure = new ServiceUnavailableResponse("busy");
+    BatchLoader<Integer, String> loader = new BatchLoader<>((keys, maxTime) -> {
+      throw failure;
+    }, Duration.ofMillis(200), 100);
+    List<Future<String>> results = loadConcurrently(loader, 3);
+
+    for (Future<String> result : results) {
+      ExecutionException thrown = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+      assertSame(failure, thrown.getCause());
+    }
+  }
+
+  @Test
+  void reportsMetrics() {
+    Metrics metrics = new Metrics();
+    BatchLoader<Integer, String> loader = new BatchLoader<>(this::findEven, Duration.ZERO, 100);
+    loader.addMetrics(metrics, "batch.todos");
+    loader.load(1, WAIT);
+
+    assertEquals(Map.of("batch.todos.lookups", 1L, "batch.todos.batches", 1L), metrics.snapshot());
+  }
+}
@@ -0,0 +1,58 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests for the `BsonJsonTranscoder`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class BsonJsonTranscoderSpec {
+
+  private static ObjectMapper mapper = new ObjectMapper();
+
+  private static RawBsonDocument raw(Document document) {
+    return new RawBsonDocument(document, new DocumentCodec());
+  }
+
+  @Test
+  void emptyInputGivesAnEmptyArray() {
+    assertEquals("[]", new String(BsonJsonTranscoder.toJsonArray(List.of()), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void objectIdsAreWrittenAsHexStrings() throws IOException {
+    ObjectId id = new ObjectId();
+    byte[] json = BsonJsonTranscoder.toJsonArray(List.of(
+      raw(new Document("_id", id).append("owner", "Fry").append("status", true)),
+      raw(new Document("_id", new ObjectId()).append("owner", "Jill").append("age", 37))));
+
+    JsonNode array = mapper.readTree(json);
+    assertTrue(array.isArray());
+    assertEquals(2, array.size());
+    assertEquals(id.toHexString(), array.get(0).get("_id").asText());
+    assertEquals("Fry", array.get(0).get("owner").asText());
+    assertTrue(array.get(0).get("status").isBoolean());
+    assertEquals(37, array.get(1).get("age").asInt());
+    assertTrue(array.get(1).get("age").isInt());
+  }
+
+  @Test
+  void nonAsciiTextSurvivesTheTrip() throws IOException {
+    byte[] json = BsonJsonTranscoder.toJsonArray(List.of(raw(new Document("body", "Crème brûlée ☕"))));
+    assertEquals("Crème brûlée ☕", mapper.readTree(json).get(0).get("body").asText());
+  }
+}
@@ -0,0 +1,151 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+
+/**
+ * Tests for `ChangeFeed`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ChangeFeedSpec {
+
+  private static final Duration WAIT = Duration.ofSeconds(5);
+
+  private static ChangeFeed.Change todo(String type, String id) {
+    return new ChangeFeed.Change("todos", type, id, Map.of("_id", id));
+  }
+
+  @Test
+  void subscribersGetChangesInOrder() throws InterruptedException {
+    ChangeFeed feed = new ChangeFeed(10);
+    ChangeFeed.Subscription subscription = feed.subscribe(Map.of());
+
+    feed.publish(todo("insert", "a"), Map.of());
+    feed.publish(todo("delete", "a"), Map.of());
+
+    assertEquals(todo("insert", "a"), subscription.next(WAIT));
+    assertEquals(todo("delete", "a"), subscription.next(WAIT));
+    assertNull(subscription.next(Duration.ofMillis(50)));
+    assertEquals(2, feed.published());
+  }
+
+  @Test
+  void subscriptionsAreNarrowedByAttributes() throws InterruptedException {
+    ChangeFeed feed = new ChangeFeed(10);
+    ChangeFeed.Subscription blanches = feed.subscribe(Map.of("owner", "Blanche"));
+    ChangeFeed.Subscription ohmnet = feed.subscribe(Map.of("company", "OHMNET"));
+    ChangeFeed.Subscription users = feed.subscribe(Map.of("collection", "users"));
+
+    feed.publish(todo("insert", "a"), ChangeFeed.attributes("owner", "Fry", "category", null));
+    feed.publish(todo("insert", "b"), ChangeFeed.attributes("owner", "Blanche", "category", "homework"));
+    ChangeFeed.Change sam = new ChangeFeed.Change("users", "insert", "c", Map.of());
+    feed.publish(sam, ChangeFeed.attributes("company", "OHMNET"));
+
+    assertEquals(todo("insert", "b"), blanches.next(WAIT));
+    assertEquals(sam, ohmnet.next(WAIT));
+    assertEquals(sam, users.next(WAIT));
+    assertNull(blanches.next(Duration.ofMillis(50)));
+  }
+
+  @Test
+  void slowSubscribersLoseTheirOldestChanges() throws InterruptedException {
+    ChangeFeed feed = new ChangeFeed(2);
+    ChangeFeed.Subscription subscription = feed.subscribe(Map.of());
+
+    feed.publish(todo("insert", "a"), Map.of());
+    feed.publish(todo("insert", "b"), Map.of());
+    feed.publish(todo("insert", "c"), Map.of());
+    for (int i = 0; i < 100 && feed.dropped() == 0; i++) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(1, feed.dropped());
+    assertEquals(todo("insert", "b"), subscription.next(WAIT));
+    assertEquals(todo("insert", "c"), subscription.next(WAIT));
+  }
+
+  @Test
+  void changesPastTheBacklogOverflowInsteadOfWaiting() throws InterruptedException {
+    ChangeFeed feed = new ChangeFeed(1000, 1);
+    ChangeFeed.Subscription subscription = feed.subscribe(Map.of());
+
+    for (int i = 0; i < 100; i++) {
+      feed.publish(todo("insert", "t" + i), Map.of());
+    }
+
+    // Every change was either handed to the subscriber or counted as overflowed
+    int queued = 0;
+    while (subscription.next(Duration.ofMillis(200)) != null) {
+      queued++;
+    }
+    assertEquals(100, queued + feed.overflowed());
+  }
+
+  @Test
+  void deletesOnlyHoldTheIdAndAttributes() {
+    ChangeFeed.Change change =
+      ChangeFeed.deleted("todos", "a", ChangeFeed.attributes("owner", "Fry", "category", null));
+
+    assertEquals("delete", change.type());
+    assertEquals("a", change.id());
+    assertEquals(Map.of("_id", "a", "owner", "Fry"), change.document());
+  }
+
+  @Test
+  void streamsChangesToClientsUntilTheyLeave() {
+    ChangeFeed feed = new ChangeFeed(10);
+    SseClient client = mock(SseClient.class);
+    Context ctx = mock(Context.class);
+    when(client.ctx()).thenReturn(ctx);
+    when(ctx.queryParam("owner")).thenReturn("Blanche");
+
+    feed.stream(client);
+    assertEquals(1, feed.subscribers());
+    feed.publish(todo("insert", "a"), ChangeFeed.attributes("owner", "Blanche"));
+
+    verify(client).keepAlive();
+    verify(client, timeout(5000)).sendEvent(eq("insert"), eq(todo("insert", "a")));
+
+    ArgumentCaptor<Runnable> onClose = ArgumentCaptor.forClass(Runnable.class);
+    verify(client).onClose(onClose.capture());
+    onClose.getValue().run();
+    assertEquals(0, feed.subscribers());
+  }
+
+  @Test
+  void reportsMetrics() {
+    ChangeFeed feed = new ChangeFeed(10);
+    Metrics metrics = new Metrics();
+    feed.addMetrics(metrics, "changes");
+    feed.subscribe(Map.of());
+    feed.publish(todo("insert", "a"), Map.of());
+
+    assertEquals(1L, metrics.snapshot().get("changes.published"));
+    assertEquals(1L, metrics.snapshot().get("changes.subscribers"));
+    assertEquals(0L, metrics.snapshot().get("changes.dropped"));
+    assertEquals(0L, metrics.snapshot().get("changes.overflowed"));
+  }
+
+  @Test
+  void addsTheStreamRoute() {
+    Javalin server = mock(Javalin.class);
+    new ChangeFeed(10).addRoutes(server);
+    verify(server).sse(eq("/api/changes"), any());
+  }
+}
@@ -0,0 +1,117 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.mongodb.MongoExecutionTimeoutException;
+
+import io.javalin.http.Context;
+import io.javalin.http.GatewayTimeoutResponse;
+import io.javalin.validation.Validation;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Tests for `Deadlines` and `Deadline`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class DeadlinesSpec {
+
+  private Context ctx;
+  private Deadlines deadlines;
+
+  @BeforeEach
+  void setupEach() {
+    ctx = mock(Context.class);
+    deadlines = new Deadlines(Map.of(AdmissionControl.Priority.HIGH, Duration.ofSeconds(2)), Duration.ofSeconds(30));
+  }
+
+  // The deadline the handler set on `ctx`
+  private Deadline capturedDeadline() {
+    ArgumentCaptor<Deadline> captor = ArgumentCaptor.forClass(Deadline.class);
+    verify(ctx).attribute(eq(Deadline.ATTRIBUTE), captor.capture());
+    return captor.getValue();
+  }
+
+  private void clientAsksFor(String millis) {
+    when(ctx.header(Deadlines.TIMEOUT_HEADER)).thenReturn(millis);
+    when(ctx.headerAsClass(Deadlines.TIMEOUT_HEADER, Long.class))
+      .thenReturn(new Validation().validator(Deadlines.TIMEOUT_HEADER, Long.class, millis));
+  }
+
+  @Test
+  void requestsGetTheirPriorityClassBudget() throws Exception {
+    deadlines.within(AdmissionControl.Priority.HIGH, context -> { }).handle(ctx);
+
+    Duration remaining = capturedDeadline().remaining();
+    assertTrue(remaining.compareTo(Duration.ofSeconds(2)) <= 0);
+    assertTrue(remaining.compareTo(Duration.ofSeconds(1)) > 0);
+  }
+
+  @Test
+  void classesWithoutABudgetGetTheFallback() throws Exception {
+    deadlines.within(AdmissionControl.Priority.LOW, context -> { }).handle(ctx);
+
+    assertTrue(capturedDeadline().remaining().compareTo(Duration.ofSeconds(2)) > 0);
+  }
+
+  @Test
+  void clientsCanAskForLess() throws Exception {
+    clientAsksFor("500");
+    deadlines.within(AdmissionControl.Priority.HIGH, context -> { }).handle(ctx);
+
+    assertTrue(capturedDeadline().remaining().compareTo(Duration.ofMillis(500)) <= 0);
+  }
+
+  @Test
+  void clientsCantAskForMoreThanTheMax() throws Exception {
+    clientAsksFor("3600000");
+    deadlines.within(AdmissionControl.Priority.HIGH, context -> { }).handle(ctx);
+
+    Duration remaining = capturedDeadline().remaining();
+    assertTrue(remaining.compareTo(Duration.ofSeconds(30)) <= 0);
+    assertTrue(remaining.compareTo(Duration.ofSeconds(2)) > 0);
+  }
+
+  @Test
+  void badTimeoutHeadersAreRejected() {
+    clientAsksFor("-5");
+
+    assertThrows(ValidationException.class,
+      () -> deadlines.within(AdmissionControl.Priority.HIGH, context -> { }).handle(ctx));
+  }
+
+  @Test
+  void mongoTimeoutsBecomeGatewayTimeouts() {
+    assertThrows(GatewayTimeoutResponse.class, () -> deadlines.within(Duration.ofSeconds(1), context -> {
+      throw new MongoExecutionTimeoutException(50, "operation exceeded time limit");
+    }).handle(ctx));
+  }
+
+  @Test
+  void expiredDeadlinesHaveNoMaxTime() {
+    Deadline deadline = Deadline.after(Duration.ZERO);
+
+    assertEquals(Duration.ZERO, deadline.remaining());
+    assertThrows(GatewayTimeoutResponse.class, deadline::maxTimeMillis);
+  }
+
+  @Test
+  void requestsWithoutADeadlineGetTheFallback() {
+    long maxTime = Deadline.of(ctx).maxTimeMillis();
+
+    assertTrue(maxTime > 0 && maxTime <= Deadline.FALLBACK.toMillis());
+    assertTrue(Deadline.of(ctx, Duration.ofMillis(50)).remaining().compareTo(Duration.ofMillis(50)) <= 0);
+  }
+}
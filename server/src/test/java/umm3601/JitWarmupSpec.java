@@ -0,0 +1,139 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.Javalin;
+
+/**
+ * Tests for `JitWarmup`, replaying against a tiny stand-in server.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class JitWarmupSpec {
+
+  private final ObjectMapper mapper = JsonMappers.create();
+  private Javalin app;
+  private AtomicInteger gets;
+  private AtomicInteger noCacheGets;
+  private AtomicInteger posts;
+
+  @BeforeEach
+  void startServer() {
+    gets = new AtomicInteger();
+    noCacheGets = new AtomicInteger();
+    posts = new AtomicInteger();
+    app = Javalin.create()
+      .get("/api/things", ctx -> {
+        gets.incrementAndGet();
+        if ("no-cache".equals(ctx.header("Cache-Control"))) {
+          noCacheGets.incrementAndGet();
+        }
+        ctx.result("[]");
+      })
+      .post("/api/things", ctx -> posts.incrementAndGet())
+      .start(0);
+  }
+
+  @AfterEach
+  void stopServer() {
+    app.stop();
+  }
+
+  private static RequestSample sample(String method, String path, String query) {
+    return new RequestSample(0, method, path, path, query, null, 0, 0);
+  }
+
+  private URI base() {
+    return URI.create("http://localhost:" + app.port());
+  }
+
+  @Test
+  void replaysOnlyReadOnlyRequests() {
+    JitWarmup warmup = new JitWarmup(
+      List.of(sample("GET", "/api/things", "kind=a"), sample("POST", "/api/things", null)),
+      base(), Duration.ofSeconds(5));
+
+    assertEquals(1, warmup.mix().size());
+    int rounds = warmup.warmUp();
+
+    assertTrue(rounds > 0);
+    assertTrue(gets.get() > 0);
+    assertEquals(gets.get(), noCacheGets.get());
+    assertEquals(0, posts.get());
+  }
+
+  @Test
+  void stopsWhenOutOfTime() {
+    JitWarmup warmup = new JitWarmup(List.of(sample("GET", "/api/things", null)), base(), Duration.ZERO);
+
+    assertEquals(0, warmup.warmUp());
+    assertEquals(0, gets.get());
+  }
+
+  @Test
+  void givesUpIfTheServerIsntThere() {
+    URI nowhere = base();
+    app.stop();
+    JitWarmup warmup = new JitWarmup(List.of(sample("GET", "/api/things", null)), nowhere, Duration.ofSeconds(5));
+
+    assertEquals(0, warmup.warmUp());
+  }
+
+  @Test
+  void emptyMixDoesNothing() {
+    assertEquals(0, new JitWarmup(List.of(), base(), Duration.ofSeconds(5)).warmUp());
+  }
+
+  @Test
+  void stableOnlyWhenEveryRouteStaysWithinTolerance() {
+    Map<String, Long> before = Map.of("/a", 1000L, "/b", 2000L);
+
+    assertTrue(JitWarmup.stable(before, Map.of("/a", 1050L, "/b", 1900L), 0.10));
+    assertFalse(JitWarmup.stable(before, Map.of("/a", 1050L, "/b", 1500L), 0.10));
+    assertFalse(JitWarmup.stable(before, Map.of("/a", 1000L), 0.10));
+    assertFalse(JitWarmup.stable(Map.of(), Map.of("/a", 1000L), 0.10));
+    assertFalse(JitWarmup.stable(Map.of(), Map.of(), 0.10));
+  }
+
+  @Test
+  void bundledMixIsAllReadOnly() throws IOException {
+    List<RequestSample> mix = JitWarmup.loadMix(null, mapper);
+
+    assertFalse(mix.isEmpty());
+    assertTrue(mix.stream().allMatch(RequestSample::isReadOnly));
+    assertTrue(mix.stream().allMatch(sample -> sample.path().startsWith("/api/")));
+  }
+
+  @Test
+  void loadsMixFromAFile(@TempDir Path dir) throws IOException {
+    Path file = dir.resolve("mix.ndjson");
+    Files.writeString(file, """
+      {"method":"GET","route":"/api/todos","path":"/api/todos","query":"owner=Fry"}
+      {"method":"GET","path":"/api/users"}
+      """);
+
+    List<RequestSample> mix = JitWarmup.loadMix(file.toString(), mapper);
+
+    assertEquals(2, mix.size());
+    assertEquals("/api/todos?owner=Fry", mix.get(0).uri());
+    assertEquals("/api/users", mix.get(1).uri());
+    assertEquals("/api/users", mix.get(1).routeOrPath());
+  }
+}
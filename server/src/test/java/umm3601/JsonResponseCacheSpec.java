@@ -0,0 +1,172 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.Context;
+import io.javalin.http.Header;
+
+/**
+ * Tests for the `JsonResponseCache`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class JsonResponseCacheSpec {
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<byte[]> bytesCaptor;
+
+  private JsonResponseCache cache;
+
+  private AtomicInteger loads;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    cache = new JsonResponseCache(new ObjectMapper(), 60, 10, true);
+    loads = new AtomicInteger();
+    when(ctx.path()).thenReturn("/api/todos");
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+  }
+
+  private List<String> load() {
+    loads.incrementAndGet();
+    return List.of("a", "b");
+  }
+
+  @Test
+  void disabledCacheJustCallsJson() {
+    JsonResponseCache disabled = JsonResponseCache.disabled();
+    disabled.respond(ctx, "todos", this::load);
+    disabled.respond(ctx, "todos", this::load);
+
+    verify(ctx, never()).result(any(byte[].class));
+    assertEquals(2, loads.get());
+    assertEquals(0, disabled.size());
+  }
+
+  @Test
+  void secondRequestIsServedFromTheCache() {
+    cache.respond(ctx, "todos", this::load);
+    cache.respond(ctx, "todos", this::load);
+
+    assertEquals(1, loads.get());
+    verify(ctx, times(2)).result(bytesCaptor.capture());
+    assertEquals("[\"a\",\"b\"]", new String(bytesCaptor.getValue(), StandardCharsets.UTF_8));
+    verify(ctx, times(2)).header(Header.CONTENT_LENGTH, "9");
+  }
+
+  @Test
+  void invalidationForcesAReload() {
+    cache.respond(ctx, "todos", this::load);
+    cache.invalidate("users");
+    cache.respond(ctx, "todos", this::load);
+    assertEquals(1, loads.get());
+
+    cache.invalidate("todos");
+    cache.respond(ctx, "todos", this::load);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void noCacheRequestsGetAFreshResponseThatIsThenCached() {
+    cache.respond(ctx, "todos", this::load);
+    when(ctx.header(Header.CACHE_CONTROL)).thenReturn("no-cache");
+    cache.respond(ctx, "todos", this::load);
+    assertEquals(2, loads.get());
+
+    when(ctx.header(Header.CACHE_CONTROL)).thenReturn(null);
+    cache.respond(ctx, "todos", this::load);
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void largeResponsesAreSentPrecompressed() throws IOException {
+    String big = "x".repeat(JsonResponseCache.MIN_GZIP_SIZE * 2);
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip, deflate");
+
+    cache.respond(ctx, "todos", () -> big);
+
+    verify(ctx).header(Header.CONTENT_ENCODING, "gzip");
+    verify(ctx).header(Header.VARY, Header.ACCEPT_ENCODING);
+    verify(ctx).result(bytesCaptor.capture());
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytesCaptor.getValue()))) {
+      byte[] expected = new ObjectMapper().writeValueAsBytes(big);
+      assertArrayEquals(expected, in.readAllBytes());
+    }
+  }
+
+  @Test
+  void gzipTurnedDownWithAZeroQualityIsntSent() {
+    String big = "x".repeat(JsonResponseCache.MIN_GZIP_SIZE * 2);
+    when(ctx.header(Header.ACCEPT_ENCODING)).thenReturn("gzip;q=0, identity");
+
+    cache.respond(ctx, "todos", () -> big);
+
+    verify(ctx, never()).header(Header.CONTENT_ENCODING, "gzip");
+    verify(ctx).header(Header.VARY, Header.ACCEPT_ENCODING);
+  }
+
+  @Test
+  void readsQualityValuesInAcceptEncoding() {
+    assertTrue(JsonResponseCache.acceptsGzip("deflate, gzip;q=0.5"));
+    assertTrue(JsonResponseCache.acceptsGzip("*"));
+    assertFalse(JsonResponseCache.acceptsGzip("gzip;q=0"));
+    assertFalse(JsonResponseCache.acceptsGzip("gzip; q=0.0, *"));
+    assertFalse(JsonResponseCache.acceptsGzip("*;q=0"));
+    assertFalse(JsonResponseCache.acceptsGzip("deflate"));
+    assertFalse(JsonResponseCache.acceptsGzip(null));
+  }
+
+  @Test
+  void coalescingDisabledCacheStillLoadsEachRequestAndReportsIt() {
+    JsonResponseCache coalescing = new JsonResponseCache(new ObjectMapper(), 0, 0, false, true);
+    Metrics metrics = new Metrics();
+    coalescing.addMetrics(metrics, "cache");
+    coalescing.respond(ctx, "todos", this::load);
+    coalescing.invalidate("todos");
+    coalescing.respond(ctx, "todos", this::load);
+
+    verify(ctx, times(2)).json(List.of("a", "b"));
+    assertEquals(2, loads.get());
+    assertEquals(Map.of("cache.led", 2L, "cache.coalesced", 0L, "cache.inFlight", 0L), metrics.snapshot());
+  }
+
+  @Test
+  void keysIgnoreQueryParameterOrder() {
+    String first = JsonResponseCache.key("todos", "/api/todos",
+      Map.of("owner", List.of("Fry"), "status", List.of("complete")));
+    String second = JsonResponseCache.key("todos", "/api/todos",
+      Map.of("status", List.of("complete"), "owner", List.of("Fry")));
+
+    assertEquals(first, second);
+    assertEquals("todos|/api/todos?owner=Fry&status=complete", first);
+  }
+}
@@ -0,0 +1,57 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.AdmissionControl.Limit;
+import umm3601.AdmissionControl.Priority;
+
+/**
+ * Tests for `Metrics`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class MetricsSpec {
+
+  @Test
+  void reportsTheCurrentValueOfEachGauge() {
+    Metrics metrics = new Metrics();
+    AtomicLong count = new AtomicLong(3);
+    metrics.register("b.count", count::get);
+    metrics.register("a.constant", () -> 7);
+    count.set(5);
+
+    Context ctx = mock(Context.class);
+    metrics.getMetrics(ctx);
+
+    verify(ctx).json(Map.of("a.constant", 7L, "b.count", 5L));
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void reportsAdmissionControlClasses() {
+    Metrics metrics = new Metrics();
+    new AdmissionControl(Map.of(Priority.LOW, new Limit(1, 1)), 0, 1).addMetrics(metrics, "admission");
+
+    assertEquals(Map.of("admission.low.running", 0L, "admission.low.waiting", 0L, "admission.low.shed", 0L),
+      metrics.snapshot());
+  }
+
+  @Test
+  void addsRoute() {
+    Javalin server = mock(Javalin.class);
+    new Metrics().addRoutes(server);
+
+    verify(server).get(eq(Metrics.METRICS_PATH), any());
+  }
+}
@@ -0,0 +1,59 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Tests for `MultiGet`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class MultiGetSpec {
+
+  @Test
+  void parsesCommaSeparatedIdsInOrder() {
+    ObjectId first = new ObjectId();
+    ObjectId second = new ObjectId();
+
+    assertEquals(List.of(second, first), MultiGet.parseIds(second.toHexString() + "," + first.toHexString()));
+  }
+
+  @Test
+  void reportsEveryBadId() {
+    List<String> ids = List.of("nope", new ObjectId().toHexString(), "", "also-nope");
+
+    BadRequestResponse thrown = assertThrows(BadRequestResponse.class, () -> MultiGet.parseIds(ids));
+    assertTrue(thrown.getMessage().contains("nope, , also-nope"), thrown.getMessage());
+  }
+
+  @Test
+  void rejectsTooManyIds() {
+    List<String> ids = new ArrayList<>(Collections.nCopies(MultiGet.MAX_IDS + 1, new ObjectId().toHexString()));
+
+    assertThrows(BadRequestResponse.class, () -> MultiGet.parseIds(ids));
+    assertThrows(BadRequestResponse.class, () -> MultiGet.parseIds(List.of()));
+  }
+
+  @Test
+  void entriesFollowTheRequestedOrder() {
+    ObjectId found = new ObjectId();
+    ObjectId missing = new ObjectId();
+
+    List<MultiGet.Entry<String>> entries = MultiGet.inOrder(List.of(missing, found, found), Map.of(found, "here"));
+
+    assertEquals(List.of(
+      new MultiGet.Entry<>(missing.toHexString(), false, null),
+      new MultiGet.Entry<>(found.toHexString(), true, "here"),
+      new MultiGet.Entry<>(found.toHexString(), true, "here")), entries);
+  }
+}
@@ -0,0 +1,150 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests for `Readiness`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ReadinessSpec {
+
+  private Readiness readiness;
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    readiness = new Readiness(Duration.ofMillis(1));
+    ctx = mock(Context.class);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    readiness.addRoutes(mockServer);
+    verify(mockServer, times(2)).get(any(), any());
+  }
+
+  @Test
+  void liveIsAlwaysOk() {
+    readiness.getLive(ctx);
+
+    verify(ctx).json(Map.of("live", true));
+    verify(ctx).status(HttpStatus.OK);
+  }
+
+  @Test
+  void notReadyUntilEveryControllerHasWarmedUp() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Controller quick = mock(Controller.class);
+    Controller slow = new Controller() {
+      @Override
+      public void addRoutes(Javalin server) {
+      }
+
+      @Override
+      public void warmUp() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+
+    Future<?> done = readiness.warmUp(new Controller[] {quick, slow});
+
+    // The slow controller is still warming up
+    assertThrowsTimeout(done);
+    assertFalse(readiness.isReady());
+    readiness.getReady(ctx);
+    verify(ctx).json(Map.of("ready", false));
+    verify(ctx).status(HttpStatus.SERVICE_UNAVAILABLE);
+
+    release.countDown();
+    done.get(5, TimeUnit.SECONDS);
+
+    assertTrue(readiness.isReady());
+    readiness.getReady(ctx);
+    verify(ctx).json(Map.of("ready", true));
+    verify(ctx).status(HttpStatus.OK);
+    verify(quick).warmUp();
+  }
+
+  @Test
+  void failedWarmUpsAreRetried() throws Exception {
+    Controller flaky = mock(Controller.class);
+    doThrow(new IllegalStateException("no database yet"))
+      .doThrow(new IllegalStateException("still no database"))
+      .doNothing()
+      .when(flaky).warmUp();
+
+    readiness.warmUp(new Controller[] {flaky}).get(5, TimeUnit.SECONDS);
+
+    assertTrue(readiness.isReady());
+    verify(flaky, times(3)).warmUp();
+  }
+
+  @Test
+  void stepsAfterwardsRunBeforeReady() throws Exception {
+    Controller controller = mock(Controller.class);
+    List<String> ran = new ArrayList<>();
+    Runnable jit = () -> ran.add("jit " + readiness.isReady());
+
+    readiness.warmUp(new Controller[] {controller}, List.of(jit)).get(5, TimeUnit.SECONDS);
+
+    verify(controller).warmUp();
+    assertEquals(List.of("jit false"), ran);
+    assertTrue(readiness.isReady());
+  }
+
+  @Test
+  void failedStepsAfterwardsDontBlockReady() throws Exception {
+    Runnable broken = () -> {
+      throw new IllegalStateException("couldn't connect");
+    };
+
+    readiness.warmUp(new Controller[] {}, List.of(broken)).get(5, TimeUnit.SECONDS);
+
+    assertTrue(readiness.isReady());
+  }
+
+  @Test
+  void noControllersMeansReadyRightAway() throws Exception {
+    readiness.warmUp(new Controller[] {}).get(5, TimeUnit.SECONDS);
+
+    assertTrue(readiness.isReady());
+  }
+
+  private static void assertThrowsTimeout(Future<?> future) throws InterruptedException, ExecutionException {
+    try {
+      future.get(50, TimeUnit.MILLISECONDS);
+      throw new AssertionError("Expected the warm up to still be running");
+    } catch (TimeoutException expected) {
+      // Still running, as expected
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpResponseException;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Tests for the `RequestBodyReader`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RequestBodyReaderSpec {
+
+  /**
+   * A tiny body to read.
+   */
+  @SuppressWarnings("checkstyle:visibilitymodifier")
+  static class Note {
+    public String text;
+  }
+
+  private static final ValidationRules<Note> RULES = ValidationRules.<Note>builder()
+    .field("text", note -> note.text, ValidationRules::notBlank, "Note must have text")
+    .build();
+
+  private RequestBodyReader reader;
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    reader = new RequestBodyReader(JsonMappers.create(), 1000);
+    ctx = mock(Context.class);
+  }
+
+  private void withBody(String body) {
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void readsAndValidatesALegalBody() {
+    withBody("{\"text\": \"Buy milk\"}");
+
+    assertEquals("Buy milk", reader.read(ctx, Note.class, RULES).text);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void leavesTheBodyForOthersToSee() {
+    withBody("{\"text\": \"Buy milk\"}");
+    reader.read(ctx, Note.class, RULES);
+
+    ArgumentCaptor<Supplier<String>> body = ArgumentCaptor.forClass(Supplier.class);
+    verify(ctx).attribute(eq(RequestBodyReader.BODY_ATTRIBUTE), body.capture());
+    assertEquals("{\"text\": \"Buy milk\"}", body.getValue().get());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void longBodiesArentLeftForOthers() {
+    withBody("{\"text\": \"" + "a".repeat(RequestBodyReader.EXCERPT_BYTES) + "\"}");
+    reader.read(ctx, Note.class, RULES);
+
+    ArgumentCaptor<Supplier<String>> body = ArgumentCaptor.forClass(Supplier.class);
+    verify(ctx).attribute(eq(RequestBodyReader.BODY_ATTRIBUTE), body.capture());
+    assertNull(body.getValue().get());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void longBodiesAreLeftWhenAskedFor() {
+    String json = "{\"text\": \"" + "a".repeat(RequestBodyReader.EXCERPT_BYTES) + "\"}";
+    withBody(json);
+    when(ctx.attribute(RequestBodyReader.KEEP_BODY_ATTRIBUTE)).thenReturn(true);
+    reader.read(ctx, Note.class, RULES);
+
+    ArgumentCaptor<Supplier<String>> body = ArgumentCaptor.forClass(Supplier.class);
+    verify(ctx).attribute(eq(RequestBodyReader.BODY_ATTRIBUTE), body.capture());
+    assertEquals(json, body.getValue().get());
+  }
+
+  @Test
+  void rulesAreApplied() {
+    withBody("{\"text\": \"\"}");
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> reader.read(ctx, Note.class, RULES));
+    assertTrue(exception.getErrors().get(ValidationRules.REQUEST_BODY_KEY).get(0).getMessage()
+      .contains("Note must have text"));
+  }
+
+  @Test
+  void tooLargeContentLengthIsRejectedWithoutReading() {
+    when(ctx.contentLength()).thenReturn(1001);
+
+    HttpResponseException exception =
+      assertThrows(HttpResponseException.class, () -> reader.read(ctx, Note.class, RULES));
+    assertEquals(413, exception.getStatus());
+  }
+
+  @Test
+  void tooLargeBodiesAreRejectedWhileStreaming() {
+    // No (honest) Content-Length, so it's only caught while reading
+    withBody("{\"text\": \"" + "x".repeat(2000) + "\"}");
+
+    HttpResponseException exception =
+      assertThrows(HttpResponseException.class, () -> reader.read(ctx, Note.class, RULES));
+    assertEquals(413, exception.getStatus());
+  }
+
+  @Test
+  void parseErrorsIncludeOnlyAnExcerptOfTheBody() {
+    reader = new RequestBodyReader(JsonMappers.create(), 100_000);
+    String padding = "y".repeat(5000);
+    withBody("{\"text\": [\"not a string\"], \"padding\": \"" + padding + "\"}");
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> reader.read(ctx, Note.class, RULES));
+    String message = exception.getErrors().get(ValidationRules.REQUEST_BODY_KEY).get(0).getMessage();
+    assertTrue(message.contains("not a string"));
+    assertTrue(message.length() < RequestBodyReader.EXCERPT_BYTES + 500);
+    assertTrue(message.endsWith("..."));
+  }
+
+  @Test
+  void nullBodiesAreRejected() {
+    withBody("null");
+
+    assertThrows(ValidationException.class, () -> reader.read(ctx, Note.class, RULES));
+  }
+}
@@ -0,0 +1,161 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.GatewayTimeoutResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Tests for `SingleFlight`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SingleFlightSpec {
+
+  private static final Duration WAIT = Duration.ofSeconds(5);
+
+  private SingleFlight flights;
+  private ExecutorService executor;
+  private CountDownLatch started;
+  private CountDownLatch release;
+  private AtomicInteger loads;
+
+  @BeforeEach
+  void setupEach() {
+    flights = new SingleFlight();
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+    started = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    loads = new AtomicInteger();
+  }
+
+  @AfterEach
+  void teardownEach() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  // A load that blocks until `release` counts down
+  private String slowLoad() {
+    loads.incrementAndGet();
+    started.countDown();
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "loaded";
+  }
+
+  // Wait until `count` callers are waiting on the leader's load
+  private void awaitCoalesced(long count) throws InterruptedException {
+    while (flights.coalesced() < count) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  void concurrentCallersShareOneLoad() throws Exception {
+    List<Future<String>> callers = new ArrayList<>();
+    callers.add(executor.submit(() -> flights.run("key", WAIT, this::slowLoad)));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 9; i++) {
+      callers.add(executor.submit(() -> flights.run("key", WAIT, this::slowLoad)));
+    }
+    awaitCoalesced(9);
+    release.countDown();
+
+    for (Future<String> caller : callers) {
+      assertEquals("loaded", caller.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, loads.get());
+    assertEquals(1, flights.led());
+    assertEquals(9, flights.coalesced());
+    assertEquals(0, flights.inFlight());
+  }
+
+  @Test
+  void differentKeysDontShare() {
+    assertEquals("a", flights.run("a", WAIT, () -> "a"));
+    assertEquals("b", flights.run("b", WAIT, () -> "b"));
+
+    assertEquals(2, flights.led());
+    assertEquals(0, flights.coalesced());
+  }
+
+  @Test
+  void finishedLoadsArentReused() {
+    flights.run("key", WAIT, loads::incrementAndGet);
+    flights.run("key", WAIT, loads::incrementAndGet);
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void waitersGetTheLeadersException() throws Exception {
+    ServiceUnavailableResponse failure = new ServiceUnavailableResponse("busy");
+    Future<Object> leader = executor.submit(() -> flights.run("key", WAIT, () -> {
+      slowLoad();
+      throw failure;
+    }));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Future<Object> waiter = executor.submit(() -> flights.run("key", WAIT, () -> "not me"));
+    awaitCoalesced(1);
+    release.countDown();
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS));
+    assertSame(failure, thrown.getCause());
+    assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void waitersRunTheirOwnLoadWhenTheLeaderRunsOutOfTime() throws Exception {
+    Future<Object> leader = executor.submit(() -> flights.run("key", WAIT, () -> {
+      slowLoad();
+      throw Deadline.expired();
+    }));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    Future<String> waiter = executor.submit(() -> flights.run("key", WAIT, () -> "mine"));
+    awaitCoalesced(1);
+    release.countDown();
+
+    assertEquals("mine", waiter.get(5, TimeUnit.SECONDS));
+    assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+    assertEquals(2, flights.led());
+  }
+
+  @Test
+  void waitersGiveUpAfterMaxWait() throws Exception {
+    executor.submit(() -> flights.run("key", WAIT, this::slowLoad));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    assertThrows(GatewayTimeoutResponse.class, () -> flights.run("key", Duration.ofMillis(10), () -> "not me"));
+  }
+
+  @Test
+  void reportsMetrics() {
+    Metrics metrics = new Metrics();
+    flights.addMetrics(metrics, "cache");
+    flights.run("key", WAIT, () -> "loaded");
+
+    assertEquals(Map.of("cache.led", 1L, "cache.coalesced", 0L, "cache.inFlight", 0L), metrics.snapshot());
+  }
+}
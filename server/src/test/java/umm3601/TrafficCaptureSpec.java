@@ -0,0 +1,160 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests for `TrafficCapture`, writing to a temporary directory.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class TrafficCaptureSpec {
+
+  @TempDir
+  private Path dir;
+
+  @Mock
+  private Context ctx;
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    when(ctx.path()).thenReturn("/api/todos");
+    when(ctx.endpointHandlerPath()).thenReturn("/api/todos");
+    when(ctx.queryString()).thenReturn("owner=Fry");
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.status()).thenReturn(HttpStatus.OK);
+  }
+
+  private TrafficCapture capture(double rate, long segmentBytes, int segmentsKept) {
+    return new TrafficCapture(JsonMappers.create(), dir, rate, segmentBytes, segmentsKept);
+  }
+
+  private List<RequestSample> captured() throws IOException {
+    List<RequestSample> samples = new ArrayList<>();
+    for (Path segment : TrafficCapture.segments(dir)) {
+      try (InputStream in = new GZIPInputStream(Files.newInputStream(segment))) {
+        samples.addAll(RequestSample.readAll(in, JsonMappers.create()));
+      }
+    }
+    return samples;
+  }
+
+  @Test
+  void recordsSampledRequests() throws IOException {
+    TrafficCapture capture = capture(1.0, 1 << 20, 2);
+    capture.before(ctx);
+    verify(ctx).attribute(eq(TrafficCapture.START_ATTRIBUTE), anyLong());
+    verify(ctx).attribute(RequestBodyReader.KEEP_BODY_ATTRIBUTE, true);
+
+    when(ctx.attribute(TrafficCapture.START_ATTRIBUTE)).thenReturn(System.nanoTime());
+    capture.after(ctx);
+    capture.close();
+
+    List<RequestSample> samples = captured();
+    assertEquals(1, samples.size());
+    RequestSample sample = samples.get(0);
+    assertEquals("GET", sample.method());
+    assertEquals("/api/todos", sample.route());
+    assertEquals("/api/todos?owner=Fry", sample.uri());
+    assertEquals(200, sample.status());
+    assertNull(sample.body());
+    assertTrue(sample.latencyMicros() >= 0);
+    assertEquals(1, capture.written());
+  }
+
+  @Test
+  void recordsPostBodies() throws IOException {
+    TrafficCapture capture = capture(1.0, 1 << 20, 2);
+    when(ctx.method()).thenReturn(HandlerType.POST);
+    when(ctx.queryString()).thenReturn(null);
+    when(ctx.status()).thenReturn(HttpStatus.CREATED);
+    when(ctx.attribute(TrafficCapture.START_ATTRIBUTE)).thenReturn(System.nanoTime());
+    Supplier<String> body = () -> "{\"owner\": \"Fry\"}";
+    when(ctx.attribute(RequestBodyReader.BODY_ATTRIBUTE)).thenReturn(body);
+
+    capture.after(ctx);
+    capture.close();
+
+    RequestSample sample = captured().get(0);
+    assertEquals("POST", sample.method());
+    assertEquals("/api/todos", sample.uri());
+    assertEquals("{\"owner\": \"Fry\"}", sample.body());
+    assertEquals(201, sample.status());
+  }
+
+  @Test
+  void unsampledRequestsArentRecorded() throws IOException {
+    TrafficCapture capture = capture(0.0, 1 << 20, 2);
+    capture.before(ctx);
+    verify(ctx, never()).attribute(any(), any());
+
+    capture.after(ctx);
+    capture.close();
+
+    assertTrue(captured().isEmpty());
+  }
+
+  @Test
+  void nonApiRequestsArentSampled() {
+    TrafficCapture capture = capture(1.0, 1 << 20, 2);
+    when(ctx.path()).thenReturn("/ready");
+
+    capture.before(ctx);
+    capture.close();
+
+    verify(ctx, never()).attribute(any(), any());
+  }
+
+  @Test
+  void rotatesAndKeepsOnlyTheNewestSegments() throws IOException {
+    // Every sample is bigger than a whole segment, so each goes in its own file
+    TrafficCapture capture = capture(1.0, 1, 2);
+    when(ctx.attribute(TrafficCapture.START_ATTRIBUTE)).thenReturn(System.nanoTime());
+    for (int i = 0; i < 5; i++) {
+      capture.after(ctx);
+    }
+    capture.close();
+
+    assertEquals(5, capture.written());
+    assertEquals(2, TrafficCapture.segments(dir).size());
+    assertEquals(2, captured().size());
+  }
+
+  @Test
+  void disabledCaptureAddsNoHandlers() {
+    Javalin server = mock(Javalin.class);
+    TrafficCapture.disabled().addRoutes(server);
+    TrafficCapture.disabled().close();
+
+    verifyNoInteractions(server);
+  }
+}
@@ -0,0 +1,106 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
+
+/**
+ * Tests for `ValidationRules`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class ValidationRulesSpec {
+
+  /**
+   * Something small to validate.
+   */
+  @SuppressWarnings("checkstyle:visibilitymodifier")
+  static class Pet {
+    String name;
+    String tag;
+    int legs;
+
+    Pet(String name, String tag, int legs) {
+      this.name = name;
+      this.tag = tag;
+      this.legs = legs;
+    }
+  }
+
+  private static final ValidationRules<Pet> RULES = ValidationRules.<Pet>builder()
+    .field("name", pet -> pet.name, ValidationRules::notBlank, "Pet must have a name")
+    .field("tag", pet -> pet.tag, ValidationRules.matches(Pattern.compile("[A-Z]{3}-\\d+")), "Pet must have a tag")
+    .intField("legs", pet -> pet.legs, legs -> legs >= 0, "Pet can't have negative legs")
+    .build();
+
+  @Test
+  void legalObjectsPassWithoutReadingTheBody() {
+    AtomicInteger bodyReads = new AtomicInteger();
+    Pet pet = new Pet("Rex", "DOG-17", 4);
+
+    assertSame(pet, RULES.validate(pet, () -> {
+      bodyReads.incrementAndGet();
+      return "{}";
+    }));
+    assertEquals(0, bodyReads.get());
+  }
+
+  @Test
+  void everyFailedRuleIsReportedInOrder() {
+    AtomicInteger bodyReads = new AtomicInteger();
+    Pet pet = new Pet("", null, -3);
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> RULES.validate(pet, () -> {
+      bodyReads.incrementAndGet();
+      return "{\"name\": \"\"}";
+    }));
+
+    // The body went into every message, but was only read once
+    assertEquals(1, bodyReads.get());
+    List<ValidationError<Object>> errors = exception.getErrors().get(ValidationRules.REQUEST_BODY_KEY);
+    assertEquals(3, errors.size());
+
+    assertEquals("name", errors.get(0).getArgs().get("field"));
+    assertEquals("", errors.get(0).getValue());
+    assertEquals("Pet must have a name; body was {\"name\": \"\"}", errors.get(0).getMessage());
+
+    assertEquals("tag", errors.get(1).getArgs().get("field"));
+    assertNull(errors.get(1).getValue());
+
+    assertEquals("legs", errors.get(2).getArgs().get("field"));
+    assertEquals(-3, errors.get(2).getValue());
+    assertTrue(errors.get(2).getMessage().startsWith("Pet can't have negative legs"));
+  }
+
+  @Test
+  void patternsMustMatchTheWholeValue() {
+    Pet pet = new Pet("Rex", "xDOG-17x", 4);
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> RULES.validate(pet, () -> ""));
+
+    List<ValidationError<Object>> errors = exception.getErrors().get(ValidationRules.REQUEST_BODY_KEY);
+    assertEquals(1, errors.size());
+    assertEquals("xDOG-17x", errors.get(0).getValue());
+  }
+
+  @Test
+  void optionalFieldsCanBeLeftOut() {
+    ValidationRules<Pet> partial = ValidationRules.<Pet>builder()
+      .field("name", pet -> pet.name, ValidationRules.optional(ValidationRules::notBlank), "Pet must have a name")
+      .build();
+
+    partial.validate(new Pet(null, null, 0), () -> "{}");
+    partial.validate(new Pet("Rex", null, 0), () -> "{}");
+    assertThrows(ValidationException.class, () -> partial.validate(new Pet("", null, 0), () -> "{}"));
+  }
+}
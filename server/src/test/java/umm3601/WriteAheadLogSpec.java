@@ -0,0 +1,283 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoSocketReadException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+/**
+ * Tests for `WriteAheadLog`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class WriteAheadLogSpec {
+
+  /**
+   * A tiny document to log.
+   */
+  @SuppressWarnings({"VisibilityModifier"})
+  static class Note {
+    public String _id;
+    public String text;
+
+    Note() {
+    }
+
+    Note(String id, String text) {
+      this._id = id;
+      this.text = text;
+    }
+  }
+
+  private final ObjectMapper mapper = JsonMappers.create();
+
+  @TempDir
+  Path dir;
+  // The text of each note that was inserted
+  private List<String> inserted;
+
+  @BeforeEach
+  void setupEach() {
+    inserted = new ArrayList<>();
+  }
+
+  private WriteAheadLog open(int segmentBytes) throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(mapper, dir, segmentBytes, 100);
+    wal.register("notes", Note.class, notes -> notes.forEach(note -> inserted.add(note.text)));
+    return wal;
+  }
+
+  private long segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.filter(file -> file.getFileName().toString().startsWith("wal-")).count();
+    }
+  }
+
+  @Test
+  void appendedDocumentsAreDrainedInOrder() throws IOException {
+    WriteAheadLog wal = open(4096);
+    wal.append("notes", new Note("1", "first"));
+    wal.append("notes", new Note("2", "second"));
+    wal.append("notes", new Note("3", "third"));
+    assertEquals(3, wal.pending());
+
+    assertEquals(3, wal.drain());
+
+    assertEquals(List.of("first", "second", "third"), inserted);
+    assertEquals(3, wal.appended());
+    assertEquals(3, wal.drained());
+    assertEquals(0, wal.pending());
+    assertEquals(0, wal.drain());
+  }
+
+  @Test
+  void undrainedDocumentsAreRecoveredWhenReopened() throws IOException {
+    WriteAheadLog before = open(4096);
+    before.append("notes", new Note("1", "first"));
+    before.drain();
+    before.append("notes", new Note("2", "second"));
+    before.append("notes", new Note("3", "third"));
+
+    // The server "dies" here, and starts again
+    inserted.clear();
+    WriteAheadLog after = open(4096);
+    assertEquals(2, after.pending());
+    assertEquals(2, after.drain());
+    assertEquals(List.of("second", "third"), inserted);
+
+    // New documents go after the recovered ones
+    after.append("notes", new Note("4", "fourth"));
+    assertEquals(1, after.drain());
+    assertEquals(List.of("second", "third", "fourth"), inserted);
+  }
+
+  @Test
+  void rotatesSegmentsAndDeletesDrainedOnes() throws IOException {
+    WriteAheadLog wal = open(256);
+    for (int i = 0; i < 20; i++) {
+      wal.append("notes", new Note(String.valueOf(i), "note " + i));
+    }
+    assertTrue(segmentFiles() > 1);
+
+    // Everything is still there after a restart, across all the segments
+    WriteAheadLog reopened = open(256);
+    assertEquals(20, reopened.pending());
+    assertEquals(20, reopened.drain());
+    assertEquals(20, inserted.size());
+    assertEquals("note 19", inserted.get(19));
+    assertEquals(1, segmentFiles());
+
+    reopened.append("notes", new Note("20", "note 20"));
+    assertEquals(1, reopened.drain());
+    assertEquals("note 20", inserted.get(20));
+  }
+
+  @Test
+  void aTornRecordEndsTheLog() throws IOException {
+    WriteAheadLog before = open(4096);
+    before.append("notes", new Note("1", "first"));
+    before.append("notes", new Note("2", "second"));
+
+    // Damage the second record, as if the server died while writing it
+    Path segment = dir.resolve(String.format("wal-%020d.log", 0));
+    byte[] bytes = Files.readAllBytes(segment);
+    int second = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("second");
+    bytes[second] = 'S';
+    Files.write(segment, bytes);
+
+    WriteAheadLog after = open(4096);
+    assertEquals(1, after.pending());
+    after.append("notes", new Note("3", "third"));
+    assertEquals(2, after.drain());
+    assertEquals(List.of("first", "third"), inserted);
+  }
+
+  @Test
+  void duplicatesFromAnEarlierDrainAreIgnored() throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(mapper, dir, 4096, 100);
+    wal.register("notes", Note.class, notes -> {
+      throw new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+        List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0)),
+        null, new ServerAddress(), Set.of());
+    });
+    wal.append("notes", new Note("1", "first"));
+
+    assertEquals(1, wal.drain());
+    assertEquals(0, wal.pending());
+  }
+
+  @Test
+  void rejectedDocumentsAreDeadLetteredAndTheRestGoOn() throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(mapper, dir, 4096, 100);
+    wal.register("notes", Note.class, notes -> {
+      notes.forEach(note -> inserted.add(note.text));
+      throw new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+        List.of(new BulkWriteError(121, "validation failed", new BsonDocument(), 1)),
+        null, new ServerAddress(), Set.of());
+    });
+    wal.append("notes", new Note("1", "first"));
+    wal.append("notes", new Note("2", "second"));
+    wal.append("notes", new Note("3", "third"));
+
+    assertEquals(3, wal.drain());
+
+    assertEquals(0, wal.pending());
+    assertEquals(2, wal.drained());
+    assertEquals(1, wal.deadLettered());
+    List<String> deadLetters = Files.readAllLines(dir.resolve("dead-letters.ndjson"));
+    assertEquals(1, deadLetters.size());
+    WriteAheadLog.DeadLetter deadLetter = mapper.readValue(deadLetters.get(0), WriteAheadLog.DeadLetter.class);
+    assertEquals("notes", deadLetter.collection());
+    assertTrue(deadLetter.reason().contains("validation failed"));
+    assertEquals("second", mapper.readValue(deadLetter.document(), Note.class).text);
+    // Nothing is left to hold up what comes next
+    assertEquals(0, open(4096).pending());
+  }
+
+  @Test
+  void unreadableDocumentsAreDeadLettered() throws IOException {
+    WriteAheadLog wal = open(4096);
+    wal.append("notes", Map.of("_id", "1", "text", "first", "colour", "blue"));
+    wal.append("notes", new Note("2", "second"));
+
+    assertEquals(2, wal.drain());
+
+    assertEquals(List.of("second"), inserted);
+    assertEquals(1, wal.deadLettered());
+  }
+
+  @Test
+  void retryableErrorsLeaveTheDocumentsInTheLog() throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(mapper, dir, 4096, 100);
+    wal.register("notes", Note.class, notes -> {
+      throw new MongoSocketReadException("connection reset", new ServerAddress());
+    });
+    wal.append("notes", new Note("1", "first"));
+
+    assertThrows(MongoSocketReadException.class, wal::drain);
+    assertEquals(1, wal.pending());
+    assertEquals(0, wal.deadLettered());
+    assertEquals(1, open(4096).pending());
+  }
+
+  @Test
+  void concurrentAppendsShareForces() throws Exception {
+    WriteAheadLog wal = open(64 * 1024);
+    try (ExecutorService appenders = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<?>> appends = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        String id = String.valueOf(i);
+        appends.add(appenders.submit(() -> wal.append("notes", new Note(id, "note " + id))));
+      }
+      for (Future<?> append : appends) {
+        append.get(5, TimeUnit.SECONDS);
+      }
+    }
+
+    assertEquals(200, wal.pending());
+    assertTrue(wal.syncs() >= 1 && wal.syncs() <= 200);
+    // Every append was on disk by the time it returned
+    assertEquals(200, open(64 * 1024).pending());
+    assertEquals(200, wal.drain());
+  }
+
+  @Test
+  void rejectsDocumentsTooLargeForASegment() throws IOException {
+    WriteAheadLog wal = open(64);
+    assertThrows(IllegalArgumentException.class,
+      () -> wal.append("notes", new Note("1", "x".repeat(100))));
+    assertEquals(0, wal.pending());
+  }
+
+  @Test
+  void reportsMetrics() throws IOException {
+    WriteAheadLog wal = open(4096);
+    Metrics metrics = new Metrics();
+    wal.addMetrics(metrics, "wal");
+    wal.append("notes", new Note("1", "first"));
+    wal.append("notes", new Note("2", "second"));
+    wal.drain();
+    wal.append("notes", new Note("3", "third"));
+
+    assertEquals(2L, metrics.snapshot().get("wal.drained"));
+    assertEquals(3L, metrics.snapshot().get("wal.appended"));
+    assertEquals(1L, metrics.snapshot().get("wal.pending"));
+    assertEquals(0L, metrics.snapshot().get("wal.deadLettered"));
+    assertEquals(3L, metrics.snapshot().get("wal.syncs"));
+  }
+
+  @Test
+  void disabledLogIsntUsed() {
+    WriteAheadLog wal = WriteAheadLog.disabled();
+    Metrics metrics = new Metrics();
+    wal.addMetrics(metrics, "wal");
+
+    assertFalse(wal.isEnabled());
+    assertTrue(metrics.snapshot().isEmpty());
+  }
+}
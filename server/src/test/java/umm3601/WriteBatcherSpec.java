@@ -0,0 +1,140 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import io.javalin.http.InternalServerErrorResponse;
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Tests for `WriteBatcher`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class WriteBatcherSpec {
+
+  private static final Duration WAIT = Duration.ofSeconds(5);
+
+  private ExecutorService executor;
+  // Each batch that was inserted
+  private List<List<String>> inserted;
+
+  @BeforeEach
+  void setupEach() {
+    executor = Executors.newVirtualThreadPerTaskExecutor();
+    inserted = new ArrayList<>();
+  }
+
+  @AfterEach
+  void teardownEach() {
+    executor.shutdownNow();
+  }
+
+  private synchronized void insertMany(List<String> documents) {
+    inserted.add(documents);
+  }
+
+  private List<Future<?>> writeConcurrently(WriteBatcher<String> batcher, int count) {
+    List<Future<?>> writes = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      String document = "todo " + i;
+      writes.add(executor.submit(() -> batcher.write(document, WAIT)));
+    }
+    return writes;
+  }
+
+  @Test
+  void withoutAnIntervalEveryWriteIsItsOwnInsert() {
+    WriteBatcher<String> batcher = new WriteBatcher<>(this::insertMany, Duration.ZERO, 100, 10);
+    batcher.write("a", WAIT);
+    batcher.write("b", WAIT);
+
+    assertEquals(List.of(List.of("a"), List.of("b")), inserted);
+  }
+
+  @Test
+  void concurrentWritesShareAnInsert() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(this::insertMany, Duration.ofMillis(200), 100, 1000);
+    for (Future<?> write : writeConcurrently(batcher, 20)) {
+      write.get(5, TimeUnit.SECONDS);
+    }
+
+    assertEquals(20, batcher.written());
+    assertTrue(batcher.batches() < 20, "took " + batcher.batches() + " batches");
+    assertEquals(20, inserted.stream().mapToInt(List::size).sum());
+  }
+
+  @Test
+  void fullBatchesAreFlushedRightAway() throws Exception {
+    // An interval this long would time the test out, if full batches waited for it
+    WriteBatcher<String> batcher = new WriteBatcher<>(this::insertMany, Duration.ofMinutes(10), 5, 1000);
+    for (Future<?> write : writeConcurrently(batcher, 5)) {
+      write.get(5, TimeUnit.SECONDS);
+    }
+
+    assertEquals(5, batcher.written());
+  }
+
+  @Test
+  void writesPastCapacityAreRejected() throws Exception {
+    // Nothing is flushed during the test, so the first two writes just wait
+    WriteBatcher<String> batcher = new WriteBatcher<>(this::insertMany, Duration.ofMinutes(10), 100, 2);
+    writeConcurrently(batcher, 2);
+    while (batcher.queued() < 2) {
+      Thread.sleep(1);
+    }
+
+    assertThrows(ServiceUnavailableResponse.class, () -> batcher.write("one too many", WAIT));
+    assertEquals(1, batcher.rejected());
+  }
+
+  @Test
+  void onlyTheDocumentsThatFailedFail() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(documents -> {
+      int bad = documents.indexOf("bad");
+      if (bad >= 0) {
+        throw new MongoBulkWriteException(BulkWriteResult.unacknowledged(),
+          List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), bad)),
+          null, new ServerAddress(), Set.of());
+      }
+    }, Duration.ofMillis(200), 100, 1000);
+    Future<?> good = executor.submit(() -> batcher.write("good", WAIT));
+    Future<?> bad = executor.submit(() -> batcher.write("bad", WAIT));
+
+    good.get(5, TimeUnit.SECONDS);
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+    assertTrue(thrown.getCause() instanceof InternalServerErrorResponse);
+  }
+
+  @Test
+  void reportsMetrics() {
+    Metrics metrics = new Metrics();
+    WriteBatcher<String> batcher = new WriteBatcher<>(this::insertMany, Duration.ZERO, 100, 10);
+    batcher.addMetrics(metrics, "batch.todoWrites");
+    batcher.write("a", WAIT);
+
+    assertEquals(Map.of("batch.todoWrites.written", 1L, "batch.todoWrites.batches", 1L,
+      "batch.todoWrites.rejected", 0L, "batch.todoWrites.queued", 0L), metrics.snapshot());
+  }
+}
@@ -0,0 +1,135 @@
+package umm3601.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.bson.types.ObjectId;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.JsonMappers;
+import umm3601.todos.OwnerIdName;
+import umm3601.todos.Todo;
+import umm3601.todos.TodoByCategory;
+import umm3601.user.User;
+
+/**
+ * A small, self-contained benchmark comparing a stock Jackson `ObjectMapper`
+ * (which is what Javalin and MongoJack each used on their own) with the
+ * tuned mapper from `JsonMappers`.
+ *
+ * It serializes (and deserializes) response-sized lists of `Todo`s, `User`s,
+ * and `TodoByCategory` groups, and prints the average time per operation
+ * for each mapper along with the speedup.
+ *
+ * This isn't JMH, so treat the numbers as a comparison between the two
+ * mappers on the same machine rather than as absolute measurements. Run it
+ * with `./gradlew serializationBenchmark`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public final class SerializationBenchmark {
+
+  private static final int WARMUP_ROUNDS = 200;
+  private static final int MEASURED_ROUNDS = 500;
+
+  private SerializationBenchmark() {
+  }
+
+  /**
+   * An operation being benchmarked.
+   */
+  private interface Operation {
+    Object run(ObjectMapper mapper) throws IOException;
+  }
+
+  public static void main(String[] args) throws IOException {
+    List<Todo> todos = todos(5000);
+    List<User> users = users(2000);
+    List<TodoByCategory> groups = groups(200, 25);
+
+    ObjectMapper stock = new ObjectMapper();
+    ObjectMapper tuned = JsonMappers.create();
+
+    byte[] todoJson = stock.writeValueAsBytes(todos);
+
+    compare("serialize 5000 todos", stock, tuned, mapper -> mapper.writeValueAsBytes(todos));
+    compare("serialize 2000 users", stock, tuned, mapper -> mapper.writeValueAsBytes(users));
+    compare("serialize 200 groups", stock, tuned, mapper -> mapper.writeValueAsBytes(groups));
+    compare("deserialize 5000 todos", stock, tuned, mapper -> mapper.readValue(todoJson, Todo[].class));
+  }
+
+  private static void compare(String name, ObjectMapper stock, ObjectMapper tuned, Operation operation)
+      throws IOException {
+    double stockNanos = measure(stock, operation);
+    double tunedNanos = measure(tuned, operation);
+    System.out.printf(Locale.ROOT, "%-24s stock %10.1f us/op   tuned %10.1f us/op   speedup %.2fx%n",
+      name, stockNanos / 1000, tunedNanos / 1000, stockNanos / tunedNanos);
+  }
+
+  private static double measure(ObjectMapper mapper, Operation operation) throws IOException {
+    // Keep a reference to the results so the JIT can't decide the work is dead.
+    Object sink = null;
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      sink = operation.run(mapper);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_ROUNDS; i++) {
+      sink = operation.run(mapper);
+    }
+    long elapsed = System.nanoTime() - start;
+    if (sink == null) {
+      throw new IllegalStateException("benchmark produced no output");
+    }
+    return (double) elapsed / MEASURED_ROUNDS;
+  }
+
+  private static List<Todo> todos(int count) {
+    List<Todo> todos = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Todo todo = new Todo();
+      todo._id = new ObjectId().toHexString();
+      todo.owner = "Owner " + (i % 50);
+      todo.status = i % 2 == 0;
+      todo.body = "Ullamco irure laborum magna dolor non. Anim occaecat adipisicing cillum eu magna in " + i;
+      todo.category = "category " + (i % 4);
+      todos.add(todo);
+    }
+    return todos;
+  }
+
+  private static List<User> users(int count) {
+    List<User> users = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      User user = new User();
+      user._id = new ObjectId().toHexString();
+      user.name = "User " + i;
+      user.age = 20 + i % 50;
+      user.company = "Company " + (i % 20);
+      user.email = "user" + i + "@example.com";
+      user.role = "viewer";
+      user.avatar = "https://gravatar.com/avatar/?d=mp";
+      users.add(user);
+    }
+    return users;
+  }
+
+  private static List<TodoByCategory> groups(int count, int membersPerGroup) {
+    List<TodoByCategory> groups = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      TodoByCategory group = new TodoByCategory();
+      group._id = "category " + i;
+      group.count = membersPerGroup;
+      group.owners = new ArrayList<>(membersPerGroup);
+      for (int j = 0; j < membersPerGroup; j++) {
+        OwnerIdName member = new OwnerIdName();
+        member._id = new ObjectId().toHexString();
+        member.owner = "Owner " + j;
+        group.owners.add(member);
+      }
+      groups.add(group);
+    }
+    return groups;
+  }
+}
@@ -0,0 +1,96 @@
+package umm3601.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how long the installed server takes to start: the time from
+ * launching `bin/server` to its first successful (200) response to
+ * `GET /api/todos`, which includes JVM startup, class loading, connecting
+ * to MongoDB, and the first query.
+ *
+ * It starts the server several times without the AppCDS archive (the JDK's
+ * own default archive is still used), and several times with it, and
+ * prints the fastest and median times for each. Run it with
+ * `./gradlew startupBenchmark`, which builds the archive first and needs
+ * a MongoDB at `MONGO_ADDR` (default `localhost`).
+ *
+ * Usage: `StartupBenchmark <install dir> <archive file> [runs]`
+ */
+@SuppressWarnings({ "MagicNumber" })
+public final class StartupBenchmark {
+
+  private static final URI FIRST_REQUEST = URI.create("http://localhost:4567/api/todos");
+  private static final Duration GIVE_UP_AFTER = Duration.ofSeconds(60);
+  private static final int DEFAULT_RUNS = 5;
+
+  private StartupBenchmark() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    File installDir = new File(args[0]);
+    File archive = new File(args[1]);
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RUNS;
+
+    List<Long> without = new ArrayList<>();
+    List<Long> with = new ArrayList<>();
+    // Alternate, so neither one always runs with a warmer file cache
+    for (int i = 0; i < runs; i++) {
+      without.add(timeToFirstResponse(installDir, ""));
+      with.add(timeToFirstResponse(installDir, "-XX:SharedArchiveFile=" + archive.getAbsolutePath()));
+    }
+
+    report("without AppCDS archive", without);
+    report("with AppCDS archive", with);
+  }
+
+  private static long timeToFirstResponse(File installDir, String serverOpts)
+      throws IOException, InterruptedException {
+    ProcessBuilder builder = new ProcessBuilder(new File(installDir, "bin/server").getAbsolutePath())
+      .redirectErrorStream(true)
+      .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+    builder.environment().put("SERVER_OPTS", serverOpts);
+
+    HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(100)).build();
+    HttpRequest request = HttpRequest.newBuilder(FIRST_REQUEST).build();
+
+    long start = System.nanoTime();
+    Process server = builder.start();
+    try {
+      while (System.nanoTime() - start < GIVE_UP_AFTER.toNanos()) {
+        if (!server.isAlive()) {
+          throw new IllegalStateException("The server exited with " + server.exitValue() + " before responding");
+        }
+        try {
+          if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+            return System.nanoTime() - start;
+          }
+        } catch (ConnectException notListeningYet) {
+          // Keep trying
+        }
+        Thread.sleep(5);
+      }
+      throw new IllegalStateException("The server didn't respond within " + GIVE_UP_AFTER);
+    } finally {
+      server.destroy();
+      server.waitFor();
+    }
+  }
+
+  private static void report(String name, List<Long> nanos) {
+    List<Long> sorted = new ArrayList<>(nanos);
+    Collections.sort(sorted);
+    System.out.printf(Locale.ROOT, "%-24s fastest %6d ms   median %6d ms%n",
+      name, sorted.get(0) / 1_000_000, sorted.get(sorted.size() / 2) / 1_000_000);
+  }
+}
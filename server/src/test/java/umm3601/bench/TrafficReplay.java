@@ -0,0 +1,277 @@
+package umm3601.bench;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.JsonMappers;
+import umm3601.RequestSample;
+import umm3601.TrafficCapture;
+
+/**
+ * Replays traffic captured by `TrafficCapture` against a server, and
+ * reports each route's latency, optionally compared to an earlier run
+ * (e.g., against the previous build).
+ *
+ * Requests are sent at the rate they were captured at, sped up (or slowed
+ * down) by `--speed`; `--speed 0` sends them as fast as possible. Since
+ * captured traffic includes POSTs and DELETEs, point this at a test
+ * server, or pass `--read-only` to only replay GETs.
+ *
+ * It can also turn the captured traffic into a new mix for the JIT warm
+ * up (see `JitWarmup`): `--export-warmup-mix` writes the most common
+ * read-only requests, which can then be used with `WARMUP_MIX_FILE`
+ * (or copied over `src/main/resources/warmup-mix.ndjson`).
+ *
+ * Run it with `./gradlew trafficReplay --args="..."`.
+ *
+ * Usage: `TrafficReplay <capture dir or file> [--target <url>] [--speed <factor>]
+ * [--read-only] [--save <results.json>] [--baseline <results.json>]
+ * [--export-warmup-mix <mix.ndjson>] [--mix-size <n>]`
+ */
+@SuppressWarnings({ "MagicNumber" })
+public final class TrafficReplay {
+
+  // How many requests can be waiting on the server at once with `--speed 0`
+  private static final int MAX_IN_FLIGHT = 64;
+  private static final int DEFAULT_MIX_SIZE = 200;
+
+  /**
+   * The latencies seen for one route.
+   *
+   * @param count how many requests there were
+   * @param errors how many of them failed (5xx, or no response at all)
+   * @param p50Micros the median latency, in microseconds
+   * @param p99Micros the 99th percentile latency, in microseconds
+   */
+  public record RouteStats(int count, int errors, long p50Micros, long p99Micros) {
+  }
+
+  private TrafficReplay() {
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    Map<String, String> options = options(args);
+    ObjectMapper mapper = JsonMappers.create();
+    List<RequestSample> samples = read(Path.of(args[0]), mapper);
+    if (options.containsKey("--read-only")) {
+      samples = samples.stream().filter(RequestSample::isReadOnly).toList();
+    }
+    System.out.println("Read " + samples.size() + " captured requests");
+
+    if (options.containsKey("--export-warmup-mix")) {
+      int size = Integer.parseInt(options.getOrDefault("--mix-size", String.valueOf(DEFAULT_MIX_SIZE)));
+      List<RequestSample> mix = warmupMix(samples, size);
+      try (OutputStream out = Files.newOutputStream(Path.of(options.get("--export-warmup-mix")))) {
+        for (RequestSample sample : mix) {
+          out.write(mapper.writeValueAsBytes(sample));
+          out.write('\n');
+        }
+      }
+      System.out.println("Wrote a warm up mix of " + mix.size() + " requests");
+    }
+
+    if (!options.containsKey("--target")) {
+      return;
+    }
+    double speed = Double.parseDouble(options.getOrDefault("--speed", "1"));
+    Map<String, RouteStats> results = replay(samples, URI.create(options.get("--target")), speed);
+
+    Map<String, RouteStats> baseline = Map.of();
+    if (options.containsKey("--baseline")) {
+      baseline = mapper.readValue(Path.of(options.get("--baseline")).toFile(),
+        new TypeReference<Map<String, RouteStats>>() { });
+    }
+    report(results, baseline);
+    if (options.containsKey("--save")) {
+      mapper.writerWithDefaultPrettyPrinter().writeValue(Path.of(options.get("--save")).toFile(), results);
+    }
+  }
+
+  // `--flag value` pairs (and a bare `--read-only`) after the capture path
+  private static Map<String, String> options(String[] args) {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--read-only")) {
+        options.put(args[i], "true");
+      } else {
+        options.put(args[i], args[++i]);
+      }
+    }
+    return options;
+  }
+
+  /**
+   * Read all of the samples from a capture file, or from every capture file
+   * in a directory (oldest first). A file that's still being written is read
+   * up to the last flush.
+   *
+   * @param path a capture file, or a directory of them
+   * @param mapper the mapper to parse samples with
+   * @return the samples, in the order they were captured
+   * @throws IOException if the files can't be read
+   */
+  static List<RequestSample> read(Path path, ObjectMapper mapper) throws IOException {
+    List<Path> files = Files.isDirectory(path) ? TrafficCapture.segments(path) : List.of(path);
+    List<RequestSample> samples = new ArrayList<>();
+    for (Path file : files) {
+      try (BufferedReader lines = new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = lines.readLine()) != null) {
+          if (!line.isBlank()) {
+            samples.add(mapper.readValue(line, RequestSample.class));
+          }
+        }
+      } catch (EOFException stillBeingWritten) {
+        // Everything up to the last flush has been read
+      }
+    }
+    return samples;
+  }
+
+  /**
+   * The `size` most common read-only requests, most common first, stripped
+   * down to what `JitWarmup` needs.
+   *
+   * @param samples the captured requests
+   * @param size the most requests to put in the mix
+   * @return the warm up mix
+   */
+  static List<RequestSample> warmupMix(List<RequestSample> samples, int size) {
+    Map<String, List<RequestSample>> byUri = samples.stream()
+      .filter(RequestSample::isReadOnly)
+      .collect(Collectors.groupingBy(RequestSample::uri));
+    return byUri.values().stream()
+      .sorted(Comparator.comparingInt((List<RequestSample> same) -> same.size()).reversed())
+      .limit(size)
+      .map(same -> same.get(0))
+      .map(sample -> new RequestSample(0, sample.method(), sample.route(), sample.path(), sample.query(),
+        null, 0, 0))
+      .toList();
+  }
+
+  /**
+   * Send all of the `samples` to `target`, keeping their original spacing
+   * (divided by `speed`), and collect each route's latencies.
+   *
+   * @param samples the requests to send
+   * @param target where the server is listening, e.g., `http://localhost:4567`
+   * @param speed how much faster than captured to send them (0 for as fast as possible)
+   * @return each route's latencies
+   * @throws InterruptedException if interrupted while replaying
+   */
+  static Map<String, RouteStats> replay(List<RequestSample> samples, URI target, double speed)
+      throws InterruptedException {
+    HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+    Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+    Map<String, AtomicInteger> errors = new ConcurrentHashMap<>();
+    Semaphore inFlight = new Semaphore(speed > 0 ? Integer.MAX_VALUE : MAX_IN_FLIGHT);
+
+    long firstCaptured = samples.isEmpty() ? 0 : samples.get(0).timestamp();
+    long start = System.nanoTime();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (RequestSample sample : samples) {
+        if (speed > 0) {
+          long due = start + (long) ((sample.timestamp() - firstCaptured) * 1_000_000 / speed);
+          long wait = due - System.nanoTime();
+          if (wait > 0) {
+            Thread.sleep(Duration.ofNanos(wait));
+          }
+        }
+        inFlight.acquire();
+        executor.submit(() -> {
+          try {
+            send(client, target, sample, latencies, errors);
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+    }
+
+    Map<String, RouteStats> results = new TreeMap<>();
+    latencies.forEach((route, times) -> {
+      List<Long> sorted = times.stream().sorted().toList();
+      int failed = errors.getOrDefault(route, new AtomicInteger()).get();
+      results.put(route, new RouteStats(sorted.size(), failed, percentile(sorted, 0.50), percentile(sorted, 0.99)));
+    });
+    return results;
+  }
+
+  private static void send(HttpClient client, URI target, RequestSample sample,
+      Map<String, List<Long>> latencies, Map<String, AtomicInteger> errors) {
+    HttpRequest.BodyPublisher body = sample.body() == null
+      ? HttpRequest.BodyPublishers.noBody()
+      : HttpRequest.BodyPublishers.ofString(sample.body());
+    HttpRequest request = HttpRequest.newBuilder(target.resolve(sample.uri()))
+      .method(sample.method(), body)
+      .header("Content-Type", "application/json")
+      .header("Accept-Encoding", "gzip")
+      .build();
+    long begin = System.nanoTime();
+    boolean failed;
+    try {
+      failed = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() >= 500;
+    } catch (IOException e) {
+      failed = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    long micros = (System.nanoTime() - begin) / 1000;
+    latencies.computeIfAbsent(sample.routeOrPath(), route -> Collections.synchronizedList(new ArrayList<>()))
+      .add(micros);
+    if (failed) {
+      errors.computeIfAbsent(sample.routeOrPath(), route -> new AtomicInteger()).incrementAndGet();
+    }
+  }
+
+  private static long percentile(List<Long> sorted, double fraction) {
+    return sorted.isEmpty() ? 0 : sorted.get(Math.min(sorted.size() - 1, (int) (fraction * sorted.size())));
+  }
+
+  private static void report(Map<String, RouteStats> results, Map<String, RouteStats> baseline) {
+    System.out.println(String.format(Locale.ROOT, "%-32s %7s %6s %10s %10s %9s %9s",
+      "route", "count", "errors", "p50 (ms)", "p99 (ms)", "p50 diff", "p99 diff"));
+    results.forEach((route, stats) -> {
+      RouteStats before = baseline.get(route);
+      System.out.println(String.format(Locale.ROOT, "%-32s %7d %6d %10.2f %10.2f %9s %9s",
+        route, stats.count(), stats.errors(), stats.p50Micros() / 1000.0, stats.p99Micros() / 1000.0,
+        before == null ? "" : change(before.p50Micros(), stats.p50Micros()),
+        before == null ? "" : change(before.p99Micros(), stats.p99Micros())));
+    });
+  }
+
+  private static String change(long before, long after) {
+    return before == 0 ? "" : String.format(Locale.ROOT, "%+.1f%%", 100.0 * (after - before) / before);
+  }
+}
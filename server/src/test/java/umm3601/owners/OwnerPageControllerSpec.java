@@ -0,0 +1,186 @@
+package umm3601.owners;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.GatewayTimeoutResponse;
+import io.javalin.http.HttpStatus;
+import umm3601.todos.TodoController;
+import umm3601.user.UserController;
+
+/**
+ * Tests the logic of the OwnerPageController
+ */
+@SuppressWarnings({ "MagicNumber" })
+class OwnerPageControllerSpec {
+
+  private static final Duration DEADLINE = Duration.ofSeconds(5);
+
+  private OwnerPageController ownerPageController;
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<OwnerPage> ownerPageCaptor;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    MongoCollection<Document> userDocuments = db.getCollection("users");
+    userDocuments.drop();
+    userDocuments.insertMany(List.of(
+      new Document("name", "Fry").append("age", 25).append("company", "Planet Express")
+        .append("email", "fry@example.com").append("role", "viewer"),
+      new Document("name", "Leela").append("age", 27).append("company", "Planet Express")
+        .append("email", "leela@example.com").append("role", "admin")));
+
+    MongoCollection<Document> todoDocuments = db.getCollection("todos");
+    todoDocuments.drop();
+    todoDocuments.insertMany(List.of(
+      new Document("owner", "Fry").append("status", true).append("body", "Deliver").append("category", "work"),
+      new Document("owner", "Fry").append("status", false).append("body", "Nap").append("category", "home"),
+      new Document("owner", "Fry").append("status", false).append("body", "Eat").append("category", "home"),
+      new Document("owner", "Leela").append("status", true).append("body", "Pilot").append("category", "work")));
+
+    ownerPageController = new OwnerPageController(new UserController(db), new TodoController(db), DEADLINE);
+  }
+
+  @Test
+  void addsRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    ownerPageController.addRoutes(mockServer);
+    verify(mockServer).get(any(), any());
+  }
+
+  @Test
+  void getOwnerPageCombinesUsersAndTodos() {
+    when(ctx.pathParam("owner")).thenReturn("Fry");
+
+    ownerPageController.getOwnerPage(ctx);
+
+    verify(ctx).json(ownerPageCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    OwnerPage page = ownerPageCaptor.getValue();
+    assertEquals("Fry", page.owner);
+    assertEquals(1, page.users.size());
+    assertEquals("fry@example.com", page.users.get(0).email);
+    assertEquals(3, page.todos.size());
+    assertTrue(page.todos.stream().allMatch(todo -> todo.owner.equals("Fry")));
+    assertEquals(2, page.todosByStatus.size());
+    assertEquals("false", page.todosByStatus.get(0)._id);
+    assertEquals(2, page.todosByStatus.get(0).count);
+    assertEquals("true", page.todosByStatus.get(1)._id);
+    assertEquals(1, page.todosByStatus.get(1).count);
+  }
+
+  @Test
+  void getOwnerPageForUnknownOwnerIsEmpty() {
+    when(ctx.pathParam("owner")).thenReturn("Zoidberg");
+
+    ownerPageController.getOwnerPage(ctx);
+
+    verify(ctx).json(ownerPageCaptor.capture());
+    OwnerPage page = ownerPageCaptor.getValue();
+    assertEquals(0, page.users.size());
+    assertEquals(0, page.todos.size());
+    assertEquals(0, page.todosByStatus.size());
+  }
+
+  @Test
+  void aFailedQueryCancelsTheOthers() throws InterruptedException {
+    RuntimeException failure = new IllegalStateException("the users query failed");
+    CountDownLatch cancelled = new CountDownLatch(1);
+
+    UserController users = mock(UserController.class);
+    TodoController todos = mock(TodoController.class);
+    when(users.findUsersNamed(any(), any())).thenThrow(failure);
+    when(todos.findTodosOwnedBy(any(), any())).thenAnswer(invocation -> waitUntilCancelled(cancelled));
+    when(todos.countTodosByStatus(any(), any())).thenAnswer(invocation -> waitUntilCancelled(cancelled));
+    when(ctx.pathParam("owner")).thenReturn("Fry");
+
+    OwnerPageController controller = new OwnerPageController(users, todos, DEADLINE);
+
+    RuntimeException thrown = assertThrows(RuntimeException.class, () -> controller.getOwnerPage(ctx));
+    assertSame(failure, thrown);
+    // The slow queries were interrupted, rather than left to run out the deadline
+    assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void slowQueriesTimeOut() {
+    CountDownLatch cancelled = new CountDownLatch(1);
+
+    UserController users = mock(UserController.class);
+    TodoController todos = mock(TodoController.class);
+    when(users.findUsersNamed(any(), any())).thenReturn(List.of());
+    when(todos.findTodosOwnedBy(any(), any())).thenAnswer(invocation -> waitUntilCancelled(cancelled));
+    when(todos.countTodosByStatus(any(), any())).thenReturn(List.of());
+    when(ctx.pathParam("owner")).thenReturn("Fry");
+
+    OwnerPageController controller = new OwnerPageController(users, todos, Duration.ofMillis(50));
+
+    assertThrows(GatewayTimeoutResponse.class, () -> controller.getOwnerPage(ctx));
+  }
+
+  private static List<?> waitUntilCancelled(CountDownLatch cancelled) {
+    try {
+      Thread.sleep(DEADLINE.toMillis() * 2);
+    } catch (InterruptedException e) {
+      cancelled.countDown();
+    }
+    return List.of();
+  }
+}
@@ -1,6 +1,12 @@
 package umm3601.todos;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -13,10 +19,12 @@ import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.ArgumentMatchers.any;
 import org.mockito.Captor;
@@ -27,21 +35,33 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.MockitoAnnotations;
 
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
 
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.GoneResponse;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
-import io.javalin.validation.BodyValidator;
 import io.javalin.validation.Validation;
+import io.javalin.validation.ValidationError;
+import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import umm3601.ChangeFeed;
+import umm3601.GroupingOptions;
+import umm3601.JsonMappers;
+import umm3601.MultiGet;
+import umm3601.Services;
+import umm3601.WriteAheadLog;
 
 /**
  * Tests the logic of the TodoController
@@ -88,6 +108,17 @@ class TodoControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<byte[]> bytesCaptor;
+
+  /**
+   * @param json the JSON for a request body
+   * @return an input stream of that body, as the controller would get it from a request
+   */
+  private static InputStream bodyOf(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -124,6 +155,7 @@ class TodoControllerSpec {
     // Setup database
     MongoCollection<Document> TodoDocuments = db.getCollection("todos");
     TodoDocuments.drop();
+    db.getCollection(TodoController.JOURNAL).drop();
     List<Document> testTodos = new ArrayList<>();
     testTodos.add(
         new Document()
@@ -170,6 +202,7 @@ class TodoControllerSpec {
     verify(mockServer, Mockito.atLeast(3)).get(any(), any());
     verify(mockServer, Mockito.atLeastOnce()).post(any(), any());
     verify(mockServer, Mockito.atLeastOnce()).delete(any(), any());
+    verify(mockServer, Mockito.atLeastOnce()).patch(any(), any());
   }
 
   @Test
@@ -208,6 +241,25 @@ class TodoControllerSpec {
   }
 
 
+  @Test
+  void canGetAllTodosThroughRawBsonPassthrough() throws IOException {
+    TodoController passthroughController =
+      new TodoController(db, Services.builder().rawBsonPassthrough(true).build());
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+
+    passthroughController.getUsers(ctx);
+
+    // The passthrough path never builds `Todo`s, so it sends bytes rather than calling `ctx.json()`
+    verify(ctx).result(bytesCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+
+    Todo[] todos = javalinJackson.fromJsonString(
+      new String(bytesCaptor.getValue(), StandardCharsets.UTF_8), Todo[].class);
+    assertEquals(db.getCollection("todos").countDocuments(), todos.length);
+    // The `_id`s should be plain hex strings, just like when Jackson writes a `Todo`
+    assertTrue(Arrays.stream(todos).anyMatch(todo -> todo._id.equals(JimmysId.toHexString())));
+  }
+
   @Test
   void getOwner() {
     String owner = "Chris";
@@ -402,6 +454,100 @@ class TodoControllerSpec {
 
   }
 
+  @Captor
+  private ArgumentCaptor<ArrayList<TodoByStatus>> todoByStatusListCaptor;
+
+  @Captor
+  private ArgumentCaptor<ArrayList<TodoByOwner>> todoByOwnerListCaptor;
+
+  @Test
+  void getTodosGroupedByStatusWithMembersLimit() {
+    Validation validation = new Validation();
+    when(ctx.queryParamMap()).thenReturn(Map.of(GroupingOptions.MEMBERS_LIMIT_KEY, List.of("1")));
+    when(ctx.queryParamAsClass(GroupingOptions.MEMBERS_LIMIT_KEY, Integer.class))
+        .thenReturn(validation.validator(GroupingOptions.MEMBERS_LIMIT_KEY, Integer.class, "1"));
+
+    todoController.getTodosGroupedByStatus(ctx);
+
+    verify(ctx).json(todoByStatusListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    ArrayList<TodoByStatus> result = todoByStatusListCaptor.getValue();
+
+    // Incomplete (`false`) sorts before complete (`true`); the counts cover
+    // every todo, but each group only lists (at most) one of its todos.
+    assertEquals(2, result.size());
+    assertEquals("false", result.get(0)._id);
+    assertEquals(3, result.get(0).count);
+    assertEquals(1, result.get(0).owners.size());
+    assertEquals("true", result.get(1)._id);
+    assertEquals(1, result.get(1).count);
+    assertEquals("Fry", result.get(1).owners.get(0).owner);
+  }
+
+  @Test
+  void getTodosGroupedByOwnerForOneOwnerCountsOnly() {
+    when(ctx.queryParamMap()).thenReturn(Map.of(TodoController.GROUP_KEY, List.of("Jimmy")));
+    when(ctx.queryParam(TodoController.GROUP_KEY)).thenReturn("Jimmy");
+    when(ctx.queryParam(GroupingOptions.COUNTS_ONLY_KEY)).thenReturn("true");
+
+    todoController.getTodosGroupedByOwner(ctx);
+
+    verify(ctx).json(todoByOwnerListCaptor.capture());
+    ArrayList<TodoByOwner> result = todoByOwnerListCaptor.getValue();
+    assertEquals(1, result.size());
+    TodoByOwner jimmy = result.get(0);
+    assertEquals("Jimmy", jimmy._id);
+    assertEquals(1, jimmy.count);
+    assertEquals(null, jimmy.owners);
+  }
+
+  @Captor
+  private ArgumentCaptor<TodoSummary> todoSummaryCaptor;
+
+  @Test
+  void getTodoSummaryComputesEveryGroupingAtOnce() {
+    when(ctx.queryParam("sortBy")).thenReturn("count");
+    when(ctx.queryParam("sortOrder")).thenReturn("desc");
+    // The owner grouping overrides the shared sorting
+    when(ctx.queryParam("ownerSortBy")).thenReturn("owner");
+    when(ctx.queryParam("ownerSortOrder")).thenReturn("asc");
+
+    todoController.getTodoSummary(ctx);
+
+    verify(ctx).json(todoSummaryCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    TodoSummary summary = todoSummaryCaptor.getValue();
+    assertEquals(4, summary.total);
+
+    assertEquals(4, summary.byOwner.size());
+    assertEquals("Chris", summary.byOwner.get(0)._id);
+    assertEquals("Jimmy", summary.byOwner.get(3)._id);
+    assertEquals("Jimmy", summary.byOwner.get(3).owners.get(0).owner);
+
+    // Three incomplete todos and one complete one, most common first
+    assertEquals(2, summary.byStatus.size());
+    assertEquals("false", summary.byStatus.get(0)._id);
+    assertEquals(3, summary.byStatus.get(0).count);
+    assertEquals(1, summary.byStatus.get(1).count);
+
+    assertEquals(4, summary.byCategory.size());
+  }
+
+  @Test
+  void getTodoSummaryCountsOnly() {
+    when(ctx.queryParam(GroupingOptions.COUNTS_ONLY_KEY)).thenReturn("true");
+
+    todoController.getTodoSummary(ctx);
+
+    verify(ctx).json(todoSummaryCaptor.capture());
+    TodoSummary summary = todoSummaryCaptor.getValue();
+    assertEquals(4, summary.total);
+    for (TodoByCategory category : summary.byCategory) {
+      assertEquals(1, category.count);
+      assertEquals(null, category.owners);
+    }
+  }
+
   @Test
   void addOwner() throws IOException {
     // Create a new user to add
@@ -426,15 +572,9 @@ class TodoControllerSpec {
     // which is then less error prone.
     String newTodoJson = javalinJackson.toJsonString(newTodo, Todo.class);
 
-    // A `BodyValidator` needs
-    //   - The string (`newTodoJson`) being validated
-    //   - The class (`User.class) it's trying to generate from that string
-    //   - A function (`() -> User`) which "shows" the validator how to convert
-    //     the JSON string to a `User` object. We'll again use `javalinJackson`,
-    //     but in the other direction.
-    when(ctx.bodyValidator(Todo.class))
-      .thenReturn(new BodyValidator<>(newTodoJson, Todo.class,
-                    () -> javalinJackson.fromJsonString(newTodoJson, Todo.class)));
+    // The controller reads the body straight from the request's input stream,
+    // so hand it a stream of the JSON for our new todo.
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newTodoJson));
 
     todoController.addNewOwner(ctx);
     verify(ctx).json(mapCaptor.capture());
@@ -457,6 +597,124 @@ class TodoControllerSpec {
     assertEquals(newTodo.category, addedTodo.get("category"));
   }
 
+  @Test
+  void addOwnerThroughWriteBatching() throws IOException {
+    TodoController batching = new TodoController(db, Services.builder()
+      .writeBatchInterval(Duration.ofMillis(5))
+      .build());
+    String newTodoJson = "{\"owner\": \"Ramona\", \"status\": false, \"body\": \"Deliver packages\","
+      + " \"category\": \"work\"}";
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newTodoJson));
+
+    batching.addNewOwner(ctx);
+
+    verify(ctx).json(mapCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+    Document addedTodo = db.getCollection("todos")
+        .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Ramona", addedTodo.get("owner"));
+  }
+
+  @Test
+  void addOwnerThroughWriteAheadLog(@TempDir Path walDir) throws Exception {
+    WriteAheadLog wal = new WriteAheadLog(JsonMappers.create(), walDir, 4096, 100);
+    TodoController logging = new TodoController(db, Services.builder()
+      .writeAheadLog(wal)
+      .build());
+    String newTodoJson = "{\"owner\": \"Ramona\", \"status\": false, \"body\": \"Deliver packages\","
+      + " \"category\": \"work\"}";
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newTodoJson));
+
+    logging.addNewOwner(ctx);
+
+    // It's accepted (with its ID) as soon as it's logged ...
+    verify(ctx).json(mapCaptor.capture());
+    verify(ctx).status(HttpStatus.ACCEPTED);
+    assertEquals(1, wal.pending());
+
+    // ... and saved once the log is drained
+    wal.start();
+    for (int i = 0; i < 100 && wal.pending() > 0; i++) {
+      Thread.sleep(50);
+    }
+    wal.close();
+    Document addedTodo = db.getCollection("todos")
+        .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals("Ramona", addedTodo.get("owner"));
+  }
+
+  @Test
+  void addTodoWithoutCategoryOrOwner() throws IOException {
+    String newTodoJson = """
+      {
+        "owner": "",
+        "status": false,
+        "body": "Practice the bass"
+      }
+      """;
+
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newTodoJson));
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> {
+      todoController.addNewOwner(ctx);
+    });
+
+    // Both problems are reported, each naming the field that was wrong
+    List<ValidationError<Object>> errors = exception.getErrors().get("REQUEST_BODY");
+    assertEquals(2, errors.size());
+    assertEquals(TodoController.OWNER_KEY, errors.get(0).getArgs().get("field"));
+    assertTrue(errors.get(0).getMessage().contains("non-empty name"));
+    assertEquals(TodoController.CATEGORY_KEY, errors.get(1).getArgs().get("field"));
+    assertTrue(errors.get(1).getMessage().contains("Practice the bass"));
+  }
+
+  @Test
+  void addingAndDeletingTodosIsPublished() throws IOException {
+    ChangeFeed feed = mock(ChangeFeed.class);
+    TodoController publishing = new TodoController(db, Services.builder().changeFeed(feed).build());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(
+      "{\"owner\": \"Ramona\", \"status\": false, \"body\": \"Deliver packages\", \"category\": \"work\"}"));
+    when(ctx.pathParam("id")).thenReturn(JimmysId.toHexString());
+
+    publishing.addNewOwner(ctx);
+    publishing.deleteTodo(ctx);
+
+    ArgumentCaptor<ChangeFeed.Change> changes = ArgumentCaptor.forClass(ChangeFeed.Change.class);
+    ArgumentCaptor<Map<String, String>> attributes = ArgumentCaptor.captor();
+    verify(feed, Mockito.times(2)).publish(changes.capture(), attributes.capture());
+    assertEquals("insert", changes.getAllValues().get(0).type());
+    assertEquals(Map.of("owner", "Ramona", "category", "work"), attributes.getAllValues().get(0));
+    assertEquals("delete", changes.getAllValues().get(1).type());
+    assertEquals(JimmysId.toHexString(), changes.getAllValues().get(1).id());
+    assertEquals(Map.of("owner", "Jimmy", "category", "jimmy things"), attributes.getAllValues().get(1));
+    // Just the fields that were read, not a `Todo` with defaults for the rest
+    assertEquals(Map.of("_id", JimmysId.toHexString(), "owner", "Jimmy", "category", "jimmy things"),
+      changes.getAllValues().get(1).document());
+  }
+
+  @Test
+  void todosInsertedDespiteOthersFailingArePublished() {
+    ChangeFeed feed = mock(ChangeFeed.class);
+    TodoController publishing = new TodoController(db, Services.builder().changeFeed(feed).build());
+    List<Todo> todos = new ArrayList<>();
+    for (String id : List.of(new ObjectId().toHexString(), JimmysId.toHexString(), new ObjectId().toHexString())) {
+      Todo todo = new Todo();
+      todo._id = id;
+      todo.owner = "Ramona";
+      todo.body = "Deliver packages";
+      todo.category = "work";
+      todos.add(todo);
+    }
+
+    // Jimmy's todo is already there, so only the other two are inserted
+    assertThrows(MongoBulkWriteException.class, () -> publishing.insertTodos(todos));
+
+    ArgumentCaptor<ChangeFeed.Change> changes = ArgumentCaptor.forClass(ChangeFeed.Change.class);
+    verify(feed, Mockito.times(2)).publish(changes.capture(), any());
+    assertEquals(List.of(todos.get(0)._id, todos.get(2)._id),
+      changes.getAllValues().stream().map(ChangeFeed.Change::id).toList());
+  }
+
   @Test
   void deleteFoundOwner() throws IOException {
     String testID = JimmysId.toHexString();
@@ -472,4 +730,357 @@ class TodoControllerSpec {
     // User is no longer in the database
     assertEquals(0, db.getCollection("todos").countDocuments(eq("_id", new ObjectId(testID))));
   }
+
+  @Test
+  void updateTodoChangesOnlyTheGivenFields() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(JimmysId.toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"status\": true, \"body\": \"Jimmy climbed it\"}"));
+
+    todoController.updateTodo(ctx);
+
+    // The response is the updated todo, straight from `findOneAndUpdate`
+    verify(ctx).json(TodoCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertTrue(TodoCaptor.getValue().status);
+    assertEquals("Jimmy climbed it", TodoCaptor.getValue().body);
+    assertEquals("jimmy things", TodoCaptor.getValue().category);
+
+    Document jimmy = db.getCollection("todos").find(eq("_id", JimmysId)).first();
+    assertEquals(true, jimmy.get("status"));
+    assertEquals("Jimmy climbed it", jimmy.get("body"));
+    assertEquals("Jimmy", jimmy.get("owner"));
+  }
+
+  @Test
+  void updateTodoRejectsIllegalFields() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(JimmysId.toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"owner\": \"\", \"category\": \"\"}"));
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> todoController.updateTodo(ctx));
+
+    assertEquals(2, exception.getErrors().get("REQUEST_BODY").size());
+    assertEquals("Jimmy", db.getCollection("todos").find(eq("_id", JimmysId)).first().get("owner"));
+  }
+
+  @Test
+  void updateTodoWithBadOrMissingId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("not an id");
+    assertThrows(BadRequestResponse.class, () -> todoController.updateTodo(ctx));
+
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"status\": true}"));
+    assertThrows(NotFoundResponse.class, () -> todoController.updateTodo(ctx));
+  }
+
+  @Test
+  void updateTodosCantChangeOwnersOrBodies() {
+    filterByOwner("Chris");
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"owner\": \"Fry\"}"));
+
+    assertThrows(ValidationException.class, () -> todoController.updateTodos(ctx));
+    assertEquals(1, db.getCollection("todos").countDocuments(eq("owner", "Chris")));
+  }
+
+  @Captor
+  private ArgumentCaptor<TodoController.Changes> changesCaptor;
+
+  @Test
+  void changesWithoutATokenHaveEveryTodo() {
+    todoController.getChanges(ctx);
+
+    verify(ctx).json(changesCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    TodoController.Changes changes = changesCaptor.getValue();
+    assertEquals(4, changes.inserted().size());
+    assertTrue(changes.deleted().isEmpty());
+    assertTrue(!changes.more());
+    // The todos were all just added, so the token stays behind them for now
+    assertTrue(new ObjectId(changes.token()).getDate().toInstant()
+      .isBefore(Instant.now().minus(TodoController.CHANGES_SETTLE_TIME).plusSeconds(1)));
+  }
+
+  @Test
+  void changesSinceATokenHaveNewAndDeletedTodos() throws IOException {
+    ObjectId token = TodoController.objectIdAt(Instant.now().minusSeconds(60));
+    db.getCollection("todos").insertOne(new Document()
+      .append("_id", TodoController.objectIdAt(Instant.now().minusSeconds(120)))
+      .append("owner", "Old")
+      .append("status", true)
+      .append("body", "From before the token")
+      .append("category", "history"));
+    when(ctx.pathParam("id")).thenReturn(JimmysId.toHexString());
+    todoController.deleteTodo(ctx);
+    when(ctx.queryParam(TodoController.SINCE_KEY)).thenReturn(token.toHexString());
+
+    todoController.getChanges(ctx);
+
+    verify(ctx).json(changesCaptor.capture());
+    TodoController.Changes changes = changesCaptor.getValue();
+    assertEquals(List.of("Chris", "Fry", "Jill"), changes.inserted().stream().map(todo -> todo.owner).toList());
+    assertEquals(List.of(JimmysId.toHexString()), changes.deleted());
+    assertTrue(new ObjectId(changes.token()).compareTo(token) >= 0);
+  }
+
+  @Test
+  void todosInsertedLongAfterGettingTheirIdsAreStillSynced() {
+    ObjectId token = TodoController.objectIdAt(Instant.now().minusSeconds(60));
+    // As the write-ahead log would, with an ID from well before the token
+    Todo late = new Todo();
+    late._id = TodoController.objectIdAt(Instant.now().minusSeconds(120)).toHexString();
+    late.owner = "Late";
+    late.body = "Held up in the log";
+    late.category = "history";
+    todoController.insertTodos(List.of(late));
+    when(ctx.queryParam(TodoController.SINCE_KEY)).thenReturn(token.toHexString());
+
+    todoController.getChanges(ctx);
+
+    verify(ctx).json(changesCaptor.capture());
+    TodoController.Changes changes = changesCaptor.getValue();
+    assertEquals(List.of("Jimmy", "Chris", "Fry", "Jill", "Late"),
+      changes.inserted().stream().map(todo -> todo.owner).toList());
+    assertTrue(changes.updated().isEmpty());
+  }
+
+  @Test
+  void changesSinceATokenHaveUpdatedTodos() throws IOException {
+    ObjectId oldId = TodoController.objectIdAt(Instant.now().minusSeconds(120));
+    db.getCollection("todos").insertOne(new Document()
+      .append("_id", oldId)
+      .append("owner", "Old")
+      .append("status", false)
+      .append("body", "From before the token")
+      .append("category", "history"));
+    ObjectId token = TodoController.objectIdAt(Instant.now().minusSeconds(60));
+    when(ctx.pathParam("id")).thenReturn(oldId.toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"status\": true}"));
+    todoController.updateTodo(ctx);
+    when(ctx.queryParam(TodoController.SINCE_KEY)).thenReturn(token.toHexString());
+
+    todoController.getChanges(ctx);
+
+    // The update's response was the todo, so the changes are the last JSON sent
+    verify(ctx, Mockito.times(2)).json(changesCaptor.capture());
+    TodoController.Changes changes = changesCaptor.getValue();
+    assertEquals(List.of("Jimmy", "Chris", "Fry", "Jill"),
+      changes.inserted().stream().map(todo -> todo.owner).toList());
+    assertEquals(1, changes.updated().size());
+    assertEquals(oldId.toHexString(), changes.updated().get(0)._id);
+    assertTrue(changes.updated().get(0).status);
+  }
+
+  @Test
+  void bulkDeletesAreJournaledToo() {
+    filterByOwner("Jill");
+    todoController.deleteTodos(ctx);
+    assertEquals(1, db.getCollection(TodoController.JOURNAL).countDocuments());
+  }
+
+  @Test
+  void bulkDeletesWorkAChunkAtATime() {
+    List<Document> many = new ArrayList<>();
+    for (int i = 0; i < TodoController.BULK_CHUNK_SIZE * 2 + 1; i++) {
+      many.add(new Document("owner", "Jill").append("status", false).append("body", "Chore " + i)
+        .append("category", "chores"));
+    }
+    db.getCollection("todos").insertMany(many);
+    filterByOwner("Jill");
+
+    todoController.deleteTodos(ctx);
+
+    verify(ctx).json(countsCaptor.capture());
+    assertEquals(Map.of("deleted", many.size() + 1L), countsCaptor.getValue());
+    assertEquals(0, db.getCollection("todos").countDocuments(eq("owner", "Jill")));
+    assertEquals(many.size() + 1, db.getCollection(TodoController.JOURNAL).countDocuments());
+  }
+
+  @Test
+  void bulkUpdatesWorkAChunkAtATime() throws IOException {
+    // With Jill's first todo, exactly two full chunks
+    List<Document> many = new ArrayList<>();
+    for (int i = 0; i < TodoController.BULK_CHUNK_SIZE * 2 - 1; i++) {
+      many.add(new Document("owner", "Jill").append("status", false).append("body", "Chore " + i)
+        .append("category", "chores"));
+    }
+    db.getCollection("todos").insertMany(many);
+    filterByOwner("Jill");
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"category\": \"done\"}"));
+
+    todoController.updateTodos(ctx);
+
+    verify(ctx).json(countsCaptor.capture());
+    long all = many.size() + 1L;
+    assertEquals(Map.of("matched", all, "modified", all), countsCaptor.getValue());
+    assertEquals(all, db.getCollection("todos").countDocuments(and(eq("owner", "Jill"), eq("category", "done"))));
+    assertEquals(all, db.getCollection(TodoController.JOURNAL).countDocuments());
+  }
+
+  @Test
+  void changesRejectBadOrExpiredTokens() {
+    when(ctx.queryParam(TodoController.SINCE_KEY)).thenReturn("not a token");
+    assertThrows(BadRequestResponse.class, () -> todoController.getChanges(ctx));
+
+    Instant longAgo = Instant.now().minus(Services.defaults().tombstoneRetention()).minusSeconds(3600);
+    when(ctx.queryParam(TodoController.SINCE_KEY)).thenReturn(TodoController.objectIdAt(longAgo).toHexString());
+    assertThrows(GoneResponse.class, () -> todoController.getChanges(ctx));
+  }
+
+  @Test
+  void warmUpKeepsTheJournalForTheRetentionTime() {
+    new TodoController(db, Services.builder().tombstoneRetention(Duration.ofHours(1)).build()).warmUp();
+    // Changing the retention replaces the index, rather than failing
+    new TodoController(db, Services.builder().tombstoneRetention(Duration.ofHours(2)).build()).warmUp();
+
+    Document index = db.getCollection(TodoController.JOURNAL).listIndexes().into(new ArrayList<>()).stream()
+      .filter(i -> i.get("expireAfterSeconds") != null)
+      .findFirst().orElseThrow();
+    assertEquals(7200L, ((Number) index.get("expireAfterSeconds")).longValue());
+  }
+
+  @Captor
+  private ArgumentCaptor<Map<String, Long>> countsCaptor;
+
+  // Make the (mock) context's query parameters filter by `owner`
+  private void filterByOwner(String owner) {
+    when(ctx.queryParamMap()).thenReturn(Map.of(TodoController.OWNER_KEY, List.of(owner)));
+    when(ctx.queryParamAsClass(TodoController.OWNER_KEY, String.class))
+      .thenReturn(new Validation().validator(TodoController.OWNER_KEY, String.class, owner));
+  }
+
+  @Test
+  void updateTodosChangesEveryMatchingTodo() throws IOException {
+    db.getCollection("todos").insertOne(new Document()
+      .append("owner", "Jimmy")
+      .append("status", false)
+      .append("body", "Jimmy shall bake a second pie")
+      .append("category", "jimmy things"));
+    filterByOwner("Jimmy");
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"status\": true, \"category\": \"done\"}"));
+
+    todoController.updateTodos(ctx);
+
+    verify(ctx).json(countsCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(Map.of("matched", 2L, "modified", 2L), countsCaptor.getValue());
+    assertEquals(2, db.getCollection("todos")
+      .countDocuments(and(eq("owner", "Jimmy"), eq("status", true), eq("category", "done"))));
+    // Nobody else's todos changed
+    assertEquals(2, db.getCollection("todos").countDocuments(eq("category", "done")));
+    assertEquals(false, db.getCollection("todos").find(eq("owner", "Chris")).first().get("status"));
+  }
+
+  @Test
+  void bulkUpdatesArePublishedAndJournaled() throws IOException {
+    ChangeFeed feed = mock(ChangeFeed.class);
+    TodoController publishing = new TodoController(db, Services.builder().changeFeed(feed).build());
+    filterByOwner("Jimmy");
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"status\": true}"));
+
+    publishing.updateTodos(ctx);
+
+    ArgumentCaptor<ChangeFeed.Change> changes = ArgumentCaptor.forClass(ChangeFeed.Change.class);
+    verify(feed).publish(changes.capture(), any());
+    assertEquals("update", changes.getValue().type());
+    assertEquals(JimmysId.toHexString(), changes.getValue().id());
+    assertTrue(((Todo) changes.getValue().document()).status);
+    assertEquals(1, db.getCollection(TodoController.JOURNAL).countDocuments(eq("todoId", JimmysId)));
+  }
+
+  @Test
+  void updateTodosNeedsAFilter() {
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"status\": true}"));
+
+    assertThrows(BadRequestResponse.class, () -> todoController.updateTodos(ctx));
+    assertEquals(1, db.getCollection("todos").countDocuments(eq("status", true)));
+  }
+
+  @Test
+  void updateTodosNeedsSomethingToChange() {
+    filterByOwner("Chris");
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{}"));
+
+    assertThrows(BadRequestResponse.class, () -> todoController.updateTodos(ctx));
+  }
+
+  @Test
+  void updateTodosRejectsAnEmptyCategory() {
+    filterByOwner("Chris");
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"category\": \"\"}"));
+
+    assertThrows(ValidationException.class, () -> todoController.updateTodos(ctx));
+    assertEquals("software design", db.getCollection("todos").find(eq("owner", "Chris")).first().get("category"));
+  }
+
+  @Test
+  void deleteTodosDeletesAllOfAnOwnersTodos() {
+    db.getCollection("todos").insertOne(new Document()
+      .append("owner", "Jimmy")
+      .append("status", true)
+      .append("body", "Jimmy shall bake a second pie")
+      .append("category", "jimmy things"));
+    filterByOwner("Jimmy");
+
+    todoController.deleteTodos(ctx);
+
+    verify(ctx).json(countsCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(Map.of("deleted", 2L), countsCaptor.getValue());
+    assertEquals(0, db.getCollection("todos").countDocuments(eq("owner", "Jimmy")));
+    assertEquals(3, db.getCollection("todos").countDocuments());
+  }
+
+  @Test
+  void deleteTodosNeedsAnOwner() {
+    assertThrows(BadRequestResponse.class, () -> todoController.deleteTodos(ctx));
+    assertEquals(4, db.getCollection("todos").countDocuments());
+  }
+
+  @Captor
+  private ArgumentCaptor<List<MultiGet.Entry<Todo>>> entriesCaptor;
+
+  @Test
+  void getTodosByIdsKeepsTheRequestedOrder() {
+    String missingId = new ObjectId().toHexString();
+    String jimmy = JimmysId.toHexString();
+    when(ctx.queryParam(MultiGet.IDS_KEY)).thenReturn(jimmy + "," + missingId + "," + jimmy);
+
+    todoController.getUsers(ctx);
+
+    verify(ctx).json(entriesCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    List<MultiGet.Entry<Todo>> entries = entriesCaptor.getValue();
+    assertEquals(List.of(jimmy, missingId, jimmy), entries.stream().map(MultiGet.Entry::id).toList());
+    assertEquals("Jimmy", entries.get(0).value().owner);
+    assertTrue(!entries.get(1).found());
+    assertEquals("Jimmy", entries.get(2).value().owner);
+  }
+
+  @Test
+  void getTodosByIdsRejectsBadIds() {
+    when(ctx.queryParam(MultiGet.IDS_KEY)).thenReturn(JimmysId.toHexString() + ",,nope");
+
+    assertThrows(BadRequestResponse.class, () -> todoController.getUsers(ctx));
+  }
+
+  @Test
+  void findTodosByIdFindsTheTodosThatExist() {
+    ObjectId missingId = new ObjectId();
+    Map<ObjectId, Todo> found = todoController.findTodosById(List.of(JimmysId, missingId), Duration.ofSeconds(5));
+
+    assertEquals(1, found.size());
+    assertEquals("Jimmy", found.get(JimmysId).owner);
+  }
+
+  @Test
+  void warmUpCreatesIndexes() {
+    todoController.warmUp();
+    // Warming up again is harmless
+    todoController.warmUp();
+
+    List<String> indexedFields = new ArrayList<>();
+    for (Document index : db.getCollection("todos").listIndexes()) {
+      indexedFields.addAll(index.get("key", Document.class).keySet());
+    }
+    assertTrue(indexedFields.contains(TodoController.OWNER_KEY));
+  }
 }
@@ -0,0 +1,75 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the `AvatarService`.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AvatarServiceSpec {
+
+  @Test
+  void md5IsLowercaseHexOfTheLowercaseString() throws NoSuchAlgorithmException {
+    AvatarService avatars = new AvatarService(AvatarService.DEFAULT_MEMO_SIZE);
+
+    assertEquals("55502f40dc8b7c769880b10874abc9d0", avatars.md5("test@example.com"));
+    assertEquals("55502f40dc8b7c769880b10874abc9d0", avatars.md5("Test@Example.COM"));
+  }
+
+  @Test
+  void avatarsAreRemembered() throws NoSuchAlgorithmException {
+    AvatarService avatars = spy(new AvatarService(AvatarService.DEFAULT_MEMO_SIZE));
+
+    String first = avatars.avatarFor("test@example.com");
+    String second = avatars.avatarFor("test@example.com");
+
+    assertEquals("https://gravatar.com/avatar/55502f40dc8b7c769880b10874abc9d0?d=identicon", first);
+    assertEquals(first, second);
+    verify(avatars, times(1)).md5("test@example.com");
+  }
+
+  @Test
+  void theMysteryPersonIsNotRemembered() throws NoSuchAlgorithmException {
+    AvatarService avatars = spy(new AvatarService(AvatarService.DEFAULT_MEMO_SIZE));
+    when(avatars.md5("test@example.com"))
+      .thenThrow(NoSuchAlgorithmException.class)
+      .thenReturn("md5hash");
+
+    assertEquals(AvatarService.MYSTERY_PERSON, avatars.avatarFor("test@example.com"));
+    assertEquals("https://gravatar.com/avatar/md5hash?d=identicon", avatars.avatarFor("test@example.com"));
+  }
+
+  @Test
+  void theLeastRecentlyUsedAvatarIsForgotten() throws NoSuchAlgorithmException {
+    AvatarService avatars = spy(new AvatarService(2));
+
+    avatars.avatarFor("a@example.com");
+    avatars.avatarFor("b@example.com");
+    avatars.avatarFor("a@example.com");
+    // Pushes out b, which was used less recently than a
+    avatars.avatarFor("c@example.com");
+    avatars.avatarFor("a@example.com");
+    avatars.avatarFor("b@example.com");
+
+    verify(avatars, times(1)).md5("a@example.com");
+    verify(avatars, times(2)).md5("b@example.com");
+  }
+
+  @Test
+  void aZeroSizeMemoRemembersNothing() throws NoSuchAlgorithmException {
+    AvatarService avatars = spy(new AvatarService(0));
+
+    avatars.avatarFor("a@example.com");
+    avatars.avatarFor("a@example.com");
+
+    verify(avatars, times(2)).md5("a@example.com");
+  }
+}
@@ -2,6 +2,7 @@ package umm3601.user;
 
 import static com.mongodb.client.model.Filters.eq;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -12,7 +13,10 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,6 +41,7 @@ import org.mockito.MockitoAnnotations;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
@@ -50,11 +55,14 @@ import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
-import io.javalin.validation.BodyValidator;
 import io.javalin.validation.Validation;
 import io.javalin.validation.ValidationError;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import umm3601.ChangeFeed;
+import umm3601.GroupingOptions;
+import umm3601.MultiGet;
+import umm3601.Services;
 
 /**
  * Tests the logic of the UserController
@@ -101,6 +109,14 @@ class UserControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  /**
+   * @param json the JSON for a request body
+   * @return an input stream of that body, as the controller would get it from a request
+   */
+  private static InputStream bodyOf(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
   /**
    * Sets up (the connection to the) DB once; that connection and DB will
    * then be (re)used for all the tests, and closed in the `teardown()`
@@ -186,6 +202,7 @@ class UserControllerSpec {
     verify(mockServer, Mockito.atLeast(3)).get(any(), any());
     verify(mockServer, Mockito.atLeastOnce()).post(any(), any());
     verify(mockServer, Mockito.atLeastOnce()).delete(any(), any());
+    verify(mockServer, Mockito.atLeastOnce()).patch(any(), any());
   }
 
   @Test
@@ -617,6 +634,36 @@ class UserControllerSpec {
     assertEquals("The requested user was not found", exception.getMessage());
   }
 
+  @Captor
+  private ArgumentCaptor<List<MultiGet.Entry<User>>> entriesCaptor;
+
+  @Test
+  void getUsersByIdsKeepsTheRequestedOrder() {
+    String missingId = new ObjectId().toHexString();
+    String json = "{\"ids\": [\"" + missingId + "\", \"" + samsId.toHexString() + "\"]}";
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(json));
+
+    userController.getUsersByIds(ctx);
+
+    verify(ctx).json(entriesCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    List<MultiGet.Entry<User>> entries = entriesCaptor.getValue();
+    assertEquals(2, entries.size());
+    assertEquals(new MultiGet.Entry<User>(missingId, false, null), entries.get(0));
+    assertTrue(entries.get(1).found());
+    assertEquals("Sam", entries.get(1).value().name);
+  }
+
+  @Test
+  void getUsersByIdsRejectsBadIdsBeforeLookingAnythingUp() {
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"ids\": [\"" + samsId.toHexString() + "\", \"bad\"]}"));
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> userController.getUsersByIds(ctx));
+
+    assertTrue(exception.getMessage().contains("bad"));
+    verify(ctx, Mockito.never()).json(any());
+  }
+
   @Captor
   private ArgumentCaptor<ArrayList<UserByCompany>> userByCompanyListCaptor;
 
@@ -723,6 +770,50 @@ class UserControllerSpec {
     assertEquals(2, ohmnet.count);
   }
 
+  @Test
+  void testGetUsersGroupedByCompanyCountsOnly() {
+    when(ctx.queryParam(GroupingOptions.COUNTS_ONLY_KEY)).thenReturn("true");
+    userController.getUsersGroupedByCompany(ctx);
+
+    verify(ctx).json(userByCompanyListCaptor.capture());
+    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+
+    // We still get all three companies and their counts, but no users
+    assertEquals(3, result.size());
+    assertEquals(4, result.stream().mapToInt(company -> company.count).sum());
+    for (UserByCompany company : result) {
+      assertEquals(null, company.users);
+    }
+  }
+
+  @Test
+  void testPagingThroughOneCompanysUsers() {
+    Validation validation = new Validation();
+    when(ctx.queryParamMap()).thenReturn(Map.of(
+        UserController.GROUP_KEY, List.of("OHMNET"),
+        GroupingOptions.MEMBERS_SKIP_KEY, List.of("1"),
+        GroupingOptions.MEMBERS_LIMIT_KEY, List.of("1")));
+    when(ctx.queryParam(UserController.GROUP_KEY)).thenReturn("OHMNET");
+    when(ctx.queryParamAsClass(GroupingOptions.MEMBERS_SKIP_KEY, Integer.class))
+        .thenReturn(validation.validator(GroupingOptions.MEMBERS_SKIP_KEY, Integer.class, "1"));
+    when(ctx.queryParamAsClass(GroupingOptions.MEMBERS_LIMIT_KEY, Integer.class))
+        .thenReturn(validation.validator(GroupingOptions.MEMBERS_LIMIT_KEY, Integer.class, "1"));
+
+    userController.getUsersGroupedByCompany(ctx);
+
+    verify(ctx).json(userByCompanyListCaptor.capture());
+    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+
+    // Just OHMNET, with its full count, but only its second user (by `_id`).
+    // Sam's ID is generated in `setupEach()` before the other users are
+    // inserted (and given IDs), so Sam comes first and Jamie second.
+    assertEquals(1, result.size());
+    assertEquals("OHMNET", result.get(0)._id);
+    assertEquals(2, result.get(0).count);
+    assertEquals(1, result.get(0).users.size());
+    assertEquals("Jamie", result.get(0).users.get(0).name);
+  }
+
   @Test
   void addUser() throws IOException {
     // Create a new user to add
@@ -748,15 +839,9 @@ class UserControllerSpec {
     // which is then less error prone.
     String newUserJson = javalinJackson.toJsonString(newUser, User.class);
 
-    // A `BodyValidator` needs
-    //   - The string (`newUserJson`) being validated
-    //   - The class (`User.class) it's trying to generate from that string
-    //   - A function (`() -> User`) which "shows" the validator how to convert
-    //     the JSON string to a `User` object. We'll again use `javalinJackson`,
-    //     but in the other direction.
-    when(ctx.bodyValidator(User.class))
-      .thenReturn(new BodyValidator<User>(newUserJson, User.class,
-                    () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    // The controller reads the body straight from the request's input stream,
+    // so hand it a stream of the JSON for our new user.
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     userController.addNewUser(ctx);
     verify(ctx).json(mapCaptor.capture());
@@ -797,10 +882,7 @@ class UserControllerSpec {
       }
       """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-      .thenReturn(new BodyValidator<User>(newUserJson, User.class,
-                    () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has an invalid email address.
@@ -833,10 +915,7 @@ class UserControllerSpec {
       }
       """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .thenReturn(new BodyValidator<User>(newUserJson, User.class,
-                      () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has an invalid email address.
@@ -866,10 +945,7 @@ class UserControllerSpec {
         }
         """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .thenReturn(new BodyValidator<User>(newUserJson, User.class,
-                      () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has an age that's too large.
@@ -899,10 +975,7 @@ class UserControllerSpec {
         }
         """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .then(value -> new BodyValidator<User>(newUserJson, User.class,
-                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has an invalid email address.
@@ -931,10 +1004,7 @@ class UserControllerSpec {
         }
         """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .then(value -> new BodyValidator<User>(newUserJson, User.class,
-                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has no name.
@@ -964,10 +1034,7 @@ class UserControllerSpec {
         }
         """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .then(value -> new BodyValidator<User>(newUserJson, User.class,
-                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has an invalid email address.
@@ -997,10 +1064,7 @@ class UserControllerSpec {
         }
         """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .then(value -> new BodyValidator<User>(newUserJson, User.class,
-                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has an invalid user role.
@@ -1029,10 +1093,7 @@ class UserControllerSpec {
         }
         """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .then(value -> new BodyValidator<User>(newUserJson, User.class,
-                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has no company.
@@ -1062,10 +1123,7 @@ class UserControllerSpec {
         }
         """;
 
-    when(ctx.body()).thenReturn(newUserJson);
-    when(ctx.bodyValidator(User.class))
-        .then(value -> new BodyValidator<User>(newUserJson, User.class,
-                        () -> javalinJackson.fromJsonString(newUserJson, User.class)));
+    when(ctx.bodyInputStream()).thenReturn(bodyOf(newUserJson));
 
     // This should now throw a `ValidationException` because
     // the JSON for our new user has an invalid email address.
@@ -1087,6 +1145,32 @@ class UserControllerSpec {
     assertTrue(companyExceptionMessage.contains("non-empty company name"));
   }
 
+  @Test
+  void usersInsertedDespiteOthersFailingArePublished() {
+    ChangeFeed feed = mock(ChangeFeed.class);
+    UserController publishing = new UserController(db, Services.builder().changeFeed(feed).build());
+    List<User> users = new ArrayList<>();
+    for (String id : List.of(new ObjectId().toHexString(), samsId.toHexString(), new ObjectId().toHexString())) {
+      User user = new User();
+      user._id = id;
+      user.name = "Ramona";
+      user.age = 24;
+      user.company = "Planet Express";
+      user.email = "ramona@example.com";
+      user.role = "editor";
+      users.add(user);
+    }
+
+    // Sam is already there (as after a crash), so only the other two are inserted
+    assertThrows(MongoBulkWriteException.class, () -> publishing.insertUsers(users));
+
+    ArgumentCaptor<ChangeFeed.Change> changes = ArgumentCaptor.forClass(ChangeFeed.Change.class);
+    verify(feed, Mockito.times(2)).publish(changes.capture(), any());
+    assertEquals(List.of(users.get(0)._id, users.get(2)._id),
+      changes.getAllValues().stream().map(ChangeFeed.Change::id).toList());
+    assertEquals(2, db.getCollection("users").countDocuments(eq("name", "Ramona")));
+  }
+
   @Test
   void deleteFoundUser() throws IOException {
     String testID = samsId.toHexString();
@@ -1103,6 +1187,67 @@ class UserControllerSpec {
     assertEquals(0, db.getCollection("users").countDocuments(eq("_id", new ObjectId(testID))));
   }
 
+  @Test
+  void updateUserChangesOnlyTheGivenFields() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"role\": \"admin\", \"age\": 46}"));
+
+    userController.updateUser(ctx);
+
+    // The response is the updated user, straight from `findOneAndUpdate`
+    verify(ctx).json(userCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals("admin", userCaptor.getValue().role);
+    assertEquals(46, userCaptor.getValue().age);
+    assertEquals("Sam", userCaptor.getValue().name);
+
+    Document sam = db.getCollection("users").find(eq("_id", samsId)).first();
+    assertEquals("admin", sam.get("role"));
+    assertEquals(46, sam.get("age"));
+    assertEquals("sam@frogs.com", sam.get("email"));
+  }
+
+  @Test
+  void updateUserGivesANewEmailANewAvatar() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"email\": \"sam@toads.com\"}"));
+
+    userController.updateUser(ctx);
+
+    verify(ctx).json(userCaptor.capture());
+    assertEquals("sam@toads.com", userCaptor.getValue().email);
+    assertEquals(userController.generateAvatar("sam@toads.com"), userCaptor.getValue().avatar);
+  }
+
+  @Test
+  void updateUserRejectsIllegalFields() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"role\": \"owner\", \"age\": -1, \"name\": \"\"}"));
+
+    ValidationException exception = assertThrows(ValidationException.class, () -> userController.updateUser(ctx));
+
+    assertEquals(3, exception.getErrors().get("REQUEST_BODY").size());
+    assertEquals("viewer", db.getCollection("users").find(eq("_id", samsId)).first().get("role"));
+  }
+
+  @Test
+  void updateUserNeedsSomethingToChange() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{}"));
+
+    assertThrows(BadRequestResponse.class, () -> userController.updateUser(ctx));
+  }
+
+  @Test
+  void updateUserWithBadOrMissingId() throws IOException {
+    when(ctx.pathParam("id")).thenReturn("not an id");
+    assertThrows(BadRequestResponse.class, () -> userController.updateUser(ctx));
+
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    when(ctx.bodyInputStream()).thenReturn(bodyOf("{\"role\": \"admin\"}"));
+    assertThrows(NotFoundResponse.class, () -> userController.updateUser(ctx));
+  }
+
   @Test
   void tryToDeleteNotFoundUser() throws IOException {
     String testID = samsId.toHexString();
@@ -1130,9 +1275,10 @@ class UserControllerSpec {
    * out what the actual md5 hash of a particular email address is.
    *
    * The use of `Mockito.spy()` essentially allows us to override
-   * the `md5()` method, while leaving the rest of the user controller
-   * "as is". This is a nice way to test a method that depends on
-   * an internal method that we don't want to test (`md5()` in this case).
+   * the `md5()` method of the `AvatarService` that the controller uses,
+   * while leaving the rest of the service "as is". This is a nice way to
+   * test a method that depends on an internal method that we don't want
+   * to test (`md5()` in this case).
    *
    * This code was suggested by GitHub CoPilot.
    *
@@ -1142,8 +1288,9 @@ class UserControllerSpec {
   void testGenerateAvatar() throws NoSuchAlgorithmException {
     // Arrange
     String email = "test@example.com";
-    UserController controller = Mockito.spy(userController);
-    when(controller.md5(email)).thenReturn("md5hash");
+    AvatarService avatars = Mockito.spy(new AvatarService(AvatarService.DEFAULT_MEMO_SIZE));
+    when(avatars.md5(email)).thenReturn("md5hash");
+    UserController controller = new UserController(db, Services.builder().avatars(avatars).build());
 
     // Act
     String avatar = controller.generateAvatar(email);
@@ -1162,9 +1309,10 @@ class UserControllerSpec {
    * mocking `.md5()` (since the algorithm does actually exist).
    *
    * The use of `Mockito.spy()` essentially allows us to override
-   * the `md5()` method, while leaving the rest of the user controller
-   * "as is". This is a nice way to test a method that depends on
-   * an internal method that we don't want to test (`md5()` in this case).
+   * the `md5()` method of the `AvatarService` that the controller uses,
+   * while leaving the rest of the service "as is". This is a nice way to
+   * test a method that depends on an internal method that we don't want
+   * to test (`md5()` in this case).
    *
    * This code was suggested by GitHub CoPilot.
    *
@@ -1174,8 +1322,9 @@ class UserControllerSpec {
   void testGenerateAvatarWithException() throws NoSuchAlgorithmException {
     // Arrange
     String email = "test@example.com";
-    UserController controller = Mockito.spy(userController);
-    when(controller.md5(email)).thenThrow(NoSuchAlgorithmException.class);
+    AvatarService avatars = Mockito.spy(new AvatarService(AvatarService.DEFAULT_MEMO_SIZE));
+    when(avatars.md5(email)).thenThrow(NoSuchAlgorithmException.class);
+    UserController controller = new UserController(db, Services.builder().avatars(avatars).build());
 
     // Act
     String avatar = controller.generateAvatar(email);
@@ -1183,4 +1332,27 @@ class UserControllerSpec {
     // Assert
     assertEquals("https://gravatar.com/avatar/?d=mp", avatar);
   }
+
+  @Test
+  void warmUpCreatesIndexes() {
+    userController.warmUp();
+    // Warming up again is harmless
+    userController.warmUp();
+
+    List<String> indexedFields = new ArrayList<>();
+    for (Document index : db.getCollection("users").listIndexes()) {
+      indexedFields.addAll(index.get("key", Document.class).keySet());
+    }
+    assertTrue(indexedFields.contains(UserController.COMPANY_KEY));
+  }
+
+  @Test
+  void isEmailAgreesWithTheEmailRegex() {
+    List<String> emails = List.of("sam@frogs.com", "a.b-c+d@x-y.z", "!#$%&'*+/=?`{|}~^.-_@0", "@frogs.com",
+      "sam@", "sam", "sam@@frogs.com", "sam@frogs_com", "sa m@frogs.com", "sám@frogs.com", "");
+    for (String email : emails) {
+      assertEquals(email.matches(UserController.EMAIL_REGEX), UserController.isEmail(email), email);
+    }
+    assertFalse(UserController.isEmail(null));
+  }
 }